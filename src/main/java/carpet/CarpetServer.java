@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
 
+import carpet.commands.ArenaCommand;
 import carpet.commands.CounterCommand;
 import carpet.commands.DistanceCommand;
 import carpet.commands.DrawCommand;
@@ -21,6 +22,7 @@ import carpet.commands.SpawnCommand;
 import carpet.commands.SpawnPlayerCommand;
 import carpet.commands.TestCommand;
 import carpet.network.ServerNetworkHandler;
+import carpet.helpers.ArenaManager;
 import carpet.helpers.HopperCounter;
 import carpet.logging.LoggerRegistry;
 import carpet.script.CarpetScriptServer;
@@ -29,6 +31,7 @@ import carpet.logging.HUDController;
 import carpet.script.external.Carpet;
 import carpet.script.external.Vanilla;
 import carpet.script.utils.ParticleParser;
+import carpet.utils.MetricsExporter;
 import carpet.utils.MobAI;
 import carpet.utils.SpawnReporter;
 import com.mojang.brigadier.CommandDispatcher;
@@ -105,6 +108,8 @@ public class CarpetServer
         HUDController.update_hud(server, null);
         if (scriptServer != null) scriptServer.tick();
         ScheduleCommand.tick(server);
+        ArenaManager.tick();
+        MetricsExporter.tick(server);
         CarpetSettings.impendingFillSkipUpdates.set(false);
         extensions.forEach(e -> e.onTick(server));
     }
@@ -130,6 +135,7 @@ public class CarpetServer
         ScriptCommand.register(dispatcher, commandBuildContext);
         MobAICommand.register(dispatcher, commandBuildContext);
         ScheduleCommand.register(dispatcher, commandBuildContext);
+        ArenaCommand.register(dispatcher, commandBuildContext);
         extensions.forEach(e -> {
             e.registerCommands(dispatcher, commandBuildContext);
         });
@@ -180,6 +186,8 @@ public class CarpetServer
             scriptServer = null;
             ServerNetworkHandler.close();
             ScheduleCommand.onServerClosed();
+            ArenaManager.onServerClosed();
+            MetricsExporter.stop();
 
             LoggerRegistry.stopLoggers();
             HUDController.resetScarpetHUDs();
@@ -7,6 +7,7 @@ import carpet.script.utils.AppStoreManager;
 import carpet.settings.Rule;
 import carpet.utils.Translations;
 import carpet.utils.CommandHelper;
+import carpet.utils.ContinuousProfiler;
 import carpet.utils.Messenger;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.SemanticVersion;
@@ -29,6 +30,8 @@ import net.minecraft.world.level.border.WorldBorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 import static carpet.api.settings.RuleCategory.BUGFIX;
@@ -496,6 +499,73 @@ public class CarpetSettings
     )
     public static String commandProfile = "true";
 
+    private static class ContinuousProfilerValidator extends Validator<Boolean>
+    {
+        @Override
+        public Boolean validate(CommandSourceStack source, CarpetRule<Boolean> changingRule, Boolean newValue, String userInput)
+        {
+            if (newValue && !changingRule.value())
+            {
+                // stats from before the gap would skew the rolling windows
+                ContinuousProfiler.reset();
+            }
+            return newValue;
+        }
+    }
+
+    @Rule(
+            desc = "Keeps profiling tick sections all the time, with rolling latency stats over the last 1, 5 and 15 minutes",
+            extra = "Query them with /profile stats",
+            category = {COMMAND, OPTIMIZATION},
+            validate = ContinuousProfilerValidator.class
+    )
+    public static boolean profilerContinuous = false;
+
+    @Rule(
+            desc = "Saves a report of each tick taking longer than that many milliseconds",
+            extra = {"Reports hold section times, sampled stacks of the server thread, and the slowest entities and scarpet apps of the tick",
+                    "They go to the lagspikes folder of the world, which keeps the last 20 of them",
+                    "0 turns it off"},
+            options = {"0", "100", "250", "1000"},
+            category = {COMMAND, OPTIMIZATION},
+            strict = false,
+            validate = Validators.NonNegativeNumber.class
+    )
+    public static int lagSpikeThreshold = 0;
+
+    private static class PortValidator extends Validator<Integer>
+    {
+        @Override
+        public Integer validate(CommandSourceStack source, CarpetRule<Integer> currentRule, Integer newValue, String string)
+        {
+            return (newValue >= 0 && newValue <= 65535) ? newValue : null;
+        }
+
+        @Override
+        public String description() { return "You must choose a port from 1 to 65535, or 0";}
+    }
+    @Rule(
+            desc = "Serves carpet metrics on that port of localhost, for Prometheus to scrape",
+            extra = {"They hold MSPT, TPS, mobcaps, tracked spawns, hopper counters, packet totals,",
+                    "and tick section times while profilerContinuous is on",
+                    "Scrape them from http://localhost:<port>/metrics, 0 turns it off"},
+            options = {"0", "9225"},
+            category = {COMMAND, OPTIMIZATION},
+            strict = false,
+            validate = PortValidator.class
+    )
+    public static int metricsPort = 0;
+
+    @Rule(
+            desc = "Appends carpet metrics to a JSON lines file in the metrics folder of the world every that many seconds",
+            extra = {"A new file starts each day, and files of the last 7 days are kept", "0 turns it off"},
+            options = {"0", "10", "60"},
+            category = {COMMAND, OPTIMIZATION},
+            strict = false,
+            validate = Validators.NonNegativeNumber.class
+    )
+    public static int metricsLogInterval = 0;
+
     @Rule(
             desc = "Required permission level for /perf command",
             options = {"2", "4"},
@@ -515,6 +585,49 @@ public class CarpetSettings
     )
     public static String defaultLoggers = "none";
 
+    private static class HudUpdateIntervalValidator extends Validator<String>
+    {
+        @Override
+        public String validate(CommandSourceStack source, CarpetRule<String> currentRule, String newValue, String string)
+        {
+            int interval = 20;
+            Map<String, Integer> intervals = new HashMap<>();
+            for (String entry : newValue.split(","))
+            {
+                String[] parts = entry.trim().split(":", 2);
+                String ticks = parts[parts.length - 1].trim();
+                if (!ticks.matches("^[0-9]+$") || Integer.parseInt(ticks) < 1)
+                    return null;
+                if (parts.length == 1)
+                    interval = Integer.parseInt(ticks);
+                else
+                    intervals.put(parts[0].trim(), Integer.parseInt(ticks));
+            }
+            hudUpdateIntervals = intervals;
+            hudDefaultUpdateInterval = interval;
+            return newValue;
+        }
+
+        @Override
+        public String description()
+        {
+            return "Value must be a number of ticks, optionally followed by logger:ticks pairs, like 20,mobcaps:100";
+        }
+    }
+
+    @Rule(
+            desc = "How often HUD loggers refresh, in ticks",
+            extra = {"Set it for each logger with logger:ticks pairs, like 20,tps:10,mobcaps:100",
+                    "Tab lists are only sent to players when their content changes"},
+            options = {"20", "10", "40", "20,mobcaps:100"},
+            category = {COMMAND, OPTIMIZATION},
+            strict = false,
+            validate = HudUpdateIntervalValidator.class
+    )
+    public static String hudUpdateInterval = "20";
+    public static int hudDefaultUpdateInterval = 20;
+    public static Map<String, Integer> hudUpdateIntervals = Map.of();
+
     @Rule(
             desc = "Enables /distance command to measure in game distance between points",
             extra = "Also enables brown carpet placement action if 'carpets' rule is turned on as well",
@@ -624,6 +737,27 @@ public class CarpetSettings
             category = SCARPET
     )
     public static boolean scriptsOptimization = true;
+
+    @Rule(
+            desc = "Maximum number of particles scarpet sends to each player per tick",
+            extra = {"Applies to particles from particle functions and to particle replacements of shapes", "0 means no limit"},
+            options = {"0", "2000", "10000", "50000"},
+            category = {SCARPET, OPTIMIZATION},
+            strict = false,
+            validate = Validators.NonNegativeNumber.class
+    )
+    public static int scarpetParticleBudget = 10000;
+
+    @Rule(
+            desc = "Maximum milliseconds each scarpet app can run on the server thread per tick",
+            extra = {"Calls going over it get stopped with an error, and scheduled calls of apps that used up their time wait for the next tick",
+                    "0 means no limit"},
+            options = {"0", "10", "25", "50"},
+            category = {SCARPET, OPTIMIZATION},
+            strict = false,
+            validate = Validators.NonNegativeNumber.class
+    )
+    public static int scarpetAppTickBudget = 0;
     private static class ScarpetAppStore extends Validator<String> {
         @Override
         public String validate(CommandSourceStack source, CarpetRule<String> currentRule, String newValue, String stringInput) {
@@ -667,6 +801,19 @@ public class CarpetSettings
     @Rule(desc = "Enables /player command to control/spawn players", category = COMMAND)
     public static String commandPlayer = "true";
 
+    @Rule(desc = "Enables /arena command to snapshot and restore areas", category = COMMAND)
+    public static String commandArena = "ops";
+
+    @Rule(
+            desc = "Time in milliseconds arena restores can take each tick",
+            extra = "Restores always progress by at least one chunk section per tick",
+            options = {"0", "5", "10", "25"},
+            category = {COMMAND, OPTIMIZATION},
+            strict = false,
+            validate = Validators.NonNegativeNumber.class
+    )
+    public static int arenaRestoreBudget = 10;
+
     @Rule(desc = "Spawn offline players in online mode if online-mode player with specified name does not exist", category = COMMAND)
     public static boolean allowSpawningOfflinePlayers = true;
 
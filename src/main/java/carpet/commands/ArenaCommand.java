@@ -0,0 +1,189 @@
+package carpet.commands;
+
+import carpet.CarpetSettings;
+import carpet.helpers.ArenaManager;
+import carpet.helpers.ArenaSnapshot;
+import carpet.utils.CommandHelper;
+import carpet.utils.Messenger;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
+import net.minecraft.commands.CommandBuildContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.arguments.coordinates.BlockPosArgument;
+import net.minecraft.core.BlockPos;
+
+import java.io.IOException;
+
+import static net.minecraft.commands.Commands.argument;
+import static net.minecraft.commands.Commands.literal;
+import static net.minecraft.commands.SharedSuggestionProvider.suggest;
+
+/**
+ * /arena command, capturing areas and restoring them to the captured state, changing only the sections that changed since.
+ */
+public class ArenaCommand
+{
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher, CommandBuildContext commandBuildContext)
+    {
+        LiteralArgumentBuilder<CommandSourceStack> command = literal("arena")
+                .requires(source -> CommandHelper.canUseCommand(source, CarpetSettings.commandArena))
+                .then(literal("capture")
+                        .then(argument("name", StringArgumentType.word())
+                                .then(argument("from", BlockPosArgument.blockPos())
+                                        .then(argument("to", BlockPosArgument.blockPos())
+                                                .executes(c -> capture(c.getSource(), StringArgumentType.getString(c, "name"),
+                                                        BlockPosArgument.getLoadedBlockPos(c, "from"), BlockPosArgument.getLoadedBlockPos(c, "to"), false))
+                                                .then(literal("with_entities")
+                                                        .executes(c -> capture(c.getSource(), StringArgumentType.getString(c, "name"),
+                                                                BlockPosArgument.getLoadedBlockPos(c, "from"), BlockPosArgument.getLoadedBlockPos(c, "to"), true)))))))
+                .then(literal("restore")
+                        .then(arenaName()
+                                .executes(c -> restore(c.getSource(), StringArgumentType.getString(c, "name"), false))
+                                .then(literal("all")
+                                        .executes(c -> restore(c.getSource(), StringArgumentType.getString(c, "name"), true)))))
+                .then(literal("info")
+                        .then(arenaName()
+                                .executes(c -> info(c.getSource(), StringArgumentType.getString(c, "name")))))
+                .then(literal("list").executes(c -> list(c.getSource())))
+                .then(literal("remove")
+                        .then(arenaName()
+                                .executes(c -> remove(c.getSource(), StringArgumentType.getString(c, "name")))))
+                .then(literal("save")
+                        .then(arenaName()
+                                .executes(c -> save(c.getSource(), StringArgumentType.getString(c, "name")))))
+                .then(literal("load")
+                        .then(argument("name", StringArgumentType.word())
+                                .executes(c -> load(c.getSource(), StringArgumentType.getString(c, "name")))));
+        dispatcher.register(command);
+    }
+
+    private static RequiredArgumentBuilder<CommandSourceStack, String> arenaName()
+    {
+        return argument("name", StringArgumentType.word())
+                .suggests((c, b) -> suggest(ArenaManager.all().stream().map(a -> a.name), b));
+    }
+
+    private static int capture(CommandSourceStack source, String name, BlockPos from, BlockPos to, boolean withEntities)
+    {
+        if (!ArenaManager.isValidName(name))
+        {
+            Messenger.m(source, "r Invalid arena name: " + name);
+            return 0;
+        }
+        ArenaSnapshot arena = ArenaManager.capture(name, source.getLevel(), from, to, withEntities);
+        Messenger.m(source, "g Captured arena ", "y " + name, "g : ", "w " + arena.sectionCount(), "g  sections" + (withEntities ? ", " + arena.entityCount() + " entities" : ""));
+        return arena.sectionCount();
+    }
+
+    private static int restore(CommandSourceStack source, String name, boolean all)
+    {
+        ArenaSnapshot arena = ArenaManager.get(name);
+        if (arena == null)
+        {
+            Messenger.m(source, "r Unknown arena: " + name);
+            return 0;
+        }
+        int sections = ArenaManager.restore(source.getServer(), arena, all);
+        Messenger.m(source, "g Restoring ", "w " + sections, "g  sections of arena ", "y " + name);
+        return sections;
+    }
+
+    private static int info(CommandSourceStack source, String name)
+    {
+        ArenaSnapshot arena = ArenaManager.get(name);
+        if (arena == null)
+        {
+            Messenger.m(source, "r Unknown arena: " + name);
+            return 0;
+        }
+        Messenger.m(source, "w Arena ", "y " + name, "w  in ", "c " + arena.dimension.identifier());
+        Messenger.m(source, "w  from ", "c " + arena.box.minX() + " " + arena.box.minY() + " " + arena.box.minZ(),
+                "w  to ", "c " + arena.box.maxX() + " " + arena.box.maxY() + " " + arena.box.maxZ());
+        Messenger.m(source, "w  sections: ", "y " + arena.sectionCount(), "w , changed: ", "y " + arena.dirtyCount());
+        if (arena.withEntities)
+        {
+            Messenger.m(source, "w  entities: ", "y " + arena.entityCount());
+        }
+        if (ArenaManager.isRestoring(arena))
+        {
+            Messenger.m(source, "g  restore in progress");
+        }
+        return arena.dirtyCount();
+    }
+
+    private static int list(CommandSourceStack source)
+    {
+        if (ArenaManager.all().isEmpty())
+        {
+            Messenger.m(source, "y No arenas captured");
+            return 0;
+        }
+        for (ArenaSnapshot arena : ArenaManager.all())
+        {
+            Messenger.m(source, "w  - ", "y " + arena.name, "w : ", "w " + arena.sectionCount(), "g  sections, ", "w " + arena.dirtyCount(), "g  changed");
+        }
+        return ArenaManager.all().size();
+    }
+
+    private static int remove(CommandSourceStack source, String name)
+    {
+        if (!ArenaManager.remove(name))
+        {
+            Messenger.m(source, "r Unknown arena: " + name);
+            return 0;
+        }
+        Messenger.m(source, "g Removed arena ", "y " + name);
+        return 1;
+    }
+
+    private static int save(CommandSourceStack source, String name)
+    {
+        ArenaSnapshot arena = ArenaManager.get(name);
+        if (arena == null)
+        {
+            Messenger.m(source, "r Unknown arena: " + name);
+            return 0;
+        }
+        try
+        {
+            ArenaManager.save(source.getServer(), arena);
+        }
+        catch (IOException e)
+        {
+            CarpetSettings.LOG.error("Unable to save arena " + name, e);
+            Messenger.m(source, "r Unable to save arena " + name + ": " + e.getMessage());
+            return 0;
+        }
+        Messenger.m(source, "g Saved arena ", "y " + name);
+        return 1;
+    }
+
+    private static int load(CommandSourceStack source, String name)
+    {
+        if (!ArenaManager.isValidName(name))
+        {
+            Messenger.m(source, "r Invalid arena name: " + name);
+            return 0;
+        }
+        ArenaSnapshot arena;
+        try
+        {
+            arena = ArenaManager.load(source.getServer(), name);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            CarpetSettings.LOG.error("Unable to load arena " + name, e);
+            Messenger.m(source, "r Unable to load arena " + name + ": " + e.getMessage());
+            return 0;
+        }
+        if (arena == null)
+        {
+            Messenger.m(source, "r No saved arena: " + name);
+            return 0;
+        }
+        Messenger.m(source, "g Loaded arena ", "y " + name, "g , restore it to apply it to the world");
+        return 1;
+    }
+}
@@ -10,6 +10,8 @@ import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.network.chat.Component;
 import net.minecraft.world.item.DyeColor;
 
+import java.nio.file.Path;
+
 import static net.minecraft.commands.Commands.literal;
 
 /**
@@ -37,6 +39,10 @@ public class CounterCommand
                                     .executes(c -> resetCounter(c.getSource(), dyeColor)))
                             .then(literal("realtime")
                                     .executes(c -> displayCounter(c.getSource(), dyeColor, true)))
+                            .then(literal("stats")
+                                    .executes(c -> displayStats(c.getSource(), dyeColor)))
+                            .then(literal("export")
+                                    .executes(c -> exportCounter(c.getSource(), dyeColor)))
                     );
         }
         dispatcher.register(commandBuilder);
@@ -60,6 +66,35 @@ public class CounterCommand
         return 1;
     }
 
+    /**
+     * A method to display rolling rates and per second spread of a counter over the last hour of game time
+     * @param color The counter colour whose throughput we are querying.
+     */
+    private static int displayStats(CommandSourceStack source, DyeColor color)
+    {
+        for (Component message: HopperCounter.getCounter(color).formatStats(source.getServer()))
+        {
+            source.sendSuccess(() -> message, false);
+        }
+        return 1;
+    }
+
+    /**
+     * A method to save the items counted in each second of the last hour to a CSV file
+     * @param color The counter whose history we want to save
+     */
+    private static int exportCounter(CommandSourceStack source, DyeColor color)
+    {
+        Path file = HopperCounter.getCounter(color).exportHistory(source.getServer());
+        if (file == null)
+        {
+            Messenger.m(source, "r The " + color + " counter hasn't counted a full second yet");
+            return 0;
+        }
+        Messenger.m(source, "w Saving " + color + " counter history to counters/" + file.getFileName());
+        return 1;
+    }
+
     private static int resetCounters(CommandSourceStack source)
     {
         HopperCounter.resetAll(source.getServer(), false);
@@ -28,7 +28,16 @@ public class ProfileCommand
                 then(literal("entities").
                         executes((c) -> healthEntities(c.getSource(), 100)).
                         then(argument("ticks", integer(20,24000)).
-                                executes((c) -> healthEntities(c.getSource(), getInteger(c, "ticks")))));
+                                executes((c) -> healthEntities(c.getSource(), getInteger(c, "ticks"))))).
+                then(literal("hotspots").
+                        executes((c) -> healthHotspots(c.getSource(), 100)).
+                        then(argument("ticks", integer(20,24000)).
+                                executes((c) -> healthHotspots(c.getSource(), getInteger(c, "ticks"))))).
+                then(literal("stats").
+                        executes((c) -> CarpetProfiler.report_continuous(c.getSource(), 1)).
+                        then(literal("1m").executes((c) -> CarpetProfiler.report_continuous(c.getSource(), 1))).
+                        then(literal("5m").executes((c) -> CarpetProfiler.report_continuous(c.getSource(), 5))).
+                        then(literal("15m").executes((c) -> CarpetProfiler.report_continuous(c.getSource(), 15))));
         dispatcher.register(literalargumentbuilder);
     }
 
@@ -43,4 +52,10 @@ public class ProfileCommand
         CarpetProfiler.prepare_entity_report(source, ticks);
         return 1;
     }
+
+    public static int healthHotspots(CommandSourceStack source, int ticks)
+    {
+        CarpetProfiler.prepare_hotspot_report(source, ticks);
+        return 1;
+    }
 }
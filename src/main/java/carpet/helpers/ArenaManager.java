@@ -0,0 +1,254 @@
+package carpet.helpers;
+
+import carpet.CarpetSettings;
+import carpet.script.utils.BlockBatch;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.storage.LevelResource;
+
+import jakarta.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps arena snapshots, tracks which of their sections change, and restores them over several ticks,
+ * spending at most {@link CarpetSettings#arenaRestoreBudget} milliseconds per tick.
+ * Snapshots live in memory, and can be saved to and loaded from the {@code arenas} folder of the world.
+ */
+public class ArenaManager
+{
+    private static final Map<String, ArenaSnapshot> ARENAS = new TreeMap<>();
+    // arenas covering each tracked section, by dimension
+    private static final Map<ResourceKey<Level>, Long2ObjectOpenHashMap<List<ArenaSnapshot>>> TRACKED = new HashMap<>();
+    private static final Deque<RestoreJob> JOBS = new ArrayDeque<>();
+
+    private static final class RestoreJob
+    {
+        final ArenaSnapshot arena;
+        final ServerLevel level;
+        final long[] sections;
+        int next;
+
+        RestoreJob(ArenaSnapshot arena, ServerLevel level, long[] sections)
+        {
+            this.arena = arena;
+            this.level = level;
+            this.sections = sections;
+        }
+    }
+
+    public static boolean isValidName(String name)
+    {
+        return name.matches("[a-zA-Z0-9_.-]+") && !name.startsWith(".");
+    }
+
+    @Nullable
+    public static ArenaSnapshot get(String name)
+    {
+        return ARENAS.get(name);
+    }
+
+    public static Collection<ArenaSnapshot> all()
+    {
+        return ARENAS.values();
+    }
+
+    /**
+     * Captures the arena, replacing a previous one with the same name
+     */
+    public static ArenaSnapshot capture(String name, ServerLevel level, BlockPos from, BlockPos to, boolean withEntities)
+    {
+        BoundingBox box = BoundingBox.fromCorners(from, to);
+        box = new BoundingBox(box.minX(), Math.max(box.minY(), level.getMinY()), box.minZ(), box.maxX(), Math.min(box.maxY(), level.getMaxY()), box.maxZ());
+        ArenaSnapshot arena = ArenaSnapshot.capture(name, level, box, withEntities);
+        add(arena);
+        return arena;
+    }
+
+    private static void add(ArenaSnapshot arena)
+    {
+        remove(arena.name);
+        ARENAS.put(arena.name, arena);
+        Long2ObjectOpenHashMap<List<ArenaSnapshot>> sections = TRACKED.computeIfAbsent(arena.dimension, d -> new Long2ObjectOpenHashMap<>());
+        for (long key : arena.sectionKeys())
+        {
+            sections.computeIfAbsent(key, k -> new ArrayList<>(1)).add(arena);
+        }
+    }
+
+    public static boolean remove(String name)
+    {
+        ArenaSnapshot arena = ARENAS.remove(name);
+        if (arena == null)
+        {
+            return false;
+        }
+        JOBS.removeIf(job -> job.arena == arena);
+        Long2ObjectOpenHashMap<List<ArenaSnapshot>> sections = TRACKED.get(arena.dimension);
+        for (long key : arena.sectionKeys())
+        {
+            List<ArenaSnapshot> covering = sections.get(key);
+            covering.remove(arena);
+            if (covering.isEmpty())
+            {
+                sections.remove(key);
+            }
+        }
+        if (sections.isEmpty())
+        {
+            TRACKED.remove(arena.dimension);
+        }
+        return true;
+    }
+
+    /**
+     * Queues restoring the arena, of only the sections that changed since the last restore, or all of them
+     *
+     * @return number of sections to restore
+     */
+    public static int restore(MinecraftServer server, ArenaSnapshot arena, boolean all)
+    {
+        ServerLevel level = server.getLevel(arena.dimension);
+        if (level == null)
+        {
+            return 0;
+        }
+        JOBS.removeIf(job -> job.arena == arena);
+        long[] sections = arena.toRestore(all);
+        JOBS.add(new RestoreJob(arena, level, sections));
+        return sections.length;
+    }
+
+    public static boolean isRestoring(ArenaSnapshot arena)
+    {
+        for (RestoreJob job : JOBS)
+        {
+            if (job.arena == arena)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called whenever a block or block entity changes in a loaded chunk
+     */
+    public static void onBlockChanged(Level level, BlockPos pos)
+    {
+        if (TRACKED.isEmpty() || level.isClientSide())
+        {
+            return;
+        }
+        Long2ObjectOpenHashMap<List<ArenaSnapshot>> sections = TRACKED.get(level.dimension());
+        if (sections == null)
+        {
+            return;
+        }
+        long key = SectionPos.asLong(pos);
+        List<ArenaSnapshot> covering = sections.get(key);
+        if (covering != null)
+        {
+            for (ArenaSnapshot arena : covering)
+            {
+                arena.dirty.add(key);
+            }
+        }
+    }
+
+    public static void tick()
+    {
+        if (JOBS.isEmpty())
+        {
+            return;
+        }
+        long deadline = System.nanoTime() + CarpetSettings.arenaRestoreBudget * 1_000_000L;
+        BlockBatch batch = new BlockBatch(false, true);
+        List<RestoreJob> finished = new ArrayList<>();
+        batch.run(() -> {
+            // always make some progress, even with no time budget
+            boolean first = true;
+            while (!JOBS.isEmpty())
+            {
+                RestoreJob job = JOBS.peek();
+                while (job.next < job.sections.length && (first || System.nanoTime() < deadline))
+                {
+                    job.arena.restoreSection(job.level, batch, job.sections[job.next++]);
+                    first = false;
+                }
+                if (job.next < job.sections.length)
+                {
+                    break;
+                }
+                finished.add(JOBS.poll());
+            }
+        });
+        // entities go in after blocks are committed, so they don't end up inside stale blocks
+        for (RestoreJob job : finished)
+        {
+            job.arena.restoreEntities(job.level);
+        }
+    }
+
+    private static Path folder(MinecraftServer server)
+    {
+        return server.getWorldPath(LevelResource.ROOT).resolve("arenas");
+    }
+
+    public static void save(MinecraftServer server, ArenaSnapshot arena) throws IOException
+    {
+        Path folder = folder(server);
+        Files.createDirectories(folder);
+        NbtIo.writeCompressed(arena.save(), folder.resolve(arena.name + ".arena"));
+    }
+
+    /**
+     * @return loaded arena, or null if there is no such file
+     */
+    @Nullable
+    public static ArenaSnapshot load(MinecraftServer server, String name) throws IOException
+    {
+        Path file = folder(server).resolve(name + ".arena");
+        if (!Files.isRegularFile(file))
+        {
+            return null;
+        }
+        ArenaSnapshot arena = ArenaSnapshot.load(NbtIo.readCompressed(file, NbtAccounter.unlimitedHeap()), server.registryAccess().lookupOrThrow(Registries.BLOCK));
+        if (!arena.name.equals(name))
+        {
+            throw new IOException("Arena file " + file + " holds arena '" + arena.name + "'");
+        }
+        add(arena);
+        // the world could have changed in any way since the arena was saved
+        for (long key : arena.toRestore(true))
+        {
+            arena.dirty.add(key);
+        }
+        return arena;
+    }
+
+    public static void onServerClosed()
+    {
+        ARENAS.clear();
+        TRACKED.clear();
+        JOBS.clear();
+    }
+}
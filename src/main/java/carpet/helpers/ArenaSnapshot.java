@@ -0,0 +1,396 @@
+package carpet.helpers;
+
+import carpet.CarpetSettings;
+import carpet.script.utils.BlockBatch;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.HolderGetter;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.nbt.ByteArrayTag;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.IntArrayTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
+import net.minecraft.resources.Identifier;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.ProblemReporter;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.entity.EntitySpawnReason;
+import net.minecraft.world.entity.EntityType;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.structure.BoundingBox;
+import net.minecraft.world.level.storage.TagValueInput;
+import net.minecraft.world.level.storage.TagValueOutput;
+import net.minecraft.world.phys.AABB;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Image of blocks, block entities and optionally entities within a box, kept section by section,
+ * together with the set of sections that changed since they were captured or last restored.
+ */
+public class ArenaSnapshot
+{
+    /**
+     * Blocks of the part of a chunk section within the arena. Sections made of a single state keep only the palette,
+     * others index the palette with one byte per block if possible, or two otherwise.
+     */
+    private record SectionImage(BlockState[] palette, byte[] smallIndices, short[] indices, List<CompoundTag> blockEntities)
+    {
+        BlockState get(int index)
+        {
+            if (palette.length == 1)
+            {
+                return palette[0];
+            }
+            return palette[smallIndices != null ? smallIndices[index] & 0xFF : indices[index] & 0xFFFF];
+        }
+    }
+
+    public final String name;
+    public final ResourceKey<Level> dimension;
+    public final BoundingBox box;
+    public final boolean withEntities;
+    private final Long2ObjectLinkedOpenHashMap<SectionImage> sections = new Long2ObjectLinkedOpenHashMap<>();
+    private final List<CompoundTag> entities = new ArrayList<>();
+    final LongLinkedOpenHashSet dirty = new LongLinkedOpenHashSet();
+
+    private ArenaSnapshot(String name, ResourceKey<Level> dimension, BoundingBox box, boolean withEntities)
+    {
+        this.name = name;
+        this.dimension = dimension;
+        this.box = box;
+        this.withEntities = withEntities;
+    }
+
+    public static ArenaSnapshot capture(String name, ServerLevel level, BoundingBox box, boolean withEntities)
+    {
+        ArenaSnapshot arena = new ArenaSnapshot(name, level.dimension(), box, withEntities);
+        for (long key : arena.sectionKeys())
+        {
+            arena.sections.put(key, arena.captureSection(level, SectionPos.of(key)));
+        }
+        if (withEntities)
+        {
+            for (Entity entity : level.getEntitiesOfClass(Entity.class, AABB.of(box), e -> !(e instanceof Player) && e.getVehicle() == null))
+            {
+                try (ProblemReporter.ScopedCollector reporter = new ProblemReporter.ScopedCollector(entity.problemPath(), CarpetSettings.LOG))
+                {
+                    TagValueOutput output = TagValueOutput.createWithContext(reporter, level.registryAccess());
+                    if (entity.saveAsPassenger(output))
+                    {
+                        arena.entities.add(output.buildResult());
+                    }
+                }
+            }
+        }
+        return arena;
+    }
+
+    /**
+     * @return keys of all sections intersecting the arena
+     */
+    public List<Long> sectionKeys()
+    {
+        List<Long> keys = new ArrayList<>();
+        for (int sx = SectionPos.blockToSectionCoord(box.minX()); sx <= SectionPos.blockToSectionCoord(box.maxX()); sx++)
+        {
+            for (int sz = SectionPos.blockToSectionCoord(box.minZ()); sz <= SectionPos.blockToSectionCoord(box.maxZ()); sz++)
+            {
+                for (int sy = SectionPos.blockToSectionCoord(box.minY()); sy <= SectionPos.blockToSectionCoord(box.maxY()); sy++)
+                {
+                    keys.add(SectionPos.asLong(sx, sy, sz));
+                }
+            }
+        }
+        return keys;
+    }
+
+    public int sectionCount()
+    {
+        return sections.size();
+    }
+
+    public int dirtyCount()
+    {
+        return dirty.size();
+    }
+
+    public int entityCount()
+    {
+        return entities.size();
+    }
+
+    /**
+     * @return sections to restore, either all of them, or just the ones that changed
+     */
+    public long[] toRestore(boolean all)
+    {
+        return all ? sections.keySet().toLongArray() : dirty.toLongArray();
+    }
+
+    private SectionImage captureSection(ServerLevel level, SectionPos sectionPos)
+    {
+        LevelChunk chunk = level.getChunk(sectionPos.x(), sectionPos.z());
+        LevelChunkSection section = chunk.getSection(chunk.getSectionIndexFromSectionY(sectionPos.y()));
+        List<CompoundTag> blockEntities = new ArrayList<>();
+        for (Map.Entry<BlockPos, BlockEntity> entry : chunk.getBlockEntities().entrySet())
+        {
+            BlockPos pos = entry.getKey();
+            if (SectionPos.blockToSectionCoord(pos.getY()) == sectionPos.y() && box.isInside(pos))
+            {
+                blockEntities.add(entry.getValue().saveWithFullMetadata(level.registryAccess()));
+            }
+        }
+        if (section.hasOnlyAir())
+        {
+            return new SectionImage(new BlockState[]{section.getBlockState(0, 0, 0)}, null, null, blockEntities);
+        }
+        Reference2IntOpenHashMap<BlockState> ids = new Reference2IntOpenHashMap<>();
+        List<BlockState> palette = new ArrayList<>();
+        int[] indices = new int[4096];
+        forEachInside(sectionPos, (index, pos) -> {
+            BlockState state = section.getBlockState(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+            int id = ids.computeIfAbsent(state, s -> {
+                palette.add(state);
+                return palette.size() - 1;
+            });
+            indices[index] = id;
+        });
+        return image(palette.toArray(new BlockState[0]), indices, blockEntities);
+    }
+
+    private static SectionImage image(BlockState[] palette, int[] indices, List<CompoundTag> blockEntities)
+    {
+        if (palette.length == 1)
+        {
+            return new SectionImage(palette, null, null, blockEntities);
+        }
+        if (palette.length <= 256)
+        {
+            byte[] small = new byte[indices.length];
+            for (int i = 0; i < indices.length; i++)
+            {
+                small[i] = (byte) indices[i];
+            }
+            return new SectionImage(palette, small, null, blockEntities);
+        }
+        short[] wide = new short[indices.length];
+        for (int i = 0; i < indices.length; i++)
+        {
+            wide[i] = (short) indices[i];
+        }
+        return new SectionImage(palette, null, wide, blockEntities);
+    }
+
+    @FunctionalInterface
+    private interface PositionConsumer
+    {
+        void accept(int index, BlockPos pos);
+    }
+
+    private void forEachInside(SectionPos sectionPos, PositionConsumer action)
+    {
+        int minX = Math.max(box.minX(), sectionPos.minBlockX());
+        int maxX = Math.min(box.maxX(), sectionPos.maxBlockX());
+        int minY = Math.max(box.minY(), sectionPos.minBlockY());
+        int maxY = Math.min(box.maxY(), sectionPos.maxBlockY());
+        int minZ = Math.max(box.minZ(), sectionPos.minBlockZ());
+        int maxZ = Math.min(box.maxZ(), sectionPos.maxBlockZ());
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (int y = minY; y <= maxY; y++)
+        {
+            for (int z = minZ; z <= maxZ; z++)
+            {
+                for (int x = minX; x <= maxX; x++)
+                {
+                    action.accept(((y & 15) << 8) | ((z & 15) << 4) | (x & 15), pos.set(x, y, z));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the captured section back into the world through given batch, and marks the section clean
+     */
+    void restoreSection(ServerLevel level, BlockBatch batch, long key)
+    {
+        SectionImage image = sections.get(key);
+        if (image == null)
+        {
+            dirty.remove(key);
+            return;
+        }
+        forEachInside(SectionPos.of(key), (index, pos) -> batch.set(level, pos, image.get(index)));
+        for (CompoundTag tag : image.blockEntities())
+        {
+            BlockPos pos = new BlockPos(tag.getIntOr("x", 0), tag.getIntOr("y", 0), tag.getIntOr("z", 0));
+            BlockEntity be = level.getBlockEntity(pos);
+            if (be == null)
+            {
+                continue;
+            }
+            try (ProblemReporter.ScopedCollector reporter = new ProblemReporter.ScopedCollector(be.problemPath(), CarpetSettings.LOG))
+            {
+                be.loadWithComponents(TagValueInput.create(reporter, level.registryAccess(), tag));
+            }
+            be.setChanged();
+            level.getChunkSource().blockChanged(pos);
+        }
+        dirty.remove(key);
+    }
+
+    /**
+     * Replaces all non-player entities within the arena with the captured ones
+     */
+    void restoreEntities(ServerLevel level)
+    {
+        if (!withEntities)
+        {
+            return;
+        }
+        for (Entity entity : level.getEntitiesOfClass(Entity.class, AABB.of(box), e -> !(e instanceof Player)))
+        {
+            entity.discard();
+        }
+        for (CompoundTag tag : entities)
+        {
+            Entity entity = EntityType.loadEntityRecursive(tag, level, EntitySpawnReason.LOAD, e -> e);
+            if (entity != null && !level.tryAddFreshEntityWithPassengers(entity))
+            {
+                entity.discard();
+            }
+        }
+    }
+
+    public CompoundTag save()
+    {
+        CompoundTag tag = new CompoundTag();
+        tag.putString("name", name);
+        tag.putString("dimension", dimension.identifier().toString());
+        tag.putIntArray("box", new int[]{box.minX(), box.minY(), box.minZ(), box.maxX(), box.maxY(), box.maxZ()});
+        tag.putBoolean("with_entities", withEntities);
+        ListTag sectionList = new ListTag();
+        sections.forEach((key, image) -> {
+            CompoundTag section = new CompoundTag();
+            section.putLong("pos", key);
+            ListTag palette = new ListTag();
+            for (BlockState state : image.palette())
+            {
+                palette.add(NbtUtils.writeBlockState(state));
+            }
+            section.put("palette", palette);
+            if (image.smallIndices() != null)
+            {
+                section.putByteArray("blocks", image.smallIndices());
+            }
+            else if (image.indices() != null)
+            {
+                int[] wide = new int[image.indices().length];
+                for (int i = 0; i < wide.length; i++)
+                {
+                    wide[i] = image.indices()[i] & 0xFFFF;
+                }
+                section.putIntArray("blocks", wide);
+            }
+            ListTag blockEntities = new ListTag();
+            blockEntities.addAll(image.blockEntities());
+            section.put("block_entities", blockEntities);
+            sectionList.add(section);
+        });
+        tag.put("sections", sectionList);
+        ListTag entityList = new ListTag();
+        entityList.addAll(entities);
+        tag.put("entities", entityList);
+        return tag;
+    }
+
+    /**
+     * @throws IOException if the data is inconsistent, so it fails here rather than when the arena is restored
+     */
+    public static ArenaSnapshot load(CompoundTag tag, HolderGetter<Block> blocks) throws IOException
+    {
+        int[] corners = tag.getIntArray("box").orElseThrow();
+        if (corners.length != 6)
+        {
+            throw new IOException("Arena box has " + corners.length + " coordinates instead of 6");
+        }
+        ArenaSnapshot arena = new ArenaSnapshot(
+                tag.getStringOr("name", ""),
+                ResourceKey.create(Registries.DIMENSION, Identifier.parse(tag.getStringOr("dimension", "minecraft:overworld"))),
+                new BoundingBox(corners[0], corners[1], corners[2], corners[3], corners[4], corners[5]),
+                tag.getBooleanOr("with_entities", false)
+        );
+        for (Tag element : tag.getListOrEmpty("sections"))
+        {
+            CompoundTag section = (CompoundTag) element;
+            long pos = section.getLongOr("pos", 0L);
+            ListTag paletteTag = section.getListOrEmpty("palette");
+            // indices are kept in at most two bytes
+            if (paletteTag.isEmpty() || paletteTag.size() > 65536)
+            {
+                throw new IOException("Arena section " + SectionPos.of(pos) + " has " + paletteTag.size() + " palette entries");
+            }
+            BlockState[] palette = new BlockState[paletteTag.size()];
+            for (int i = 0; i < palette.length; i++)
+            {
+                palette[i] = NbtUtils.readBlockState(blocks, (CompoundTag) paletteTag.get(i));
+            }
+            int[] indices = new int[4096];
+            Tag blocksTag = section.get("blocks");
+            if (blocksTag instanceof ByteArrayTag small)
+            {
+                byte[] bytes = small.getAsByteArray();
+                if (bytes.length != indices.length)
+                {
+                    throw new IOException("Arena section " + SectionPos.of(pos) + " has " + bytes.length + " blocks instead of " + indices.length);
+                }
+                for (int i = 0; i < indices.length; i++)
+                {
+                    indices[i] = bytes[i] & 0xFF;
+                }
+            }
+            else if (blocksTag instanceof IntArrayTag wide)
+            {
+                int[] ints = wide.getAsIntArray();
+                if (ints.length != indices.length)
+                {
+                    throw new IOException("Arena section " + SectionPos.of(pos) + " has " + ints.length + " blocks instead of " + indices.length);
+                }
+                indices = ints;
+            }
+            for (int index : indices)
+            {
+                if (index < 0 || index >= palette.length)
+                {
+                    throw new IOException("Arena section " + SectionPos.of(pos) + " refers to palette entry " + index + " of " + palette.length);
+                }
+            }
+            List<CompoundTag> blockEntities = new ArrayList<>();
+            for (Tag be : section.getListOrEmpty("block_entities"))
+            {
+                blockEntities.add((CompoundTag) be);
+            }
+            arena.sections.put(pos, image(palette, indices, blockEntities));
+        }
+        for (Tag entity : tag.getListOrEmpty("entities"))
+        {
+            arena.entities.add((CompoundTag) entity);
+        }
+        return arena;
+    }
+}
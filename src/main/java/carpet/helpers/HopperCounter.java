@@ -1,6 +1,7 @@
 package carpet.helpers;
 
 import carpet.CarpetServer;
+import carpet.CarpetSettings;
 import carpet.script.utils.RecipeHelper;
 import carpet.utils.Messenger;
 import it.unimi.dsi.fastutil.objects.Object2LongLinkedOpenHashMap;
@@ -30,14 +31,27 @@ import net.minecraft.world.level.block.BeaconBeamBlock;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.material.MapColor;
+import net.minecraft.world.level.storage.LevelResource;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.util.Map.entry;
@@ -60,6 +74,25 @@ public class HopperCounter
 
     public static final TextColor WHITE = TextColor.fromLegacyFormat(ChatFormatting.WHITE);
 
+    /**
+     * Colours of items already guessed, as guessing may go through recipes. Empty for items without a colour.
+     * Cleared when the server starts, as recipes can change.
+     */
+    private static final Map<Item, Optional<TextColor>> ITEM_COLORS = new HashMap<>();
+
+    /**
+     * Seconds of game time kept in the history of each counter, for rolling rates up to an hour
+     */
+    public static final int HISTORY_SECONDS = 60 * 60;
+
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private static final ExecutorService writer = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "carpet-counter-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     static
     {
         EnumMap<DyeColor, HopperCounter> counterMap = new EnumMap<>(DyeColor.class);
@@ -94,6 +127,15 @@ public class HopperCounter
      * the counter
      */
     private long startMillis;
+    /**
+     * Items counted in each second of game time since {@link HopperCounter#startTick}, as a ring buffer holding the last
+     * {@link HopperCounter#HISTORY_SECONDS} full seconds and the current one. Only allocated once the counter starts.
+     */
+    private long[] history;
+    /**
+     * The current second of game time since {@link HopperCounter#startTick}, still being counted
+     */
+    private long historySecond;
     // private PubSubInfoProvider<Long> pubSubProvider;
 
     private HopperCounter(DyeColor color)
@@ -115,13 +157,21 @@ public class HopperCounter
      */
     public void add(MinecraftServer server, ItemStack stack)
     {
+        long gameTime = server.overworld().getGameTime();
         if (startTick < 0)
         {
-            startTick = server.overworld().getGameTime();
+            startTick = gameTime;
             startMillis = System.currentTimeMillis();
+            clearHistory();
         }
         Item item = stack.getItem();
         counter.put(item, counter.getLong(item) + stack.getCount());
+        if (history == null)
+        {
+            history = new long[HISTORY_SECONDS + 1];
+        }
+        advanceHistory(gameTime);
+        history[(int) (historySecond % history.length)] += stack.getCount();
         // pubSubProvider.publish();
     }
 
@@ -133,9 +183,69 @@ public class HopperCounter
         counter.clear();
         startTick = server.overworld().getGameTime();
         startMillis = System.currentTimeMillis();
+        clearHistory();
         // pubSubProvider.publish();
     }
 
+    private void clearHistory()
+    {
+        if (history != null)
+        {
+            Arrays.fill(history, 0L);
+        }
+        historySecond = 0;
+    }
+
+    /**
+     * Moves the history to the current second, emptying seconds that passed without items
+     */
+    private void advanceHistory(long gameTime)
+    {
+        long second = Math.max((gameTime - startTick) / 20, 0);
+        if (second <= historySecond)
+        {
+            return;
+        }
+        long from = Math.max(historySecond + 1, second - history.length + 1);
+        for (long s = from; s <= second; s++)
+        {
+            history[(int) (s % history.length)] = 0L;
+        }
+        historySecond = second;
+    }
+
+    /**
+     * Items counted in each of the last full seconds of game time, oldest first, at most {@link HopperCounter#HISTORY_SECONDS}
+     */
+    public long[] getHistory(MinecraftServer server, int seconds)
+    {
+        if (startTick < 0 || history == null)
+        {
+            return new long[0];
+        }
+        advanceHistory(server.overworld().getGameTime());
+        int count = (int) Math.min(Math.min(seconds, HISTORY_SECONDS), historySecond);
+        long[] items = new long[count];
+        for (int i = 0; i < count; i++)
+        {
+            items[i] = history[(int) ((historySecond - count + i) % history.length)];
+        }
+        return items;
+    }
+
+    /**
+     * The number of items per hour over the last seconds of game time, or over the time counted if shorter, NaN before a full second
+     */
+    public double getRollingItemsPerHour(MinecraftServer server, int seconds)
+    {
+        long[] items = getHistory(server, seconds);
+        if (items.length == 0)
+        {
+            return Double.NaN;
+        }
+        return Arrays.stream(items).sum() * 3600.0 / items.length;
+    }
+
     /**
      * Resets all counters, clearing their items.
      *
@@ -151,6 +261,10 @@ public class HopperCounter
                 counter.startTick = -1;
             }
         }
+        if (fresh)
+        {
+            ITEM_COLORS.clear();
+        }
     }
 
     /**
@@ -224,7 +338,7 @@ public class HopperCounter
             Item item = e.getKey();
             MutableComponent itemName = Component.translatable(item.getDescriptionId());
             Style itemStyle = itemName.getStyle();
-            TextColor color = guessColor(item, server.overworld());
+            TextColor color = cachedColor(item, server.overworld());
             itemName.setStyle((color != null) ? itemStyle.withColor(color) : itemStyle.withItalic(true));
             long count = e.getLongValue();
             return Messenger.c("g - ", itemName,
@@ -235,6 +349,73 @@ public class HopperCounter
         return items;
     }
 
+    /**
+     * Prints rolling rates of the counter over the last minute, 10 minutes and hour of game time, and the spread of items
+     * counted per second over the last hour
+     */
+    public List<Component> formatStats(MinecraftServer server)
+    {
+        long[] seconds = getHistory(server, HISTORY_SECONDS);
+        if (seconds.length == 0)
+        {
+            return Collections.singletonList(Messenger.c(coloredName, "w  hasn't counted a full second yet"));
+        }
+        List<Component> lines = new ArrayList<>();
+        lines.add(Messenger.c("w Throughput of ", coloredName, String.format("w  over %.1f min of game time:", seconds.length / 60.0),
+                "nb  [CSV]", "^g export the items of each second", "!/counter " + color + " export"));
+        lines.add(Messenger.c("g  - rolling: ",
+                "w 1m ", String.format("wb %.1f", getRollingItemsPerHour(server, 60)), "w /h, ",
+                "w 10m ", String.format("wb %.1f", getRollingItemsPerHour(server, 10 * 60)), "w /h, ",
+                "w 1h ", String.format("wb %.1f", getRollingItemsPerHour(server, HISTORY_SECONDS)), "w /h"));
+        long[] sorted = seconds.clone();
+        Arrays.sort(sorted);
+        lines.add(Messenger.c("g  - items per second: ",
+                "w min ", "wb " + sorted[0],
+                "w , p50 ", "wb " + percentile(sorted, 0.5),
+                "w , p90 ", "wb " + percentile(sorted, 0.9),
+                "w , p99 ", "wb " + percentile(sorted, 0.99),
+                "w , max ", "wb " + sorted[sorted.length - 1]));
+        return lines;
+    }
+
+    private static long percentile(long[] sorted, double fraction)
+    {
+        return sorted[Math.min((int) Math.ceil(fraction * sorted.length) - 1, sorted.length - 1)];
+    }
+
+    /**
+     * Saves the items of each second of the last hour to a CSV file in the counters folder of the world, off the server thread
+     *
+     * @return the file it goes to, or null if there is nothing to save yet
+     */
+    public Path exportHistory(MinecraftServer server)
+    {
+        long[] seconds = getHistory(server, HISTORY_SECONDS);
+        if (seconds.length == 0)
+        {
+            return null;
+        }
+        long firstTick = startTick + (historySecond - seconds.length) * 20;
+        Path file = server.getWorldPath(LevelResource.ROOT).resolve("counters").resolve(color.getName() + "-" + LocalDateTime.now().format(FILE_DATE) + ".csv");
+        writer.execute(() -> {
+            StringBuilder csv = new StringBuilder("game_time,items\n");
+            for (int i = 0; i < seconds.length; i++)
+            {
+                csv.append(firstTick + i * 20L).append(',').append(seconds[i]).append('\n');
+            }
+            try
+            {
+                Files.createDirectories(file.getParent());
+                Files.writeString(file, csv.toString(), StandardCharsets.UTF_8);
+            }
+            catch (IOException e)
+            {
+                CarpetSettings.LOG.error("Unable to save hopper counter history " + file, e);
+            }
+        });
+        return file;
+    }
+
     /**
      * Converts a colour to have a low brightness and uniform colour, so when it prints the items in different colours
      * it's not too flashy and bright, but enough that it's not dull to look at.
@@ -440,6 +621,20 @@ public class HopperCounter
         return null;
     }
 
+    /**
+     * {@link HopperCounter#guessColor}, guessed only once for each item
+     */
+    public static TextColor cachedColor(Item item, Level level)
+    {
+        Optional<TextColor> color = ITEM_COLORS.get(item);
+        if (color == null)
+        {
+            color = Optional.ofNullable(guessColor(item, level));
+            ITEM_COLORS.put(item, color);
+        }
+        return color.orElse(null);
+    }
+
     /**
      * Returns the hopper counter for the given color
      */
@@ -464,6 +659,19 @@ public class HopperCounter
         }
     }
 
+    /**
+     * The number of items per hour of game time since the counter started, 0 if it hasn't started yet
+     */
+    public double getItemsPerHour(MinecraftServer server)
+    {
+        if (startTick < 0)
+        {
+            return 0.0;
+        }
+        long ticks = Math.max(server.overworld().getGameTime() - startTick, 1);
+        return getTotalItems() * (20.0 * 60 * 60) / ticks;
+    }
+
     /**
      * The total number of items in the counter
      */
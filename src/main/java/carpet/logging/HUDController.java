@@ -1,6 +1,7 @@
 package carpet.logging;
 
 import carpet.CarpetServer;
+import carpet.CarpetSettings;
 import carpet.helpers.HopperCounter;
 import carpet.logging.logHelpers.PacketCounter;
 import carpet.utils.Messenger;
@@ -14,8 +15,10 @@ import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.util.TimeUtil;
 import net.minecraft.world.level.Level;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -41,6 +44,19 @@ public class HUDController
 
     public static final Map<String, Component> scarpet_footers = new HashMap<>();
 
+    // lines of each part of the footer, in display order, kept until that part refreshes
+    private static final String SCARPET = "scarpet";
+    private static final String EXTENSIONS = "extensions";
+    private static final Map<String, Map<ServerPlayer, List<Component>>> sections = new LinkedHashMap<>();
+    static
+    {
+        for (String section : List.of(SCARPET, "tps", "mobcaps", "counter", "packets", EXTENSIONS))
+            sections.put(section, new HashMap<>());
+    }
+    private static Map<ServerPlayer, List<Component>> currentSection = null;
+    // header and footer last sent to each player, so unchanged tab lists are not sent again
+    private static final Map<ServerPlayer, Component[]> lastSent = new HashMap<>();
+
     public static void resetScarpetHUDs() {
         scarpet_headers.clear();
         scarpet_footers.clear();
@@ -49,40 +65,77 @@ public class HUDController
     public static void addMessage(ServerPlayer player, Component hudMessage)
     {
         if (player == null) return;
-        if (!player_huds.containsKey(player))
-        {
-            player_huds.put(player, new ArrayList<>());
-        }
-        else
-        {
-            player_huds.get(player).add(Component.literal("\n"));
-        }
-        player_huds.get(player).add(hudMessage);
+        Map<ServerPlayer, List<Component>> section = currentSection != null ? currentSection : sections.get(EXTENSIONS);
+        section.computeIfAbsent(player, p -> new ArrayList<>()).add(hudMessage);
     }
 
     public static void clearPlayer(ServerPlayer player)
     {
         ClientboundTabListPacket packet = new ClientboundTabListPacket(Component.literal(""), Component.literal(""));
         player.connection.send(packet);
+        lastSent.remove(player);
     }
 
+    /**
+     * Clears the tab list of a player leaving a HUD logger, dropping its lines of that logger right away
+     */
+    static void clearPlayer(ServerPlayer player, String logger)
+    {
+        sections.getOrDefault(logger, sections.get(EXTENSIONS)).remove(player);
+        clearPlayer(player);
+    }
+
+    private static int updateInterval(String section)
+    {
+        return CarpetSettings.hudUpdateIntervals.getOrDefault(section, CarpetSettings.hudDefaultUpdateInterval);
+    }
+
+    /**
+     * Rebuilds lines of a part of the footer when it is due
+     * @return true if lines of that part could have changed
+     */
+    private static boolean refresh(String section, boolean active, boolean force, int tick, Runnable update)
+    {
+        Map<ServerPlayer, List<Component>> lines = sections.get(section);
+        if (!active)
+        {
+            boolean hadLines = !lines.isEmpty();
+            lines.clear();
+            return hadLines;
+        }
+        if (!force && tick % updateInterval(section) != 0)
+            return false;
+        lines.clear();
+        currentSection = lines;
+        try
+        {
+            update.run();
+        }
+        finally
+        {
+            currentSection = null;
+        }
+        return true;
+    }
 
     public static void update_hud(MinecraftServer server, List<ServerPlayer> force)
     {
-        if (((server.getTickCount() % 20 != 0) && force == null) || CarpetServer.minecraft_server == null)
+        if (CarpetServer.minecraft_server == null)
             return;
+        int tick = server.getTickCount();
+        boolean changed = force != null;
 
-        player_huds.clear();
-
-        server.getPlayerList().getPlayers().forEach(p -> {
+        changed |= refresh(SCARPET, true, force != null, tick, () -> server.getPlayerList().getPlayers().forEach(p -> {
             Component scarpetFOoter = scarpet_footers.get(p.getScoreboardName());
             if (scarpetFOoter != null) HUDController.addMessage(p, scarpetFOoter);
-        });
+        }));
 
-        if (LoggerRegistry.__tps)
-            LoggerRegistry.getLogger("tps").log(()-> send_tps_display(server));
+        changed |= refresh("tps", LoggerRegistry.__tps, false, tick, () ->
+            LoggerRegistry.getLogger("tps").log(()-> send_tps_display(server)));
 
-        if (LoggerRegistry.__mobcaps)
+        changed |= refresh("mobcaps", LoggerRegistry.__mobcaps, false, tick, () -> {
+            // players share mobcaps of the same dimension
+            Map<ResourceKey<Level>, Component[]> mobcaps = new HashMap<>();
             LoggerRegistry.getLogger("mobcaps").log((option, player) -> {
                 ResourceKey<Level> dim = switch (option) {
                     case "overworld" -> Level.OVERWORLD;
@@ -90,27 +143,57 @@ public class HUDController
                     case "end" -> Level.END;
                     default -> player.level().dimension();
                 };
-                return new Component[]{SpawnReporter.printMobcapsForDimension(server.getLevel(dim), false).get(0)};
+                return mobcaps.computeIfAbsent(dim, d -> new Component[]{SpawnReporter.printMobcapsForDimension(server.getLevel(d), false).get(0)});
             });
+        });
 
-        if(LoggerRegistry.__counter)
-            LoggerRegistry.getLogger("counter").log((option)->send_counter_info(server, option));
+        changed |= refresh("counter", LoggerRegistry.__counter, false, tick, () ->
+            LoggerRegistry.getLogger("counter").log((option)->send_counter_info(server, option)));
 
-        if (LoggerRegistry.__packets)
+        changed |= refresh("packets", LoggerRegistry.__packets, false, tick, () -> {
+            PacketCounter.tick(server);
             LoggerRegistry.getLogger("packets").log(HUDController::packetCounter);
+        });
 
         // extensions have time to pitch in.
-        HUDListeners.forEach(l -> l.accept(server));
+        changed |= refresh(EXTENSIONS, true, false, tick, () -> HUDListeners.forEach(l -> l.accept(server)));
+
+        if (!changed)
+            return;
 
-        Set<ServerPlayer> targets = new HashSet<>(player_huds.keySet());
-        if (force!= null) targets.addAll(force);
-        for (ServerPlayer player: targets)
+        List<ServerPlayer> players = server.getPlayerList().getPlayers();
+        Set<ServerPlayer> online = new HashSet<>(players);
+        sections.values().forEach(lines -> lines.keySet().retainAll(online));
+        lastSent.keySet().retainAll(online);
+        player_huds.clear();
+        for (ServerPlayer player: players)
         {
-            ClientboundTabListPacket packet = new ClientboundTabListPacket(
-                        scarpet_headers.getOrDefault(player.getScoreboardName(), Component.literal("")),
-                        Messenger.c(player_huds.getOrDefault(player, List.of()).toArray(new Object[0]))
-                    );
-            player.connection.send(packet);
+            List<Component> footer = new ArrayList<>();
+            for (Map<ServerPlayer, List<Component>> lines : sections.values())
+            {
+                for (Component line : lines.getOrDefault(player, List.of()))
+                {
+                    if (!footer.isEmpty()) footer.add(Component.literal("\n"));
+                    footer.add(line);
+                }
+            }
+            Component header = scarpet_headers.get(player.getScoreboardName());
+            if (footer.isEmpty() && header == null)
+            {
+                // send the now empty tab list once, if anything was there
+                if (lastSent.remove(player) != null)
+                    player.connection.send(new ClientboundTabListPacket(Component.literal(""), Component.literal("")));
+                continue;
+            }
+            player_huds.put(player, footer);
+            Component[] tabList = new Component[]{
+                    header != null ? header : Component.literal(""),
+                    Messenger.c(footer.toArray(new Object[0]))
+            };
+            if (Arrays.equals(tabList, lastSent.get(player)))
+                continue;
+            lastSent.put(player, tabList);
+            player.connection.send(new ClientboundTabListPacket(tabList[0], tabList[1]));
         }
     }
     private static Component [] send_tps_display(MinecraftServer server)
@@ -138,12 +221,37 @@ public class HUDController
         }
         return res.toArray(new Component[0]);
     }
-    private static Component [] packetCounter()
+    private static Component [] packetCounter(String option)
+    {
+        PacketCounter.Interval in = PacketCounter.getInterval(PacketCounter.Direction.IN);
+        PacketCounter.Interval out = PacketCounter.getInterval(PacketCounter.Direction.OUT);
+        List<Component> res = new ArrayList<>();
+        res.add(Messenger.c(
+                "g I/", "w " + in.packets(), "g  (" + formatBytes(in.bytes()) + ")",
+                "g  O/", "w " + out.packets(), "g  (" + formatBytes(out.bytes()) + ")"));
+        switch (option)
+        {
+            case "types" -> {
+                PacketCounter.getTopTypes(PacketCounter.Direction.OUT, 5).forEach(e -> res.add(packetLine("O ", e)));
+                PacketCounter.getTopTypes(PacketCounter.Direction.IN, 3).forEach(e -> res.add(packetLine("I ", e)));
+            }
+            case "players" -> PacketCounter.getTopPlayers(PacketCounter.Direction.OUT, 5).forEach(e -> res.add(packetLine("O ", e)));
+            default -> {}
+        }
+        return res.toArray(new Component[0]);
+    }
+
+    private static Component packetLine(String direction, Map.Entry<String, PacketCounter.Interval> entry)
+    {
+        return Messenger.c("g " + direction, "w " + entry.getKey() + ": ", "y " + entry.getValue().packets(), "g  (" + formatBytes(entry.getValue().bytes()) + ")");
+    }
+
+    private static String formatBytes(long bytes)
     {
-        Component [] ret =  new Component[]{
-                Messenger.c("w I/" + PacketCounter.totalIn + " O/" + PacketCounter.totalOut),
-        };
-        PacketCounter.reset();
-        return ret;
+        if (bytes < 1024)
+            return bytes + "B";
+        if (bytes < 1024 * 1024)
+            return String.format(Locale.US, "%.1fkB", bytes / 1024.0);
+        return String.format(Locale.US, "%.1fMB", bytes / (1024.0 * 1024.0));
     }
 }
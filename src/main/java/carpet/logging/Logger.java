@@ -3,25 +3,41 @@ package carpet.logging;
 import carpet.CarpetServer;
 import carpet.CarpetSettings;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
 import net.minecraft.util.Util;
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import net.minecraft.network.protocol.game.ClientboundSystemChatPacket;
 import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.player.ChatVisiblity;
 import net.minecraft.world.entity.player.Player;
 
 public class Logger
 {
+    private static final int MAX_PER_BUNDLE = 4096;
+
     // The set of subscribed and online players.
     private Map<String, String> subscribedOnlinePlayers;
 
     // The set of subscribed and offline players.
     private Map<String,String> subscribedOfflinePlayers;
 
+    // Online subscribers grouped by their option, with their players, so events don't look players up by name.
+    private final Map<String, Map<String, ServerPlayer>> onlineByOption = new HashMap<>();
+
+    // The last messages sent, and their packet, shared by all players of an option.
+    private Component[] lastMessages;
+    private Packet<? super ClientGamePacketListener> lastPacket;
+
     // The logName of this log. Gets prepended to logged messages.
     private String logName;
 
@@ -86,9 +102,10 @@ public class Logger
      */
     public void addPlayer(String playerName, String option)
     {
-        if (playerFromName(playerName) != null)
+        ServerPlayer player = playerFromName(playerName);
+        if (player != null)
         {
-            subscribedOnlinePlayers.put(playerName, option);
+            putOnline(playerName, option, player);
         }
         else
         {
@@ -102,7 +119,7 @@ public class Logger
      */
     public void removePlayer(String playerName)
     {
-        subscribedOnlinePlayers.remove(playerName);
+        removeOnline(playerName);
         subscribedOfflinePlayers.remove(playerName);
         LoggerRegistry.setAccess(this);
     }
@@ -119,6 +136,47 @@ public class Logger
     {
         subscribedOnlinePlayers.clear();
         subscribedOfflinePlayers.clear();
+        onlineByOption.clear();
+    }
+
+    private void putOnline(String playerName, String option, ServerPlayer player)
+    {
+        removeOnline(playerName);
+        subscribedOnlinePlayers.put(playerName, option);
+        onlineByOption.computeIfAbsent(option, o -> new HashMap<>()).put(playerName, player);
+    }
+
+    private String removeOnline(String playerName)
+    {
+        String option = subscribedOnlinePlayers.remove(playerName);
+        if (option != null)
+        {
+            Map<String, ServerPlayer> players = onlineByOption.get(option);
+            players.remove(playerName);
+            if (players.isEmpty()) onlineByOption.remove(option);
+        }
+        return option;
+    }
+
+    /**
+     * Online players of one option group, skipping ones that are gone.
+     * Respawning replaces the player entity, so removed players are looked up again by name.
+     */
+    private List<ServerPlayer> playersOf(Map<String, ServerPlayer> group)
+    {
+        List<ServerPlayer> players = new ArrayList<>(group.size());
+        for (Map.Entry<String, ServerPlayer> en : group.entrySet())
+        {
+            ServerPlayer player = en.getValue();
+            if (player.isRemoved())
+            {
+                player = playerFromName(en.getKey());
+                if (player == null) continue;
+                en.setValue(player);
+            }
+            players.add(player);
+        }
+        return players;
     }
 
     public Field getField()
@@ -134,16 +192,16 @@ public class Logger
     public interface lMessage { Component [] get(String playerOption, Player player);}
     public void log(lMessage messagePromise)
     {
-        for (Map.Entry<String,String> en : subscribedOnlinePlayers.entrySet())
+        for (Map.Entry<String, Map<String, ServerPlayer>> group : onlineByOption.entrySet())
         {
-            ServerPlayer player = playerFromName(en.getKey());
-            if (player != null)
+            for (ServerPlayer player : playersOf(group.getValue()))
             {
-                Component [] messages = messagePromise.get(en.getValue(),player);
+                Component [] messages = messagePromise.get(group.getKey(),player);
                 if (messages != null)
                     sendPlayerMessage(player, messages);
             }
         }
+        forgetMessages();
     }
 
     /**
@@ -154,22 +212,15 @@ public class Logger
     public interface lMessageIgnorePlayer { Component [] get(String playerOption);}
     public void log(lMessageIgnorePlayer messagePromise)
     {
-        Map<String, Component[]> cannedMessages = new HashMap<>();
-        for (Map.Entry<String,String> en : subscribedOnlinePlayers.entrySet())
+        for (Map.Entry<String, Map<String, ServerPlayer>> group : onlineByOption.entrySet())
         {
-            ServerPlayer player = playerFromName(en.getKey());
-            if (player != null)
-            {
-                String option = en.getValue();
-                if (!cannedMessages.containsKey(option))
-                {
-                    cannedMessages.put(option,messagePromise.get(option));
-                }
-                Component [] messages = cannedMessages.get(option);
-                if (messages != null)
-                    sendPlayerMessage(player, messages);
-            }
+            List<ServerPlayer> players = playersOf(group.getValue());
+            if (players.isEmpty()) continue;
+            Component [] messages = messagePromise.get(group.getKey());
+            if (messages != null)
+                players.forEach(player -> sendPlayerMessage(player, messages));
         }
+        forgetMessages();
     }
     /**
      * guarantees that message is evaluated once, so independent from the player and chosen option
@@ -177,20 +228,43 @@ public class Logger
     public void log(Supplier<Component[]> messagePromise)
     {
         Component [] cannedMessages = null;
-        for (Map.Entry<String,String> en : subscribedOnlinePlayers.entrySet())
+        for (Map<String, ServerPlayer> group : onlineByOption.values())
         {
-            ServerPlayer player = playerFromName(en.getKey());
-            if (player != null)
+            for (ServerPlayer player : playersOf(group))
             {
                 if (cannedMessages == null) cannedMessages = messagePromise.get();
                 sendPlayerMessage(player, cannedMessages);
             }
         }
+        forgetMessages();
     }
 
+    /**
+     * Sends all messages in one bundle. Players served the same messages in a row share the same packet.
+     */
     public void sendPlayerMessage(ServerPlayer player, Component ... messages)
     {
-        Arrays.stream(messages).forEach(player::sendSystemMessage);
+        if (messages.length == 0 || messages.length > MAX_PER_BUNDLE)
+        {
+            Arrays.stream(messages).forEach(player::sendSystemMessage);
+            return;
+        }
+        // same check as sendSystemMessage
+        if (player.getChatVisibility() == ChatVisiblity.HIDDEN) return;
+        if (messages != lastMessages)
+        {
+            List<Packet<? super ClientGamePacketListener>> packets = new ArrayList<>(messages.length);
+            for (Component message : messages) packets.add(new ClientboundSystemChatPacket(message, false));
+            lastPacket = packets.size() == 1 ? packets.get(0) : new ClientboundBundlePacket(packets);
+            lastMessages = messages;
+        }
+        player.connection.send(lastPacket);
+    }
+
+    private void forgetMessages()
+    {
+        lastMessages = null;
+        lastPacket = null;
     }
 
     /**
@@ -207,10 +281,9 @@ public class Logger
     {
         // If the player was subscribed to the log and offline, move them to the set of online subscribers.
         String playerName = player.getName().getString();
-        if (subscribedOfflinePlayers.containsKey(playerName))
+        if (subscribedOfflinePlayers.containsKey(playerName) && player instanceof ServerPlayer serverPlayer)
         {
-            subscribedOnlinePlayers.put(playerName, subscribedOfflinePlayers.get(playerName));
-            subscribedOfflinePlayers.remove(playerName);
+            putOnline(playerName, subscribedOfflinePlayers.remove(playerName), serverPlayer);
         }
         else if(firstTime)
         {
@@ -231,10 +304,10 @@ public class Logger
     {
         // If the player was subscribed to the log, move them to the set of offline subscribers.
         String playerName = player.getName().getString();
-        if (subscribedOnlinePlayers.containsKey(playerName))
+        String option = removeOnline(playerName);
+        if (option != null)
         {
-            subscribedOfflinePlayers.put(playerName, subscribedOnlinePlayers.get(playerName));
-            subscribedOnlinePlayers.remove(playerName);
+            subscribedOfflinePlayers.put(playerName, option);
         }
         LoggerRegistry.setAccess(this);
     }
@@ -42,7 +42,7 @@ public class LoggerRegistry
         registerLogger("fallingBlocks",Logger.stardardLogger("fallingBlocks", "brief", new String[]{"brief", "full"}));
         registerLogger("pathfinding", Logger.stardardLogger("pathfinding", "20", new String[]{"2", "5", "10"}));
         registerLogger("tps", HUDLogger.stardardHUDLogger("tps", null, null));
-        registerLogger("packets", HUDLogger.stardardHUDLogger("packets", null, null));
+        registerLogger("packets", HUDLogger.stardardHUDLogger("packets", "total", new String[]{"total", "types", "players"}));
         registerLogger("counter",HUDLogger.stardardHUDLogger("counter","white", Arrays.stream(DyeColor.values()).map(Object::toString).toArray(String[]::new)));
         registerLogger("mobcaps", HUDLogger.stardardHUDLogger("mobcaps", "dynamic",new String[]{"dynamic", "overworld", "nether","end"}));
         registerLogger("explosions", Logger.stardardLogger("explosions", "brief",new String[]{"brief", "full"}, true));
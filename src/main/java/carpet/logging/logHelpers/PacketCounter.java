@@ -1,8 +1,264 @@
 package carpet.logging.logHelpers;
 
+import carpet.fakes.ClientConnectionInterface;
+import carpet.fakes.ServerGamePacketListenerImplInterface;
+import carpet.utils.Metrics;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.PacketType;
+import net.minecraft.network.protocol.common.ClientboundCustomPayloadPacket;
+import net.minecraft.network.protocol.common.ServerboundCustomPayloadPacket;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+import net.minecraft.network.protocol.common.custom.DiscardedPayload;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts packets and their encoded bytes, by packet type and direction, and by connection.
+ * Packets are counted by their connection, as they are sent and received, and their bytes by the encoder and decoder,
+ * all on netty threads, so all counters are striped. In-memory connections, like the one of the singleplayer host,
+ * pass packets on without encoding them, so they only count packets, without bytes.
+ * Custom payloads are told apart by their payload type, to show what mods and scarpet apps send.
+ * Payloads no one registered, and any past the first {@link #MAX_PAYLOAD_TYPES} types, are counted together as unknown.
+ * Totals only grow, {@link #tick} takes their differences since its last call, for the packets logger.
+ */
 public class PacketCounter
 {
-    public static long totalOut=0;
-    public static long totalIn=0;
-    public static void reset() {totalIn = 0L; totalOut = 0L; }
+    public enum Direction
+    {
+        IN("in"), OUT("out");
+
+        public final String name;
+
+        Direction(String name)
+        {
+            this.name = name;
+        }
+    }
+
+    public record Interval(long packets, long bytes)
+    {
+        public static final Interval EMPTY = new Interval(0L, 0L);
+    }
+
+    private static final class Counters
+    {
+        final String type;
+        final Metrics.Counter packets;
+        final Metrics.Counter bytes;
+        // totals at the last tick, only used by the server thread
+        long lastPackets;
+        long lastBytes;
+
+        Counters(Metrics.Counter packets, Metrics.Counter bytes, String type)
+        {
+            this.type = type;
+            this.packets = packets;
+            this.bytes = bytes;
+        }
+
+        Interval interval()
+        {
+            long packetTotal = packets.get();
+            long byteTotal = bytes.get();
+            Interval interval = new Interval(packetTotal - lastPackets, byteTotal - lastBytes);
+            lastPackets = packetTotal;
+            lastBytes = byteTotal;
+            return interval;
+        }
+    }
+
+    private static final Metrics.Family<Metrics.Counter> PACKETS = Metrics.counter("carpet_packets_total", "Packets sent and received, by packet type", "direction", "type");
+    private static final Metrics.Family<Metrics.Counter> BYTES = Metrics.counter("carpet_packet_bytes_total", "Encoded bytes of packets sent and received, before compression, by packet type", "direction", "type");
+    private static final String UNKNOWN_PAYLOAD = "custom_payload/unknown";
+    private static final int MAX_PAYLOAD_TYPES = 256;
+    private static final AttributeKey<Counters[]> CONNECTION_COUNTERS = AttributeKey.valueOf("carpet_packet_counters");
+
+    // keyed by packet type, or by payload type for custom payloads
+    private static final Map<Direction, Map<Object, Counters>> TYPES = new EnumMap<>(Map.of(
+            Direction.IN, new ConcurrentHashMap<>(),
+            Direction.OUT, new ConcurrentHashMap<>()
+    ));
+    private static final AtomicInteger payloadTypes = new AtomicInteger();
+
+    // differences at the last tick
+    private static final Map<Direction, Interval> totals = new EnumMap<>(Direction.class);
+    private static final Map<Direction, Map<String, Interval>> types = new EnumMap<>(Direction.class);
+    private static final Map<Direction, Map<String, Interval>> players = new EnumMap<>(Direction.class);
+
+    /**
+     * Counts a packet sent or received by a connection
+     */
+    public static void countPacket(Channel channel, Direction direction, Packet<?> packet)
+    {
+        getTypeCounters(direction, packet).packets.inc();
+        if (channel != null)
+        {
+            getConnectionCounters(channel, direction).packets.inc();
+        }
+    }
+
+    /**
+     * Counts the encoded bytes of a packet, from the encoder or decoder of a connection
+     */
+    public static void countBytes(Channel channel, Direction direction, Packet<?> packet, int bytes)
+    {
+        getTypeCounters(direction, packet).bytes.add(bytes);
+        getConnectionCounters(channel, direction).bytes.add(bytes);
+    }
+
+    private static Counters getTypeCounters(Direction direction, Packet<?> packet)
+    {
+        Object key = switch (packet)
+        {
+            case ClientboundCustomPayloadPacket custom -> custom.payload().type();
+            // ids of payloads no one registered are up to the client, so they are all counted as one type
+            case ServerboundCustomPayloadPacket custom -> custom.payload() instanceof DiscardedPayload ? UNKNOWN_PAYLOAD : custom.payload().type();
+            default -> packet.type();
+        };
+        Map<Object, Counters> counters = TYPES.get(direction);
+        Counters typeCounters = counters.get(key);
+        if (typeCounters == null)
+        {
+            // each type stays in the exported metrics, so there is a limit to how many payload types get their own
+            if (key instanceof CustomPacketPayload.Type<?> && payloadTypes.get() >= MAX_PAYLOAD_TYPES)
+            {
+                key = UNKNOWN_PAYLOAD;
+            }
+            typeCounters = counters.computeIfAbsent(key, k -> {
+                if (k instanceof CustomPacketPayload.Type<?>)
+                {
+                    payloadTypes.incrementAndGet();
+                }
+                String type = typeName(k);
+                return new Counters(PACKETS.labels(direction.name, type), BYTES.labels(direction.name, type), type);
+            });
+        }
+        return typeCounters;
+    }
+
+    private static String typeName(Object key)
+    {
+        return switch (key)
+        {
+            case CustomPacketPayload.Type<?> payload -> "custom_payload/" + payload.id();
+            case PacketType<?> type -> type.id().toString();
+            default -> UNKNOWN_PAYLOAD;
+        };
+    }
+
+    private static Counters getConnectionCounters(Channel channel, Direction direction)
+    {
+        Counters[] counters = channel.attr(CONNECTION_COUNTERS).get();
+        if (counters == null)
+        {
+            Counters[] fresh = {
+                    new Counters(new Metrics.Counter(), new Metrics.Counter(), null),
+                    new Counters(new Metrics.Counter(), new Metrics.Counter(), null)
+            };
+            counters = channel.attr(CONNECTION_COUNTERS).setIfAbsent(fresh);
+            if (counters == null)
+            {
+                counters = fresh;
+            }
+        }
+        return counters[direction.ordinal()];
+    }
+
+    /**
+     * @return packets and bytes of the player's connection since it started, only packets for in-memory connections, like the ones of bots
+     */
+    public static Interval getPlayerTotals(ServerPlayer player, Direction direction)
+    {
+        Channel channel = channel(player);
+        if (channel == null)
+        {
+            return Interval.EMPTY;
+        }
+        Counters counters = getConnectionCounters(channel, direction);
+        return new Interval(counters.packets.get(), counters.bytes.get());
+    }
+
+    private static Channel channel(ServerPlayer player)
+    {
+        if (player.connection == null)
+        {
+            return null;
+        }
+        return ((ClientConnectionInterface) ((ServerGamePacketListenerImplInterface) player.connection).getConnection()).getChannel();
+    }
+
+    /**
+     * Takes differences of all totals since the last call, called once per logger update
+     */
+    public static void tick(MinecraftServer server)
+    {
+        for (Direction direction : Direction.values())
+        {
+            long packets = 0L;
+            long bytes = 0L;
+            Map<String, Interval> directionTypes = new HashMap<>();
+            for (Counters counters : TYPES.get(direction).values())
+            {
+                Interval interval = counters.interval();
+                // packets of a bundle are counted as the bundle, and their bytes by their own types
+                if (interval.packets() > 0 || interval.bytes() > 0)
+                {
+                    directionTypes.put(counters.type, interval);
+                    packets += interval.packets();
+                    bytes += interval.bytes();
+                }
+            }
+            types.put(direction, directionTypes);
+            totals.put(direction, new Interval(packets, bytes));
+            Map<String, Interval> directionPlayers = new HashMap<>();
+            for (ServerPlayer player : server.getPlayerList().getPlayers())
+            {
+                Channel channel = channel(player);
+                if (channel != null)
+                {
+                    directionPlayers.put(player.getScoreboardName(), getConnectionCounters(channel, direction).interval());
+                }
+            }
+            players.put(direction, directionPlayers);
+        }
+    }
+
+    public static Interval getInterval(Direction direction)
+    {
+        return totals.getOrDefault(direction, Interval.EMPTY);
+    }
+
+    /**
+     * @return packet types of the last interval, most bytes first
+     */
+    public static List<Map.Entry<String, Interval>> getTopTypes(Direction direction, int count)
+    {
+        return top(types.getOrDefault(direction, Map.of()), count);
+    }
+
+    /**
+     * @return players of the last interval, most bytes first
+     */
+    public static List<Map.Entry<String, Interval>> getTopPlayers(Direction direction, int count)
+    {
+        return top(players.getOrDefault(direction, Map.of()), count);
+    }
+
+    private static List<Map.Entry<String, Interval>> top(Map<String, Interval> intervals, int count)
+    {
+        List<Map.Entry<String, Interval>> sorted = new ArrayList<>(intervals.entrySet());
+        sorted.sort(Comparator.<Map.Entry<String, Interval>>comparingLong(e -> e.getValue().bytes()).reversed());
+        return sorted.subList(0, Math.min(count, sorted.size()));
+    }
 }
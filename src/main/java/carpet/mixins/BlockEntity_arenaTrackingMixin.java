@@ -0,0 +1,29 @@
+package carpet.mixins;
+
+import carpet.helpers.ArenaManager;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(BlockEntity.class)
+public class BlockEntity_arenaTrackingMixin
+{
+    @Shadow protected Level level;
+
+    @Shadow @Final protected BlockPos worldPosition;
+
+    @Inject(method = "setChanged()V", at = @At("HEAD"))
+    private void onChanged(CallbackInfo ci)
+    {
+        if (level != null)
+        {
+            ArenaManager.onBlockChanged(level, worldPosition);
+        }
+    }
+}
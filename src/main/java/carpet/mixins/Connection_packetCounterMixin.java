@@ -16,21 +16,26 @@ import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 public abstract class Connection_packetCounterMixin implements ClientConnectionInterface
 {
     // Add to the packet counter whenever a packet is received.
+    // Their bytes are counted by PacketDecoder_packetCounterMixin, as in-memory connections never encode packets.
     @Inject(method = "channelRead0", at = @At("HEAD"))
     private void packetInCount(ChannelHandlerContext ctx, Packet<?> packet, CallbackInfo ci)
     {
-        PacketCounter.totalIn++;
+        PacketCounter.countPacket(ctx.channel(), PacketCounter.Direction.IN, packet);
     }
-    
+
     // Add to the packet counter whenever a packet is sent.
     // 1.21.8: Connection#send signature changed; HEAD callback here takes only (Packet, CallbackInfo)
     @Inject(method = "send", at = @At("HEAD"))
     private void packetOutCount(final Packet<?> packet, final CallbackInfo ci)
     {
-        PacketCounter.totalOut++;
+        PacketCounter.countPacket(getChannel(), PacketCounter.Direction.OUT, packet);
     }
 
     @Override
     @Accessor //Compat with adventure-platform-fabric
     public abstract void setChannel(Channel channel);
+
+    @Override
+    @Accessor
+    public abstract Channel getChannel();
 }
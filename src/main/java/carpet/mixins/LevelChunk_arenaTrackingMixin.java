@@ -0,0 +1,28 @@
+package carpet.mixins;
+
+import carpet.helpers.ArenaManager;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+@Mixin(LevelChunk.class)
+public class LevelChunk_arenaTrackingMixin
+{
+    @Shadow @Final Level level;
+
+    @Inject(method = "setBlockState", at = @At("RETURN"))
+    private void onBlockChanged(BlockPos pos, BlockState state, int flags, CallbackInfoReturnable<BlockState> cir)
+    {
+        if (cir.getReturnValue() != null)
+        {
+            ArenaManager.onBlockChanged(level, pos);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package carpet.mixins;
 
 import carpet.CarpetSettings;
+import carpet.helpers.ArenaManager;
 import carpet.fakes.WorldChunkInterface;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.SectionPos;
@@ -191,6 +192,7 @@ public abstract class LevelChunk_movableBEMixin extends ChunkAccess implements W
             }
         }
 
+        ArenaManager.onBlockChanged(level, blockPos_1);
         markUnsaved();
         return oldBlockState;
     }
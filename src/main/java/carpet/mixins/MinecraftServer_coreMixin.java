@@ -17,6 +17,18 @@ import java.util.function.BooleanSupplier;
 @Mixin(MinecraftServer.class)
 public abstract class MinecraftServer_coreMixin implements MinecraftServerInterface
 {
+    @Inject(method = "tickServer", at = @At("HEAD"))
+    private void onTickStart(BooleanSupplier booleanSupplier_1, CallbackInfo ci)
+    {
+        CarpetProfiler.start_tick_profiling();
+    }
+
+    @Inject(method = "tickServer", at = @At("TAIL"))
+    private void onTickEnd(BooleanSupplier booleanSupplier_1, CallbackInfo ci)
+    {
+        CarpetProfiler.end_tick_profiling((MinecraftServer) (Object) this);
+    }
+
     //to inject right before
     // this.tickWorlds(booleanSupplier_1);
     @Inject(
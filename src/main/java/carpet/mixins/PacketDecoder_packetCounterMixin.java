@@ -0,0 +1,38 @@
+package carpet.mixins;
+
+import carpet.logging.logHelpers.PacketCounter;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import net.minecraft.network.PacketDecoder;
+import net.minecraft.network.protocol.Packet;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+import java.util.List;
+
+@Mixin(PacketDecoder.class)
+public class PacketDecoder_packetCounterMixin
+{
+    // each connection has its own decoder, only used by its netty thread
+    @Unique
+    private int packetStart;
+
+    @Inject(method = "decode", at = @At("HEAD"))
+    private void packetInStart(ChannelHandlerContext ctx, ByteBuf in, List<Object> out, CallbackInfo ci)
+    {
+        packetStart = in.readerIndex();
+    }
+
+    // Count bytes of each packet received, after decompression.
+    @Inject(method = "decode", at = @At("TAIL"))
+    private void packetInCount(ChannelHandlerContext ctx, ByteBuf in, List<Object> out, CallbackInfo ci)
+    {
+        if (!out.isEmpty() && out.get(out.size() - 1) instanceof Packet<?> packet)
+        {
+            PacketCounter.countBytes(ctx.channel(), PacketCounter.Direction.IN, packet, in.readerIndex() - packetStart);
+        }
+    }
+}
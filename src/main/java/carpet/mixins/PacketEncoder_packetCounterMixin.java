@@ -0,0 +1,22 @@
+package carpet.mixins;
+
+import carpet.logging.logHelpers.PacketCounter;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import net.minecraft.network.PacketEncoder;
+import net.minecraft.network.protocol.Packet;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(PacketEncoder.class)
+public class PacketEncoder_packetCounterMixin
+{
+    // Count bytes of each packet sent, before compression.
+    @Inject(method = "encode(Lio/netty/channel/ChannelHandlerContext;Lnet/minecraft/network/protocol/Packet;Lio/netty/buffer/ByteBuf;)V", at = @At("TAIL"))
+    private void packetOutCount(ChannelHandlerContext ctx, Packet<?> packet, ByteBuf out, CallbackInfo ci)
+    {
+        PacketCounter.countBytes(ctx.channel(), PacketCounter.Direction.OUT, packet, out.readableBytes());
+    }
+}
@@ -67,7 +67,7 @@ public abstract class Player_scarpetEventsMixin extends LivingEntity
     @Inject(method = "interactOn", cancellable = true, at = @At("HEAD"))
     private void doInteract(Entity entity, InteractionHand hand, CallbackInfoReturnable<InteractionResult> cir)
     {
-        if (!level().isClientSide() && PLAYER_INTERACTS_WITH_ENTITY.isNeeded())
+        if (!level().isClientSide() && PLAYER_INTERACTS_WITH_ENTITY.isNeededFor((ServerPlayer) (Object)this))
         {
             if(PLAYER_INTERACTS_WITH_ENTITY.onEntityHandAction((ServerPlayer) (Object)this, entity, hand)) {
                 cir.setReturnValue(InteractionResult.PASS);
@@ -79,7 +79,7 @@ public abstract class Player_scarpetEventsMixin extends LivingEntity
     @Inject(method = "attack", at = @At("HEAD"), cancellable = true)
     private void onAttack(Entity target, CallbackInfo ci)
     {
-        if (!level().isClientSide() && PLAYER_ATTACKS_ENTITY.isNeeded() && target.isAttackable())
+        if (!level().isClientSide() && PLAYER_ATTACKS_ENTITY.isNeededFor((ServerPlayer) (Object)this) && target.isAttackable())
         {
             if(PLAYER_ATTACKS_ENTITY.onEntityHandAction((ServerPlayer) (Object)this, target, null)) {
                 ci.cancel();
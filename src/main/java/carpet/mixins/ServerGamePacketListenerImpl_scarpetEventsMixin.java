@@ -116,7 +116,10 @@ public class ServerGamePacketListenerImpl_scarpetEventsMixin
     ))
     private void onJump(ServerboundMovePlayerPacket playerMoveC2SPacket_1, CallbackInfo ci)
     {
-        PLAYER_JUMPS.onPlayerEvent(player);
+        if (PLAYER_JUMPS.isNeededFor(player))
+        {
+            PLAYER_JUMPS.onPlayerEvent(player);
+        }
     }
 
     @Inject(method = "handlePlayerAction", cancellable = true, at = @At(
@@ -126,7 +129,7 @@ public class ServerGamePacketListenerImpl_scarpetEventsMixin
     ))
     private void onClicked(ServerboundPlayerActionPacket packet, CallbackInfo ci)
     {
-        if (packet.getAction() == ServerboundPlayerActionPacket.Action.START_DESTROY_BLOCK)
+        if (packet.getAction() == ServerboundPlayerActionPacket.Action.START_DESTROY_BLOCK && PLAYER_CLICKS_BLOCK.isNeededFor(player))
             if(PLAYER_CLICKS_BLOCK.onBlockAction(player, packet.getPos(), packet.getDirection())) {
                 ci.cancel();
             }
@@ -279,7 +282,7 @@ public class ServerGamePacketListenerImpl_scarpetEventsMixin
     )
     private void onSwing(ServerboundSwingPacket packet, CallbackInfo ci)
     {
-        if (PLAYER_SWINGS_HAND.isNeeded() && !player.swinging)
+        if (PLAYER_SWINGS_HAND.isNeededFor(player) && !player.swinging)
         {
             PLAYER_SWINGS_HAND.onHandAction(player, packet.getHand());
         }
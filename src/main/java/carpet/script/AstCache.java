@@ -0,0 +1,380 @@
+package carpet.script;
+
+import carpet.script.value.BooleanValue;
+import carpet.script.value.ListValue;
+import carpet.script.value.MapValue;
+import carpet.script.value.NullValue;
+import carpet.script.value.NumericValue;
+import carpet.script.value.StringValue;
+import carpet.script.value.Value;
+import org.apache.commons.lang3.tuple.Pair;
+
+import jakarta.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of optimized app parse trees, so loading an app that didn't change since it was last loaded
+ * skips tokenizing, parsing and compile time optimizations.
+ * Entries are keyed by a hash of the app code, the set of functions and operators it was compiled against,
+ * the scarpet version and the optimization mode, so any change to either simply misses the cache.
+ * Trees holding folded constants of types that can't be stored are not cached.
+ */
+public class AstCache
+{
+    private static final int MAGIC = 0x53414354;
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_ENTRIES = 256;
+
+    private static final byte NODE = 0;
+    private static final byte CONSTANT_NODE = 1;
+
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte STRING = 5;
+    private static final byte LIST = 6;
+    private static final byte LIST_CONSTRUCTOR = 7;
+    private static final byte MAP = 8;
+
+    private static final Token.TokenType[] TOKEN_TYPES = Token.TokenType.values();
+
+    private final Path directory;
+    private final String version;
+
+    public AstCache(Path directory, String version)
+    {
+        this.directory = directory;
+        this.version = version;
+    }
+
+    /**
+     * @param symbols names of all functions and operators available to the code, in a stable order
+     */
+    public String key(String code, String symbols, boolean functional)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((FORMAT_VERSION + "\0" + version + "\0" + (functional ? "functional_optimized" : "optimized") + "\0").getBytes(StandardCharsets.UTF_8));
+            digest.update(symbols.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(code.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return cached tree under given key, with nodes linked to their tokens, or null if there is no valid entry.
+     * Nodes that didn't fold into constants have no op assigned, these need to be extracted from the tree by the caller.
+     */
+    @Nullable
+    public Expression.ExpressionNode load(String key)
+    {
+        Path file = directory.resolve(key + ".ast");
+        if (!Files.isRegularFile(file))
+        {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+            {
+                return null;
+            }
+            return readNode(in, Files.size(file));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // corrupted or written by something else, will be overwritten after a regular parse
+            CarpetScriptServer.LOG.debug("Ignoring unreadable script cache entry {}", file, e);
+            return null;
+        }
+    }
+
+    public void store(String key, Expression.ExpressionNode root)
+    {
+        Path temp = null;
+        try
+        {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                if (!writeNode(out, root))
+                {
+                    // temp file gets removed below
+                    return;
+                }
+            }
+            Files.move(temp, directory.resolve(key + ".ast"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+            prune();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            CarpetScriptServer.LOG.debug("Unable to store script cache entry {}", key, e);
+        }
+        finally
+        {
+            if (temp != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(temp);
+                }
+                catch (IOException ignored)
+                {
+                }
+            }
+        }
+    }
+
+    private void prune() throws IOException
+    {
+        List<Pair<Path, Long>> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory))
+        {
+            for (Path file : (Iterable<Path>) files::iterator)
+            {
+                if (file.getFileName().toString().endsWith(".ast"))
+                {
+                    entries.add(Pair.of(file, Files.getLastModifiedTime(file).toMillis()));
+                }
+            }
+        }
+        if (entries.size() <= MAX_ENTRIES)
+        {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(Pair::getRight));
+        for (Pair<Path, Long> entry : entries.subList(0, entries.size() - MAX_ENTRIES))
+        {
+            Files.deleteIfExists(entry.getLeft());
+        }
+    }
+
+    private static boolean writeNode(DataOutputStream out, Expression.ExpressionNode node) throws IOException
+    {
+        Token token = node.token;
+        if (node.op instanceof LazyValue.Constant constant)
+        {
+            out.writeByte(CONSTANT_NODE);
+            if (!writeValue(out, constant.get()))
+            {
+                return false;
+            }
+        }
+        else if (node.op instanceof LazyValue.ContextFreeLazyValue)
+        {
+            // opaque computed value
+            return false;
+        }
+        else
+        {
+            out.writeByte(NODE);
+        }
+        out.writeByte(token.type.ordinal());
+        writeString(out, token.surface);
+        writeString(out, token.display);
+        writeString(out, token.comment);
+        out.writeInt(token.pos);
+        out.writeInt(token.ordinal);
+        out.writeInt(token.linepos);
+        out.writeInt(token.lineno);
+        out.writeInt(node.args.size());
+        for (Expression.ExpressionNode arg : node.args)
+        {
+            if (!writeNode(out, arg))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Expression.ExpressionNode readNode(DataInputStream in, long fileSize) throws IOException
+    {
+        byte kind = in.readByte();
+        LazyValue op = kind == CONSTANT_NODE ? LazyValue.ofConstant(readValue(in, fileSize)) : null;
+        Token token = new Token();
+        token.type = TOKEN_TYPES[in.readByte()];
+        token.surface = readString(in, fileSize);
+        token.display = readString(in, fileSize);
+        token.comment = readString(in, fileSize);
+        token.pos = in.readInt();
+        token.ordinal = in.readInt();
+        token.linepos = in.readInt();
+        token.lineno = in.readInt();
+        int size = readLength(in, fileSize);
+        List<Expression.ExpressionNode> args = size == 0 ? Collections.emptyList() : new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+        {
+            args.add(readNode(in, fileSize));
+        }
+        Expression.ExpressionNode node = new Expression.ExpressionNode(op, args, token);
+        token.node = node;
+        return node;
+    }
+
+    private static boolean writeValue(DataOutputStream out, Value value) throws IOException
+    {
+        if (value.getClass() == NullValue.class)
+        {
+            out.writeByte(NULL);
+        }
+        else if (value instanceof BooleanValue)
+        {
+            out.writeByte(value.getBoolean() ? TRUE : FALSE);
+        }
+        else if (value instanceof NumericValue number && value.getClass() == NumericValue.class)
+        {
+            if (number.hasLongValue())
+            {
+                out.writeByte(LONG);
+                out.writeLong(number.getLong());
+            }
+            else
+            {
+                out.writeByte(DOUBLE);
+                out.writeDouble(number.getDouble());
+            }
+        }
+        else if (value.getClass() == StringValue.class)
+        {
+            out.writeByte(STRING);
+            writeString(out, value.getString());
+        }
+        else if (value.getClass() == ListValue.class || value.getClass() == ListValue.ListConstructorValue.class)
+        {
+            out.writeByte(value instanceof ListValue.ListConstructorValue ? LIST_CONSTRUCTOR : LIST);
+            List<Value> items = ((ListValue) value).getItems();
+            out.writeInt(items.size());
+            for (Value item : items)
+            {
+                if (!writeValue(out, item))
+                {
+                    return false;
+                }
+            }
+        }
+        else if (value.getClass() == MapValue.class)
+        {
+            out.writeByte(MAP);
+            Map<Value, Value> map = ((MapValue) value).getMap();
+            out.writeInt(map.size());
+            for (Map.Entry<Value, Value> entry : map.entrySet())
+            {
+                if (!writeValue(out, entry.getKey()) || !writeValue(out, entry.getValue()))
+                {
+                    return false;
+                }
+            }
+        }
+        else
+        {
+            return false;
+        }
+        return true;
+    }
+
+    private static Value readValue(DataInputStream in, long fileSize) throws IOException
+    {
+        byte type = in.readByte();
+        return switch (type)
+        {
+            case NULL -> Value.NULL;
+            case FALSE -> Value.FALSE;
+            case TRUE -> Value.TRUE;
+            case LONG -> new NumericValue(in.readLong());
+            case DOUBLE -> new NumericValue(in.readDouble());
+            case STRING -> new StringValue(readString(in, fileSize));
+            case LIST, LIST_CONSTRUCTOR -> {
+                int size = readLength(in, fileSize);
+                List<Value> items = new ArrayList<>(size);
+                for (int i = 0; i < size; i++)
+                {
+                    items.add(readValue(in, fileSize));
+                }
+                yield type == LIST ? ListValue.wrap(items) : new ListValue.ListConstructorValue(items);
+            }
+            case MAP -> {
+                int size = readLength(in, fileSize);
+                Map<Value, Value> map = new HashMap<>();
+                for (int i = 0; i < size; i++)
+                {
+                    map.put(readValue(in, fileSize), readValue(in, fileSize));
+                }
+                yield MapValue.wrap(map);
+            }
+            default -> throw new IOException("Unknown value type " + type);
+        };
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException
+    {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, long fileSize) throws IOException
+    {
+        return new String(in.readNBytes(readLength(in, fileSize)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a count of bytes or elements, each taking at least a byte in the file,
+     * so a corrupted count fails here instead of allocating more than the file could hold
+     */
+    private static int readLength(DataInputStream in, long fileSize) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0 || length > fileSize)
+        {
+            throw new IOException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * @return stable listing of symbol names, used as part of the cache key
+     */
+    static String symbols(Collection<String> functions, Collection<String> operators)
+    {
+        List<String> names = new ArrayList<>(functions.size() + operators.size() + 1);
+        names.addAll(functions);
+        names.sort(null);
+        List<String> ops = new ArrayList<>(operators);
+        ops.sort(null);
+        names.add("");
+        names.addAll(ops);
+        return String.join("\n", names);
+    }
+}
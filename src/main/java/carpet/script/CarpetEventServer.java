@@ -6,6 +6,7 @@ import carpet.script.exception.InvalidCallbackException;
 import carpet.script.external.Carpet;
 import carpet.script.external.Vanilla;
 import carpet.script.utils.GlocalFlag;
+import carpet.script.utils.TickBudget;
 import carpet.script.value.BlockValue;
 import carpet.script.value.BooleanValue;
 import carpet.script.value.EntityValue;
@@ -194,6 +195,11 @@ public class CarpetEventServer
         public final int reqArgs;
         final boolean isSystem;
         final boolean perPlayerDistribution;
+        // dispatch index, derived from callList and rebuilt lazily after any change to it
+        // globalCalls are callbacks without a target, targetedCalls hold globals merged with calls of that player,
+        // both keep the priority order of callList
+        private List<Callback> globalCalls;
+        private Map<String, List<Callback>> targetedCalls;
 
         public CallbackList(int reqArgs, boolean isSystem, boolean isGlobalOnly)
         {
@@ -204,6 +210,69 @@ public class CarpetEventServer
             this.reqArgs = reqArgs;
             this.isSystem = isSystem;
             perPlayerDistribution = isSystem && !isGlobalOnly;
+            invalidateIndex();
+        }
+
+        private void invalidateIndex()
+        {
+            globalCalls = null;
+            targetedCalls = null;
+        }
+
+        private void rebuildIndex()
+        {
+            List<Callback> globals = new ArrayList<>();
+            Map<String, List<Callback>> targeted = new HashMap<>();
+            for (Callback call : callList)
+            {
+                if (call.optionalTarget == null)
+                {
+                    globals.add(call);
+                    targeted.values().forEach(l -> l.add(call));
+                }
+                else
+                {
+                    targeted.computeIfAbsent(call.optionalTarget, t -> new ArrayList<>(globals)).add(call);
+                }
+            }
+            globalCalls = globals;
+            targetedCalls = targeted;
+        }
+
+        /**
+         * Callbacks that should receive an event dispatched from a given source
+         *
+         * @param target - name of the player source, or null to get all the calls regardless of their targets
+         * @return list of calls to run, in order of priority. Not to be modified
+         */
+        private List<Callback> callsFor(@Nullable String target)
+        {
+            if (target == null)
+            {
+                return callList;
+            }
+            if (globalCalls == null)
+            {
+                rebuildIndex();
+            }
+            return targetedCalls.getOrDefault(target, globalCalls);
+        }
+
+        /**
+         * Cheap check if any app would receive an event fired for that player,
+         * to be used before building event arguments
+         */
+        public boolean hasListeners(@Nullable ServerPlayer player)
+        {
+            if (callList.isEmpty())
+            {
+                return false;
+            }
+            if (player == null || !perPlayerDistribution)
+            {
+                return true;
+            }
+            return !callsFor(player.getScoreboardName()).isEmpty();
         }
 
         public List<Callback> inspectCurrentCalls()
@@ -215,7 +284,10 @@ public class CarpetEventServer
         {
             if (!inCall && !inSignal)
             {
-                callList.removeIf(when);
+                if (callList.removeIf(when))
+                {
+                    invalidateIndex();
+                }
                 return;
             }
             // we are ok with list growing in the meantime and parallel access, we are only scanning.
@@ -256,10 +328,16 @@ public class CarpetEventServer
             {
                 return false;
             }
+            // supressing calls where target player hosts simply don't match
+            // handling global hosts with player targets is left to when the host is resolved (few calls deeper).
+            List<Callback> calls = callsFor(perPlayerDistribution ? source.getTextName() : null);
+            if (calls.isEmpty())
+            {
+                return false;
+            }
             Boolean isCancelled = scriptServer.events.handleEvents.runIfEnabled(() -> {
                 Runnable profilerToken = Carpet.startProfilerSection("Scarpet events");
                 List<Value> argv = argumentSupplier.get(); // empty for onTickDone
-                String nameCheck = perPlayerDistribution ? source.getTextName() : null;
                 assert argv.size() == reqArgs;
                 boolean cancelled = false;
                 try
@@ -267,15 +345,9 @@ public class CarpetEventServer
                     // we are ok with list growing in the meantime
                     // which might happen during inCall or inSignal
                     inCall = true;
-                    for (int i = 0; i < callList.size(); i++)
+                    for (int i = 0; i < calls.size(); i++)
                     {
-                        Callback call = callList.get(i);
-                        // supressing calls where target player hosts simply don't match
-                        // handling global hosts with player targets is left to when the host is resolved (few calls deeper).
-                        if (nameCheck != null && call.optionalTarget != null && !nameCheck.equals(call.optionalTarget))
-                        {
-                            continue;
-                        }
+                        Callback call = calls.get(i);
                         CallbackResult result = call.execute(source, argv);
                         if (result == CallbackResult.CANCEL)
                         {
@@ -292,11 +364,12 @@ public class CarpetEventServer
                 {
                     inCall = false;
                 }
-                for (Callback call : removedCalls)
+                if (!removedCalls.isEmpty())
                 {
-                    callList.remove(call);
+                    callList.removeAll(removedCalls);
+                    removedCalls.clear();
+                    invalidateIndex();
                 }
-                removedCalls.clear();
                 profilerToken.run();
                 return cancelled;
             });
@@ -364,6 +437,7 @@ public class CarpetEventServer
 
             removeEventCall(hostName, target, udf.getString());
             callList.add(new Callback(hostName, target, udf, null, scriptServer));
+            invalidateIndex();
             return true;
         }
 
@@ -376,6 +450,7 @@ public class CarpetEventServer
             //removing duplicates
             removeEventCall(host.getName(), host.user, function.getString());
             callList.add(new Callback(host.getName(), host.user, function, args, (CarpetScriptServer) host.scriptServer()));
+            invalidateIndex();
             return true;
         }
 
@@ -405,6 +480,7 @@ public class CarpetEventServer
                 }
             });
             callList.addAll(copyCalls);
+            invalidateIndex();
         }
 
         public void clearEverything()
@@ -415,11 +491,13 @@ public class CarpetEventServer
                 callList = new ArrayList<>();
             }
             callList.clear();
+            invalidateIndex();
         }
 
         public void sortByPriority(CarpetScriptServer scriptServer)
         {
             callList.sort(Comparator.comparingDouble(c -> -scriptServer.getAppHostByName(c.host).eventPriority));
+            invalidateIndex();
         }
     }
 
@@ -1215,6 +1293,14 @@ public class CarpetEventServer
             return handler.callList.size() > 0;
         }
 
+        /**
+         * Like {@link #isNeeded()}, but also checks if any of the registered calls would be dispatched to that player
+         */
+        public boolean isNeededFor(ServerPlayer player)
+        {
+            return handler.hasListeners(player);
+        }
+
         public boolean deprecated()
         {
             return false;
@@ -1389,6 +1475,13 @@ public class CarpetEventServer
         }
         for (ScheduledCall call : currentCalls)
         {
+            if (TickBudget.isExhausted(call.host))
+            {
+                // app used up its time, call waits for the next tick
+                call.dueTime = 1;
+                scheduledCalls.add(call);
+                continue;
+            }
             call.execute();
         }
 
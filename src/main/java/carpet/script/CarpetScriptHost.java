@@ -11,9 +11,14 @@ import carpet.script.exception.IntegrityException;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.InvalidCallbackException;
 import carpet.script.exception.LoadException;
+import carpet.script.exception.ThrowStatement;
+import carpet.script.exception.Throwables;
 import carpet.script.external.Carpet;
 import carpet.script.external.Vanilla;
 import carpet.script.utils.AppStoreManager;
+import carpet.script.utils.KeyValueStore;
+import carpet.script.utils.TaskPool;
+import carpet.script.utils.TickBudget;
 import carpet.script.value.EntityValue;
 import carpet.script.value.FunctionValue;
 import carpet.script.value.ListValue;
@@ -41,6 +46,7 @@ import net.minecraft.world.entity.EntityType;
 import org.apache.commons.lang3.tuple.Pair;
 
 import jakarta.annotation.Nullable;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -67,6 +73,8 @@ public class CarpetScriptHost extends ScriptHost
 
     private Tag globalState;
     private int saveTimeout;
+    @Nullable
+    private KeyValueStore keyValueStore;
     public boolean persistenceRequired;
     public double eventPriority;
 
@@ -110,6 +118,7 @@ public class CarpetScriptHost extends ScriptHost
                 host.setChatErrorSnooper(source);
                 CarpetExpression ex = new CarpetExpression(host.main, module.code(), source, new BlockPos(0, 0, 0));
                 ex.getExpr().asATextSource();
+                ex.getExpr().useAstCache(scriptServer.astCache);
                 host.storeSource = storeSource;
                 host.root = ex.scriptRunCommand(host, BlockPos.containing(source.getPosition())).getRight();
             }
@@ -323,6 +332,7 @@ public class CarpetScriptHost extends ScriptHost
             persistenceRequired = config.getOrDefault(new StringValue("stay_loaded"), Value.TRUE).getBoolean();
             strict = config.getOrDefault(StringValue.of("strict"), Value.FALSE).getBoolean();
             eventPriority = config.getOrDefault(new StringValue("event_priority"), Value.ZERO).readDoubleNumber();
+            setTaskPolicies(TaskPool.Policy.fromConfig(config.get(StringValue.of("task_pools"))));
             // check requires
             Value loadRequirements = config.get(new StringValue("requires"));
             if (loadRequirements instanceof final FunctionValue functionValue)
@@ -410,7 +420,7 @@ public class CarpetScriptHost extends ScriptHost
                 throw CommandArgument.error("'arguments' element in config should be a map");
             }
             appArgTypes.clear();
-            for (Map.Entry<Value, Value> typeData : map.getMap().entrySet())
+            for (Map.Entry<Value, Value> typeData : map.readOnlyMap().entrySet())
             {
                 String argument = typeData.getKey().getString();
                 Value spec = typeData.getValue();
@@ -418,7 +428,7 @@ public class CarpetScriptHost extends ScriptHost
                 {
                     throw CommandArgument.error("Spec for '" + argument + "' should be a map");
                 }
-                Map<String, Value> specData = specMap.getMap().entrySet().stream().collect(Collectors.toMap(e -> e.getKey().getString(), Map.Entry::getValue));
+                Map<String, Value> specData = specMap.readOnlyMap().entrySet().stream().collect(Collectors.toMap(e -> e.getKey().getString(), Map.Entry::getValue));
                 appArgTypes.put(argument, CommandArgument.buildFromConfig(argument, specData, this));
             }
         }
@@ -584,7 +594,7 @@ public class CarpetScriptHost extends ScriptHost
         }
         List<Pair<List<CommandToken>, FunctionArgument>> commandEntries = new ArrayList<>();
 
-        for (Map.Entry<Value, Value> commandsData : map.getMap().entrySet().stream().sorted(Entry.comparingByKey()).toList())
+        for (Map.Entry<Value, Value> commandsData : map.readOnlyMap().entrySet().stream().sorted(Entry.comparingByKey()).toList())
         {
             List<CommandToken> elements = CommandToken.parseSpec(commandsData.getKey().getString(), this);
             FunctionArgument funSpec = FunctionArgument.fromCommandSpec(this, commandsData.getValue());
@@ -635,6 +645,7 @@ public class CarpetScriptHost extends ScriptHost
         CarpetContext cc = (CarpetContext) c;
         CarpetExpression ex = new CarpetExpression(module, module.code(), cc.source(), cc.origin());
         ex.getExpr().asATextSource();
+        ex.getExpr().useAstCache(scriptServer().astCache);
         ex.scriptRunCommand(this, cc.origin());
     }
 
@@ -866,11 +877,19 @@ public class CarpetScriptHost extends ScriptHost
         {
             assertAppIntegrity(function.getModule());
             Context context = new CarpetContext(this, source);
-            return function.getExpression().evaluatePartial(
-                    () -> function.execute(context, Context.VOID, function.getExpression(), function.getToken(), argv, null),
-                    context,
-                    Context.VOID
-            );
+            Runnable token = startAppSection();
+            try
+            {
+                return function.getExpression().evaluatePartial(
+                        () -> function.execute(context, Context.VOID, function.getExpression(), function.getToken(), argv, null),
+                        context,
+                        Context.VOID
+                );
+            }
+            finally
+            {
+                token.run();
+            }
         }
         catch (ExpressionException e)
         {
@@ -903,10 +922,18 @@ public class CarpetScriptHost extends ScriptHost
         {
             assertAppIntegrity(fun.getModule());
             Context context = new CarpetContext(this, source, origin);
-            return fun.getExpression().evaluatePartial(
-                    () -> fun.execute(context, Context.VOID, fun.getExpression(), fun.getToken(), argv, null),
-                    context,
-                    Context.VOID);
+            Runnable token = startAppSection();
+            try
+            {
+                return fun.getExpression().evaluatePartial(
+                        () -> fun.execute(context, Context.VOID, fun.getExpression(), fun.getToken(), argv, null),
+                        context,
+                        Context.VOID);
+            }
+            finally
+            {
+                token.run();
+            }
         }
         catch (ExpressionException e)
         {
@@ -915,6 +942,18 @@ public class CarpetScriptHost extends ScriptHost
         return Value.NULL;
     }
 
+    // lets lag spike reports tell which app the server thread is running, and keeps the app within its tick budget
+    private Runnable startAppSection()
+    {
+        String name = getName();
+        Runnable section = Carpet.startAppSection(name == null ? "default" : name);
+        Runnable budget = TickBudget.enter(name);
+        return () -> {
+            budget.run();
+            section.run();
+        };
+    }
+
     public Value callNow(FunctionValue fun, List<Value> arguments)
     {
         ServerPlayer player = (user == null) ? null : scriptServer().server.getPlayerList().getPlayerByName(user);
@@ -956,6 +995,17 @@ public class CarpetScriptHost extends ScriptHost
             {
                 dumpState();
             }
+            // make sure everything the app wrote is on disk before it can be loaded again, without waiting for other apps
+            if (main != null)
+            {
+                scriptServer().storage.flush(scriptServer().resolveResource(main.name() + ".data"));
+                scriptServer().storage.flush(scriptServer().resolveResource(main.name() + ".data.nbt"));
+            }
+        }
+        if (keyValueStore != null)
+        {
+            keyValueStore.close();
+            keyValueStore = null;
         }
     }
 
@@ -1008,6 +1058,35 @@ public class CarpetScriptHost extends ScriptHost
         return true;
     }
 
+    /**
+     * @return key-value store of the app, shared by all its player instances, opened on first use
+     */
+    public KeyValueStore getKeyValueStore()
+    {
+        if (main == null)
+        {
+            throw new InternalExpressionException("Key-value store is only available to apps");
+        }
+        CarpetScriptHost responsibleHost = (parent != null) ? (CarpetScriptHost) parent : this;
+        synchronized (responsibleHost)
+        {
+            if (responsibleHost.keyValueStore == null)
+            {
+                Path file = scriptServer().resolveResource(main.name() + ".data.kv");
+                try
+                {
+                    responsibleHost.keyValueStore = KeyValueStore.open(file);
+                }
+                catch (IOException e)
+                {
+                    CarpetScriptServer.LOG.warn("IOException when opening key-value store", e);
+                    throw new ThrowStatement("Unable to open key-value store " + file, Throwables.IO_EXCEPTION);
+                }
+            }
+            return responsibleHost.keyValueStore;
+        }
+    }
+
     public boolean removeResourceFile(FileArgument fdesc)
     {
         return (!isDefaultApp() || fdesc.isShared) && fdesc.dropExistingFile(main); //
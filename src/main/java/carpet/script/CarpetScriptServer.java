@@ -19,6 +19,9 @@ import carpet.script.language.Loops;
 import carpet.script.language.Sys;
 import carpet.script.language.Threading;
 import carpet.script.utils.AppStoreManager;
+import carpet.script.utils.ParseCache;
+import carpet.script.utils.ShapeDispatcher;
+import carpet.script.utils.TickBudget;
 import carpet.script.value.FunctionValue;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.tree.CommandNode;
@@ -66,6 +69,7 @@ public class CarpetScriptServer extends ScriptServer
     public int tickDepth;
     private Set<String> holyMoly;
     public CarpetEventServer events;
+    public final AstCache astCache;
 
     private static final List<Module> bundledModuleData = new ArrayList<>();
     private static final List<Module> ruleModuleData = new ArrayList<>();
@@ -110,6 +114,7 @@ public class CarpetScriptServer extends ScriptServer
     public CarpetScriptServer(MinecraftServer server)
     {
         this.server = server;
+        this.astCache = new AstCache(resolveResource(".cache"), Carpet.getCarpetVersion());
         init();
     }
 
@@ -400,6 +405,7 @@ public class CarpetScriptServer extends ScriptServer
     public void tick()
     {
         Runnable token;
+        TickBudget.startTick();
         token = Carpet.startProfilerSection("Scarpet schedule");
         events.handleEvents.getWhileDisabled(() -> {
             events.tick();
@@ -412,6 +418,7 @@ public class CarpetScriptServer extends ScriptServer
             host.tick();
         }
         token.run();
+        ShapeDispatcher.flushShapes(server);
     }
 
     public void onClose()
@@ -422,6 +429,9 @@ public class CarpetScriptServer extends ScriptServer
             host.onClose();
             events.removeAllHostEvents(host);
         }
+        storage.close();
+        ShapeDispatcher.resetShapeClients();
+        ParseCache.invalidateAll();
         stopAll = true;
     }
 
@@ -472,6 +482,7 @@ public class CarpetScriptServer extends ScriptServer
         modules.forEach((s, h) -> apps.put(s, new TransferData(h)));
         apps.keySet().forEach(s -> removeScriptHost(server.createCommandSourceStack(), s, false, false));
         CarpetEventServer.Event.clearAllBuiltinEvents();
+        ParseCache.invalidateAll();
         init();
         apps.forEach((s, data) -> addScriptHost(server.createCommandSourceStack(), s, data.commandValidator, data.perUser, false, data.isRuleApp, null, data.override));
     }
@@ -90,6 +90,17 @@ public class Expression
         module = mi;
     }
 
+    @Nullable
+    private AstCache astCache = null;
+
+    /**
+     * Allows the optimized tree of this expression to be loaded from, and saved to, given cache
+     */
+    public void useAstCache(@Nullable AstCache cache)
+    {
+        astCache = cache;
+    }
+
     /**
      * Cached AST (Abstract Syntax Tree) (root) of the expression
      */
@@ -885,37 +896,73 @@ public class Expression
         });
     }
 
-    public void addContextFunction(String name, int num_params, TriFunction<Context, Context.Type, List<Value>, Value> fun)
+    private static class ContextFunction extends AbstractLazyFunction
     {
-        functions.put(name, new AbstractLazyFunction(num_params, name)
+        private final TriFunction<Context, Context.Type, List<Value>, Value> fun;
+
+        ContextFunction(int num_params, String name, TriFunction<Context, Context.Type, List<Value>, Value> fun)
         {
-            @Override
-            public boolean pure()
+            super(num_params, name);
+            this.fun = fun;
+        }
+
+        @Override
+        public boolean pure()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean transitive()
+        {
+            return false;
+        }
+
+        @Override
+        public LazyValue lazyEval(Context c, Context.Type i, Expression e, Token t, List<LazyValue> lazyParams)
+        {
+            ILazyFunction.checkInterrupts();
+            try
             {
-                return false;
+                Value ret = fun.apply(c, i, unpackArgs(lazyParams, c, Context.NONE));
+                return (cc, tt) -> ret;
             }
+            catch (RuntimeException exc)
+            {
+                throw handleCodeException(c, exc, e, t);
+            }
+        }
+    }
 
-            @Override
-            public boolean transitive()
+    public void addContextFunction(String name, int num_params, TriFunction<Context, Context.Type, List<Value>, Value> fun)
+    {
+        functions.put(name, new ContextFunction(num_params, name, fun));
+    }
+
+    /**
+     * Adds a context function that can be specialized when code is compiled, for calls with some arguments being constants.
+     * The binder gets values of all arguments, with nulls for these that are not constant, and returns the function
+     * to use for that call, or null to keep using the generic one.
+     */
+    public void addBindableContextFunction(String name, int num_params, TriFunction<Context, Context.Type, List<Value>, Value> fun,
+                                           Function<List<Value>, TriFunction<Context, Context.Type, List<Value>, Value>> binder)
+    {
+        class BindableContextFunction extends ContextFunction implements Fluff.IBindableFunction
+        {
+            BindableContextFunction()
             {
-                return false;
+                super(num_params, name, fun);
             }
 
+            @Nullable
             @Override
-            public LazyValue lazyEval(Context c, Context.Type i, Expression e, Token t, List<LazyValue> lazyParams)
+            public ILazyFunction bind(List<Value> constants)
             {
-                ILazyFunction.checkInterrupts();
-                try
-                {
-                    Value ret = fun.apply(c, i, unpackArgs(lazyParams, c, Context.NONE));
-                    return (cc, tt) -> ret;
-                }
-                catch (RuntimeException exc)
-                {
-                    throw handleCodeException(c, exc, e, t);
-                }
+                TriFunction<Context, Context.Type, List<Value>, Value> bound = binder.apply(constants);
+                return bound == null ? null : new ContextFunction(num_params, name, bound);
             }
-        });
+        }
+        functions.put(name, new BindableContextFunction());
     }
 
     public void addTypedContextFunction(String name, int num_params, Context.Type reqType, TriFunction<Context, Context.Type, List<Value>, Value> fun)
@@ -1529,6 +1576,20 @@ public class Expression
 
     private Pair<ExpressionNode, LazyValue> getAST(Context context, boolean optimize, boolean functional, @Nullable Consumer<String> logger)
     {
+        // with debugging on we want to see the optimization log, so the cache is bypassed
+        AstCache cache = optimize && logger == null ? astCache : null;
+        String cacheKey = null;
+        if (cache != null)
+        {
+            cacheKey = cache.key(expression, AstCache.symbols(functions.keySet(), operators.keySet()), functional);
+            ExpressionNode cached = cache.load(cacheKey);
+            if (cached != null)
+            {
+                Context optimizeOnlyContext = new Context.ContextForErrorReporting(context);
+                bindCachedOps(cached, optimizeOnlyContext);
+                return Pair.of(cached, extractOp(optimizeOnlyContext, cached, Context.Type.NONE));
+            }
+        }
         Tokenizer tokenizer = new Tokenizer(context, this, expression, allowComments, allowNewlineSubstitutions);
         // stripping lousy but acceptable semicolons
         List<Token> cleanedTokens = Tokenizer.postProcess(tokenizer.parseTokens());
@@ -1548,7 +1609,28 @@ public class Expression
         if (!optimize) {
             return Pair.of(root, root.op);
         }
-        return Pair.of(root, extractOp(optimizeOnlyContext, root, Context.Type.NONE));
+        LazyValue op = extractOp(optimizeOnlyContext, root, Context.Type.NONE);
+        if (cacheKey != null)
+        {
+            cache.store(cacheKey, root);
+        }
+        return Pair.of(root, op);
+    }
+
+    /**
+     * Nodes restored from the cache only carry their tokens, so these get ops evaluating them the same way
+     * the extracted tree would, in case something evaluates nodes of the tree directly.
+     */
+    private void bindCachedOps(ExpressionNode node, Context ctx)
+    {
+        if (node.op == null)
+        {
+            node.op = (c, t) -> extractOp(ctx, node, t).evalValue(c, t);
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            bindCachedOps(arg, ctx);
+        }
     }
 
     private void optimizeTree(ExpressionNode root, Context optimizeOnlyContext, @Nullable Consumer<String> logger, boolean optimize, boolean toFunctional) {
@@ -1943,7 +2025,7 @@ public class Expression
                 return (c, t) -> getOrSetAnyVariable(c, token.surface).evalValue(c, t);
             case FUNCTION:
             {
-                ILazyFunction f = functions.get(token.surface);
+                ILazyFunction f = bindFunction(functions.get(token.surface), node);
                 Context.Type requestedType = f.staticType(expectedType);
                 List<LazyValue> params = node.args.stream().map(n -> extractOp(ctx, n, requestedType)).collect(Collectors.toList());
                 return (c, t) -> f.lazyEval(c, t, this, token, params).evalValue(c, t);
@@ -1956,6 +2038,81 @@ public class Expression
         }
     }
 
+    private static ILazyFunction bindFunction(ILazyFunction f, ExpressionNode node)
+    {
+        if (!(f instanceof Fluff.IBindableFunction bindable))
+        {
+            return f;
+        }
+        List<Value> constants = new ArrayList<>(node.args.size());
+        for (ExpressionNode arg : node.args)
+        {
+            // unpacked arguments would shift positions of the constants
+            if (arg.token.surface.equals("...u") || (arg.token.type == Token.TokenType.FUNCTION && arg.token.surface.equals("unpack")))
+            {
+                return f;
+            }
+            constants.add(arg.op instanceof LazyValue.Constant constant ? constant.get() : null);
+        }
+        ILazyFunction bound = bindable.bind(constants);
+        return bound == null ? f : bound;
+    }
+
+    // built-in functions that are not pure, but only ever touch variables of the context they are evaluated in,
+    // so are safe to evaluate in parallel if their arguments are
+    private static final Set<String> contextLocalFunctions = Set.of(
+            "if", "for", "map", "filter", "first", "all", "reduce", "pmap", "pfilter", "preduce"
+    );
+
+    /**
+     * Checks if the code under the node can be evaluated on other threads with a copy of the calling context.
+     * That requires all its operations to be pure, or only modifying variables of their own context,
+     * and the code not reading or writing app global variables.
+     */
+    public boolean isParallelizable(ExpressionNode node)
+    {
+        if (node.op instanceof LazyValue.ContextFreeLazyValue)
+        {
+            return true;
+        }
+        Token token = node.token;
+        switch (token.type)
+        {
+            case CONSTANT, LITERAL, HEX_LITERAL, STRINGPARAM:
+                return true;
+            case VARIABLE:
+                return !token.surface.startsWith("global_");
+            case FUNCTION:
+            {
+                ILazyFunction f = functions.get(token.surface);
+                if (f == null || !(f.pure() || contextLocalFunctions.contains(token.surface)))
+                {
+                    return false;
+                }
+                break;
+            }
+            case OPERATOR, UNARY_OPERATOR:
+            {
+                ILazyOperator op = operators.get(token.surface);
+                if (op == null || !op.pure())
+                {
+                    return false;
+                }
+                break;
+            }
+            default:
+                return false;
+        }
+        for (ExpressionNode arg : node.args)
+        {
+            if (!isParallelizable(arg))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void validate(Context c, List<Token> rpn)
     {
         /*-
@@ -6,6 +6,7 @@ import carpet.script.value.FunctionUnpackedArgumentsValue;
 import carpet.script.value.ListValue;
 import carpet.script.value.Value;
 
+import jakarta.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -82,6 +83,18 @@ public abstract class Fluff
         // lazy function has a chance to change execution based on context
     }
 
+    public interface IBindableFunction extends ILazyFunction
+    {
+        /**
+         * Called when code is compiled, to specialize a call for its constant arguments
+         *
+         * @param constants values of constant arguments, and nulls for all other arguments
+         * @return function to use for that call, or null if it can't be specialized
+         */
+        @Nullable
+        ILazyFunction bind(List<Value> constants);
+    }
+
     public interface IFunction extends ILazyFunction
     {
         Value eval(List<Value> parameters);
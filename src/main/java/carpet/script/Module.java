@@ -90,14 +90,11 @@ public record Module(String name, String code, boolean library)
     public static Tag getData(Module module, ScriptServer scriptServer)
     {
         Path dataFile = resolveResource(module, scriptServer);
-        if (dataFile == null || !Files.exists(dataFile) || !(Files.isRegularFile(dataFile)))
+        if (dataFile == null)
         {
             return null;
         }
-        synchronized (FileArgument.writeIOSync)
-        {
-            return FileArgument.readTag(dataFile);
-        }
+        return FileArgument.readStored(scriptServer.storage, dataFile, source -> FileArgument.readTag(source, dataFile));
     }
 
     public static void saveData(Module module, Tag globalState, ScriptServer scriptServer)
@@ -107,21 +104,7 @@ public record Module(String name, String code, boolean library)
         {
             return;
         }
-        if (!Files.exists(dataFile.getParent()))
-        {
-            try
-            {
-                Files.createDirectories(dataFile.getParent());
-            }
-            catch (IOException e)
-            {
-                throw new IllegalStateException(e);
-            }
-        }
-        synchronized (FileArgument.writeIOSync)
-        {
-            FileArgument.writeTagDisk(globalState, dataFile, false);
-        }
+        scriptServer.storage.write(dataFile, FileArgument.serializeTag(globalState, dataFile));
     }
 
     private static Path resolveResource(Module module, ScriptServer scriptServer)
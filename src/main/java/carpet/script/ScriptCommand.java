@@ -2,6 +2,7 @@ package carpet.script;
 
 import carpet.script.external.Carpet;
 import carpet.script.external.Vanilla;
+import carpet.script.utils.AppProfiler;
 import carpet.script.utils.AppStoreManager;
 import carpet.script.exception.CarpetExpressionException;
 import carpet.script.value.FunctionValue;
@@ -19,6 +20,7 @@ import net.minecraft.network.chat.Component;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -365,6 +367,18 @@ public class ScriptCommand
                             return success ? 1 : 0;
                         }));
 
+        LiteralArgumentBuilder<CommandSourceStack> p = literal("profile").requires((player) -> carpet.utils.CommandHelper.hasPermissionLevel(player, 2)).
+                executes((cc) -> AppProfiler.report(cc.getSource(), null)).
+                then(literal("start").
+                        executes((cc) -> startProfiler(cc, false)).
+                        then(literal("flame").executes((cc) -> startProfiler(cc, true)))).
+                then(literal("stop").executes(ScriptCommand::stopProfiler)).
+                then(literal("report").
+                        executes((cc) -> AppProfiler.report(cc.getSource(), null)).
+                        then(argument("app", StringArgumentType.word()).
+                                suggests((cc, bb) -> suggest(AppProfiler.getAppStats().keySet(), bb)).
+                                executes((cc) -> AppProfiler.report(cc.getSource(), StringArgumentType.getString(cc, "app")))));
+
         LiteralArgumentBuilder<CommandSourceStack> x = literal("explain").requires(Vanilla::ServerPlayer_canScriptACE).
                         executes((cc) -> explain(cc, null, null, null)).
                         then(literal("expression").
@@ -387,7 +401,7 @@ public class ScriptCommand
 
         dispatcher.register(literal("script").
                 requires(Vanilla::ServerPlayer_canScriptGeneral).
-                then(b).then(u).then(o).then(l).then(s).then(c).then(h).then(i).then(e).then(t).then(a).then(f).then(q).then(d).then(r));
+                then(b).then(u).then(o).then(l).then(s).then(c).then(h).then(i).then(e).then(t).then(a).then(f).then(q).then(d).then(r).then(p));
         dispatcher.register(literal("script").
                 requires(Vanilla::ServerPlayer_canScriptGeneral).
                 then(literal("in").
@@ -396,6 +410,24 @@ public class ScriptCommand
                                 then(b).then(u).then(o).then(l).then(s).then(c).then(h).then(i).then(e).then(t))));
     }
 
+    private static int startProfiler(CommandContext<CommandSourceStack> context, boolean flame)
+    {
+        AppProfiler.start(context.getSource().getServer(), flame);
+        Carpet.Messenger_message(context.getSource(), "w Profiling scarpet calls" + (flame ? " with flame graph sampling" : "") + ", see results with /script profile report");
+        return 1;
+    }
+
+    private static int stopProfiler(CommandContext<CommandSourceStack> context)
+    {
+        Path flame = AppProfiler.stop(context.getSource().getServer());
+        AppProfiler.report(context.getSource(), null);
+        if (flame != null)
+        {
+            Carpet.Messenger_message(context.getSource(), "w Flame graph stacks saved to " + flame.getFileName());
+        }
+        return 1;
+    }
+
     private static CarpetScriptHost getHost(CommandContext<CommandSourceStack> context) throws CommandSyntaxException
     {
         CarpetScriptHost host;
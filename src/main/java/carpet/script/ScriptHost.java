@@ -3,7 +3,9 @@ package carpet.script;
 import carpet.script.exception.ExpressionException;
 import carpet.script.exception.IntegrityException;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.utils.TaskPool;
 import carpet.script.value.FunctionValue;
+import carpet.script.value.StringValue;
 import carpet.script.value.Value;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
@@ -20,10 +22,6 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -32,7 +30,9 @@ public abstract class ScriptHost
     private static final Map<Long, Random> randomizers = new Long2ObjectOpenHashMap<>();
 
     public static Thread mainThread = null;
-    private final Map<Value, ThreadPoolExecutor> executorServices = new HashMap<>();
+    private final Map<Value, TaskPool> executorServices = new ConcurrentHashMap<>();
+    // pool settings from app config, '*' key applying to all pools not listed explicitly
+    protected Map<Value, TaskPool.Policy> taskPolicies = Map.of();
     private final Map<Value, Object> locks = new ConcurrentHashMap<>();
     private final ScriptServer scriptServer;
     protected boolean inTermination = false;
@@ -468,6 +468,7 @@ public abstract class ScriptHost
         // fixing imports
         host.moduleData.forEach((module, data) -> data.setImportsBasedOn(host, this.moduleData.get(data.parent)));
         host.root = this.root;
+        host.taskPolicies = this.taskPolicies;
     }
 
     public synchronized void handleExpressionException(String msg, ExpressionException exc)
@@ -482,63 +483,62 @@ public abstract class ScriptHost
         return locks.computeIfAbsent(name, n -> new Object());
     }
 
-    public ThreadPoolExecutor getExecutor(Value pool)
+    @Nullable
+    public TaskPool getExecutor(Value pool)
     {
         if (inTermination)
         {
             return null;
         }
-        return executorServices.computeIfAbsent(pool, v -> (ThreadPoolExecutor) Executors.newCachedThreadPool());
+        return executorServices.computeIfAbsent(pool, v -> new TaskPool(
+                (getName() == null ? "default" : getName()) + (user == null ? "" : "/" + user) + "-" + v.getString(),
+                getTaskPolicy(v)
+        ));
+    }
+
+    public TaskPool.Policy getTaskPolicy(Value pool)
+    {
+        TaskPool.Policy policy = taskPolicies.get(pool);
+        if (policy == null)
+        {
+            policy = taskPolicies.getOrDefault(StringValue.of("*"), TaskPool.Policy.DEFAULT);
+        }
+        return policy;
+    }
+
+    public void setTaskPolicies(Map<Value, TaskPool.Policy> policies)
+    {
+        taskPolicies = policies;
+    }
+
+    public Map<Value, TaskPool> getTaskPools()
+    {
+        return executorServices;
     }
 
     public int taskCount()
     {
-        return executorServices.values().stream().map(ThreadPoolExecutor::getActiveCount).reduce(0, Integer::sum);
+        return executorServices.values().stream().mapToInt(TaskPool::taskCount).sum();
     }
 
     public int taskCount(Value pool)
     {
-        return executorServices.containsKey(pool) ? executorServices.get(pool).getActiveCount() : 0;
+        TaskPool executor = executorServices.get(pool);
+        return executor == null ? 0 : executor.taskCount();
     }
 
     public void onClose()
     {
         inTermination = true;
-        executorServices.values().forEach(ThreadPoolExecutor::shutdown);
+        executorServices.values().forEach(TaskPool::shutdown);
         for (ScriptHost uh : userHosts.values())
         {
             uh.onClose();
         }
-        if (taskCount() > 0)
-        {
-            executorServices.values().forEach(e -> {
-                ExecutorService stopper = Executors.newSingleThreadExecutor();
-                stopper.submit(() -> {
-                    try
-                    {
-                        // Wait a while for existing tasks to terminate
-                        if (!e.awaitTermination(1500, TimeUnit.MILLISECONDS))
-                        {
-                            e.shutdownNow(); // Cancel currently executing tasks
-                            // Wait a while for tasks to respond to being cancelled
-                            if (!e.awaitTermination(1500, TimeUnit.MILLISECONDS))
-                            {
-                                CarpetScriptServer.LOG.error("Failed to stop app's thread");
-                            }
-                        }
-                    }
-                    catch (InterruptedException ie)
-                    {
-                        // (Re-)Cancel if current thread also interrupted
-                        e.shutdownNow();
-                        // Preserve interrupt status
-                        Thread.currentThread().interrupt();
-                    }
-                    stopper.shutdown();
-                    stopper.shutdownNow();
-                });
-            });
-        }
+        TaskPool.terminate(
+                executorServices.values().stream().filter(e -> e.taskCount() > 0).toList(),
+                1500, CarpetScriptServer.LOG::error
+        );
     }
 
     public void setPerPlayer(boolean isPerUser)
@@ -4,12 +4,14 @@ import java.nio.file.Path;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import carpet.script.utils.WriteBehindStorage;
 import carpet.script.value.Value;
 
 // WIP
 public abstract class ScriptServer
 {
     public final Map<Value, Value> systemGlobals = new ConcurrentHashMap<>();
+    public final WriteBehindStorage storage = new WriteBehindStorage();
 
     public abstract Path resolveResource(String suffix);
 }
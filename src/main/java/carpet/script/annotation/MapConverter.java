@@ -44,7 +44,7 @@ class MapConverter<K, V> implements ValueConverter<Map<K, V>>
         Map<K, V> result = new HashMap<>();
         if (value instanceof MapValue)
         {
-            for (Entry<Value, Value> entry : ((MapValue) value).getMap().entrySet())
+            for (Entry<Value, Value> entry : ((MapValue) value).readOnlyMap().entrySet())
             {
                 K key = keyConverter.convert(entry.getKey(), context);
                 V val = valueConverter.convert(entry.getValue(), context);
@@ -14,6 +14,8 @@ import carpet.script.argument.FunctionArgument;
 import carpet.script.argument.Vector3Argument;
 import carpet.script.exception.ExitStatement;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.exception.ThrowStatement;
+import carpet.script.exception.Throwables;
 import carpet.script.external.Carpet;
 import carpet.script.utils.SnoopyCommandSource;
 import carpet.script.utils.SystemInfo;
@@ -113,6 +115,12 @@ public class Auxiliary
     private static final Map<String, SoundSource> mixerMap = Arrays.stream(SoundSource.values()).collect(Collectors.toMap(SoundSource::getName, k -> k));
     public static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().registerTypeAdapter(Value.class, new ScarpetJsonDeserializer()).create();
 
+    private static Value fromStoredJson(String json)
+    {
+        Value value = GSON.fromJson(json, Value.class);
+        return value == null ? Value.NULL : value;
+    }
+
     @Deprecated
     public static String recognizeResource(Value value, boolean isFloder)
     {
@@ -209,14 +217,14 @@ public class Auxiliary
             {
                 for (ServerPlayer p : (world.players()))
                 {
-                    world.sendParticles(p, particle, true, true, vec.x, vec.y, vec.z, count,
+                    ShapeDispatcher.sendParticles(world, p, particle, vec.x, vec.y, vec.z, count,
                             spread, spread, spread, speed);
                 }
             }
             else
             {
-                world.sendParticles(player,
-                        particle, true, true, vec.x, vec.y, vec.z, count,
+                ShapeDispatcher.sendParticles(world, player,
+                        particle, vec.x, vec.y, vec.z, count,
                         spread, spread, spread, speed);
             }
 
@@ -942,9 +950,22 @@ public class Auxiliary
             return files == null ? Value.NULL : ListValue.wrap(files.map(StringValue::of));
         });
 
-        expression.addContextFunction("read_file", 2, (c, t, lv) ->
+        expression.addContextFunction("read_file", -1, (c, t, lv) ->
         {
             FileArgument fdesc = FileArgument.from(c, lv, false, FileArgument.Reason.READ);
+            if (lv.size() > 2 && lv.get(2).getBoolean())
+            {
+                CarpetScriptHost host = (CarpetScriptHost) c.host;
+                if (host.isDefaultApp() && !fdesc.isShared)
+                {
+                    return Value.NULL;
+                }
+                Value content = fdesc.streamFile(host.main, json -> {
+                    Value element = GSON.fromJson(json, Value.class);
+                    return element == null ? Value.NULL : element;
+                });
+                return content == null ? Value.NULL : content;
+            }
             if (fdesc.type == FileArgument.Type.NBT)
             {
                 Tag state = ((CarpetScriptHost) c.host).readFileTag(fdesc);
@@ -1052,6 +1073,61 @@ public class Auxiliary
             return BooleanValue.of(((CarpetScriptHost) c.host).writeTagFile(tagValue.getTag(), fdesc));
         });
 
+        expression.addContextFunction("kv_get", 1, (c, t, lv) ->
+        {
+            String stored = ((CarpetScriptHost) c.host).getKeyValueStore().get(lv.get(0).getString());
+            return stored == null ? Value.NULL : fromStoredJson(stored);
+        });
+
+        expression.addContextFunction("kv_put", 2, (c, t, lv) ->
+        {
+            String value = lv.get(1).toJson().toString();
+            try
+            {
+                ((CarpetScriptHost) c.host).getKeyValueStore().put(lv.get(0).getString(), value);
+            }
+            catch (IOException e)
+            {
+                CarpetScriptServer.LOG.warn("IOException when writing to key-value store", e);
+                throw new ThrowStatement("Unable to write to key-value store: " + e.getMessage(), Throwables.IO_EXCEPTION);
+            }
+            return Value.TRUE;
+        });
+
+        expression.addContextFunction("kv_delete", 1, (c, t, lv) ->
+        {
+            try
+            {
+                return BooleanValue.of(((CarpetScriptHost) c.host).getKeyValueStore().delete(lv.get(0).getString()));
+            }
+            catch (IOException e)
+            {
+                CarpetScriptServer.LOG.warn("IOException when writing to key-value store", e);
+                throw new ThrowStatement("Unable to write to key-value store: " + e.getMessage(), Throwables.IO_EXCEPTION);
+            }
+        });
+
+        expression.addContextFunction("kv_scan", -1, (c, t, lv) ->
+        {
+            if (lv.size() > 3)
+            {
+                throw new InternalExpressionException("'kv_scan' takes at most three arguments: from, to and limit");
+            }
+            String from = lv.size() > 0 && !lv.get(0).isNull() ? lv.get(0).getString() : null;
+            String to = lv.size() > 1 && !lv.get(1).isNull() ? lv.get(1).getString() : null;
+            int limit = lv.size() > 2 ? NumericValue.asNumber(lv.get(2), "limit").getInt() : Integer.MAX_VALUE;
+            if (limit < 0)
+            {
+                throw new InternalExpressionException("'kv_scan' limit cannot be negative");
+            }
+            List<Value> entries = new ArrayList<>();
+            for (Map.Entry<String, String> entry : ((CarpetScriptHost) c.host).getKeyValueStore().scan(from, to, limit))
+            {
+                entries.add(ListValue.of(StringValue.of(entry.getKey()), fromStoredJson(entry.getValue())));
+            }
+            return ListValue.wrap(entries);
+        });
+
         expression.addContextFunction("statistic", 3, (c, t, lv) ->
         {
             CarpetContext cc = (CarpetContext) c;
@@ -16,6 +16,7 @@ import carpet.script.value.Value;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 
+import jakarta.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -23,6 +24,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Predicate;
 
 import net.minecraft.commands.CommandSourceStack;
@@ -228,50 +231,84 @@ public class Entities
             return ListValue.wrap(retlist);
         });
 
-        expression.addContextFunction("query", -1, (c, t, lv) ->
+        expression.addBindableContextFunction("query", -1, (c, t, lv) ->
         {
-            if (lv.size() < 2)
+            EntityValue ev = targetEntity(lv, "query");
+            Value arg = featureArgument(lv);
+            if (lv.get(1) instanceof ListValue features)
             {
-                throw new InternalExpressionException("'query' takes entity as a first argument, and queried feature as a second");
+                List<Value> values = new ArrayList<>(features.length());
+                for (Value feature : features.getItems())
+                {
+                    values.add(ev.get(queriedFeature(c, feature), arg));
+                }
+                return ListValue.wrap(values);
             }
-            Value v = lv.get(0);
-            if (!(v instanceof final EntityValue ev))
+            return ev.get(queriedFeature(c, lv.get(1)), arg);
+        }, constants ->
+        {
+            // binding constant feature names to their accessors when the code is compiled
+            if (constants.size() < 2 || constants.get(1) == null)
             {
-                throw new InternalExpressionException("First argument to query should be an entity");
+                return null;
             }
-            String what = lv.get(1).getString().toLowerCase(Locale.ROOT);
-            if (what.equals("tags"))
+            boolean multiple = constants.get(1) instanceof ListValue;
+            List<Value> features = multiple ? ((ListValue) constants.get(1)).getItems() : List.of(constants.get(1));
+            int count = features.size();
+            String[] names = new String[count];
+            List<BiFunction<Entity, Value, Value>> accessors = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
             {
-                c.host.issueDeprecation("'tags' for entity querying");
+                names[i] = features.get(i).getString().toLowerCase(Locale.ROOT);
+                BiFunction<Entity, Value, Value> accessor = EntityValue.getAccessor(names[i]);
+                // unknown and deprecated features are reported when the call happens
+                if (accessor == null || names[i].equals("tags"))
+                {
+                    return null;
+                }
+                accessors.add(accessor);
             }
-            return switch (lv.size())
-                    {
-                        case 2 -> ev.get(what, null);
-                        case 3 -> ev.get(what, lv.get(2));
-                        default -> ev.get(what, ListValue.wrap(lv.subList(2, lv.size())));
-                    };
+            return (c, t, lv) ->
+            {
+                EntityValue ev = targetEntity(lv, "query");
+                Value arg = featureArgument(lv);
+                if (!multiple)
+                {
+                    return ev.get(accessors.get(0), names[0], arg);
+                }
+                List<Value> values = new ArrayList<>(count);
+                for (int i = 0; i < count; i++)
+                {
+                    values.add(ev.get(accessors.get(i), names[i], arg));
+                }
+                return ListValue.wrap(values);
+            };
         });
 
         // or update
-        expression.addContextFunction("modify", -1, (c, t, lv) ->
+        expression.addBindableContextFunction("modify", -1, (c, t, lv) ->
         {
-            if (lv.size() < 2)
+            EntityValue ev = targetEntity(lv, "modify");
+            ev.set(lv.get(1).getString(), featureArgument(lv));
+            return ev;
+        }, constants ->
+        {
+            if (constants.size() < 2 || constants.get(1) == null)
             {
-                throw new InternalExpressionException("'modify' takes entity as a first argument, and queried feature as a second");
+                return null;
             }
-            Value v = lv.get(0);
-            if (!(v instanceof final EntityValue ev))
+            String what = constants.get(1).getString();
+            BiConsumer<Entity, Value> modifier = EntityValue.getModifier(what);
+            if (modifier == null)
             {
-                throw new InternalExpressionException("First argument to modify should be an entity");
+                return null;
             }
-            String what = lv.get(1).getString();
-            switch (lv.size())
+            return (c, t, lv) ->
             {
-                case 2 -> ev.set(what, null);
-                case 3 -> ev.set(what, lv.get(2));
-                default -> ev.set(what, ListValue.wrap(lv.subList(2, lv.size())));
-            }
-            return v;
+                EntityValue ev = targetEntity(lv, "modify");
+                ev.set(modifier, what, featureArgument(lv));
+                return ev;
+            };
         });
 
         expression.addContextFunction("entity_types", -1, (c, t, lv) ->
@@ -341,4 +378,38 @@ public class Entities
             return Value.NULL;
         });
     }
+
+    private static EntityValue targetEntity(List<Value> lv, String function)
+    {
+        if (lv.size() < 2)
+        {
+            throw new InternalExpressionException("'" + function + "' takes entity as a first argument, and queried feature as a second");
+        }
+        if (!(lv.get(0) instanceof final EntityValue ev))
+        {
+            throw new InternalExpressionException("First argument to " + function + " should be an entity");
+        }
+        return ev;
+    }
+
+    private static String queriedFeature(Context c, Value feature)
+    {
+        String what = feature.getString().toLowerCase(Locale.ROOT);
+        if (what.equals("tags"))
+        {
+            c.host.issueDeprecation("'tags' for entity querying");
+        }
+        return what;
+    }
+
+    @Nullable
+    private static Value featureArgument(List<Value> lv)
+    {
+        return switch (lv.size())
+                {
+                    case 2 -> null;
+                    case 3 -> lv.get(2);
+                    default -> ListValue.wrap(lv.subList(2, lv.size()));
+                };
+    }
 }
@@ -15,6 +15,7 @@ import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.ThrowStatement;
 import carpet.script.exception.Throwables;
 import carpet.script.utils.BiomeInfo;
+import carpet.script.utils.BlockBatch;
 import carpet.script.utils.InputValidator;
 import carpet.script.utils.WorldTools;
 import carpet.script.value.BlockValue;
@@ -68,6 +69,7 @@ import net.minecraft.world.level.levelgen.structure.StructureType;
 import org.apache.commons.lang3.mutable.MutableBoolean;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -725,6 +727,141 @@ public class WorldAccess
             return (cc, tt) -> result[0];
         });
 
+        // lazy cause its parked execution
+        expression.addLazyFunction("block_batch", -1, (c, t, lv) ->
+        {
+            if (lv.isEmpty() || lv.size() > 2)
+            {
+                throw new InternalExpressionException("'block_batch' requires an expression and optional options map");
+            }
+            if (BlockBatch.current() != null)
+            {
+                return lv.get(0);
+            }
+            boolean updates = false;
+            boolean blockEntities = true;
+            if (lv.size() > 1)
+            {
+                if (!(lv.get(1).evalValue(c) instanceof final MapValue options))
+                {
+                    throw new InternalExpressionException("'block_batch' options should be a map");
+                }
+                for (Map.Entry<Value, Value> option : options.readOnlyMap().entrySet())
+                {
+                    switch (option.getKey().getString())
+                    {
+                        case "updates" -> updates = option.getValue().getBoolean();
+                        case "block_entities" -> blockEntities = option.getValue().getBoolean();
+                        default -> throw new InternalExpressionException("Unknown 'block_batch' option: " + option.getKey().getString());
+                    }
+                }
+            }
+            BlockBatch batch = new BlockBatch(updates, blockEntities);
+            Value[] result = new Value[]{Value.NULL};
+            ((CarpetContext) c).server().executeBlocking(() -> batch.run(() -> result[0] = lv.get(0).evalValue(c, t)));
+            return (cc, tt) -> result[0];
+        });
+
+        expression.addContextFunction("arena_capture", -1, (c, t, lv) ->
+        {
+            CarpetContext cc = (CarpetContext) c;
+            if (lv.size() < 3)
+            {
+                throw new InternalExpressionException("'arena_capture' requires a name and two positions");
+            }
+            String name = lv.get(0).getString();
+            if (!Carpet.isValidArenaName(name))
+            {
+                throw new InternalExpressionException("Invalid arena name: " + name);
+            }
+            BlockArgument from = BlockArgument.findIn(cc, lv, 1);
+            BlockArgument to = BlockArgument.findIn(cc, lv, from.offset);
+            boolean withEntities = lv.size() > to.offset && lv.get(to.offset).getBoolean();
+            int[] sections = new int[1];
+            cc.server().executeBlocking(() -> sections[0] = Carpet.captureArena(name, cc.level(), from.block.getPos(), to.block.getPos(), withEntities));
+            return NumericValue.of(sections[0]);
+        });
+
+        expression.addContextFunction("arena_restore", -1, (c, t, lv) ->
+        {
+            CarpetContext cc = (CarpetContext) c;
+            if (lv.isEmpty() || lv.size() > 2)
+            {
+                throw new InternalExpressionException("'arena_restore' requires a name and optional flag to restore all sections");
+            }
+            String name = lv.get(0).getString();
+            boolean all = lv.size() > 1 && lv.get(1).getBoolean();
+            int[] sections = new int[1];
+            cc.server().executeBlocking(() -> sections[0] = Carpet.restoreArena(cc.server(), name, all));
+            return sections[0] < 0 ? Value.NULL : NumericValue.of(sections[0]);
+        });
+
+        expression.addContextFunction("arena_info", -1, (c, t, lv) ->
+        {
+            Value[] info = new Value[1];
+            ((CarpetContext) c).server().executeBlocking(() -> info[0] = lv.isEmpty()
+                    ? ListValue.wrap(Carpet.getArenaNames().stream().map(n -> (Value) StringValue.of(n)))
+                    : Carpet.getArenaInfo(lv.get(0).getString()));
+            return info[0];
+        });
+
+        expression.addContextFunction("arena_remove", 1, (c, t, lv) ->
+        {
+            boolean[] removed = new boolean[1];
+            ((CarpetContext) c).server().executeBlocking(() -> removed[0] = Carpet.removeArena(lv.get(0).getString()));
+            return BooleanValue.of(removed[0]);
+        });
+
+        expression.addContextFunction("arena_save", 1, (c, t, lv) ->
+        {
+            CarpetContext cc = (CarpetContext) c;
+            String name = lv.get(0).getString();
+            boolean[] saved = new boolean[1];
+            String[] error = new String[1];
+            cc.server().executeBlocking(() -> {
+                try
+                {
+                    saved[0] = Carpet.saveArena(cc.server(), name);
+                }
+                catch (IOException e)
+                {
+                    error[0] = e.getMessage();
+                }
+            });
+            if (error[0] != null)
+            {
+                throw new ThrowStatement("Unable to save arena " + name + ": " + error[0], Throwables.IO_EXCEPTION);
+            }
+            return BooleanValue.of(saved[0]);
+        });
+
+        expression.addContextFunction("arena_load", 1, (c, t, lv) ->
+        {
+            CarpetContext cc = (CarpetContext) c;
+            String name = lv.get(0).getString();
+            if (!Carpet.isValidArenaName(name))
+            {
+                throw new InternalExpressionException("Invalid arena name: " + name);
+            }
+            boolean[] loaded = new boolean[1];
+            String[] error = new String[1];
+            cc.server().executeBlocking(() -> {
+                try
+                {
+                    loaded[0] = Carpet.loadArena(cc.server(), name);
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    error[0] = e.getMessage();
+                }
+            });
+            if (error[0] != null)
+            {
+                throw new ThrowStatement("Unable to load arena " + name + ": " + error[0], Throwables.IO_EXCEPTION);
+            }
+            return BooleanValue.of(loaded[0]);
+        });
+
         expression.addContextFunction("set", -1, (c, t, lv) ->
         {
             CarpetContext cc = (CarpetContext) c;
@@ -796,6 +933,17 @@ public class WorldAccess
             }
             BlockState finalSourceBlockState = sourceBlockState;
             BlockPos targetPos = targetLocator.block.getPos();
+            BlockBatch batch = BlockBatch.current();
+            if (batch != null)
+            {
+                boolean changed = batch.set(world, targetPos, finalSourceBlockState);
+                if (finalData != null && world.getBlockEntity(targetPos) instanceof final BlockEntity be)
+                {
+                    be.setChanged();
+                    changed = true;
+                }
+                return changed ? new BlockValue(finalSourceBlockState, world, targetPos) : Value.FALSE;
+            }
             Boolean[] result = new Boolean[]{true};
             cc.server().executeBlocking(() ->
             {
@@ -878,7 +1026,10 @@ public class WorldAccess
             {
                 return Value.FALSE;
             }
-            boolean removed = world.removeBlock(where, false);
+            BlockBatch batch = BlockBatch.current();
+            boolean removed = batch != null
+                    ? batch.set(world, where, world.getFluidState(where).createLegacyBlock())
+                    : world.removeBlock(where, false);
             if (!removed)
             {
                 return Value.FALSE;
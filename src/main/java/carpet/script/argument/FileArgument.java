@@ -7,12 +7,16 @@ import carpet.script.ScriptHost;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.ThrowStatement;
 import carpet.script.exception.Throwables;
+import carpet.script.utils.WriteBehindStorage;
+import carpet.script.value.LazyListValue;
 import carpet.script.value.MapValue;
 import carpet.script.value.StringValue;
 import carpet.script.value.Value;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import net.minecraft.ReportedException;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.NbtAccounter;
@@ -25,12 +29,13 @@ import org.apache.commons.lang3.tuple.Pair;
 import jakarta.annotation.Nullable;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
@@ -45,7 +50,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -61,8 +68,6 @@ public class FileArgument
     private Path zipPath;
     private final ScriptHost host;
 
-    public static final Object writeIOSync = new Object();
-
     public void close()
     {
         if (zfs != null && zfs.isOpen())
@@ -272,25 +277,51 @@ public class FileArgument
     }
 
 
-    public boolean findPathAndApply(Module module, Consumer<Path> action)
+    private WriteBehindStorage storage()
     {
-        try
+        return host.scriptServer().storage;
+    }
+
+    /**
+     * Zip containers are modified in place, so they are accessed directly, while holding the lock of the container file
+     */
+    @Nullable
+    private <T> T inZip(@Nullable Module module, @Nullable T missing, Function<Path, T> action)
+    {
+        if (!isShared && module == null)
         {
-            synchronized (writeIOSync)
+            return missing;
+        }
+        return storage().withLock(resolve(getDescriptor(module, zipContainer)), () -> {
+            try
             {
-                Path dataFile = toPath(module);//, resourceName, supportedTypes.get(type), isShared);
-                if (dataFile == null)
-                {
-                    return false;
-                }
+                Path dataFile = toPath(module);
+                return dataFile == null ? missing : action.apply(dataFile);
+            }
+            finally
+            {
+                close();
+            }
+        });
+    }
+
+    public boolean findPathAndApply(Module module, Consumer<Path> action)
+    {
+        if (zipContainer != null)
+        {
+            return inZip(module, false, dataFile -> {
                 createPaths(dataFile);
                 action.accept(dataFile);
-            }
+                return true;
+            });
         }
-        finally
+        Path dataFile = toPath(module);//, resourceName, supportedTypes.get(type), isShared);
+        if (dataFile == null)
         {
-            close();
+            return false;
         }
+        createPaths(dataFile);
+        storage().withFile(dataFile, action);
         return true;
     }
 
@@ -320,29 +351,24 @@ public class FileArgument
     public Stream<String> listFolder(Module module)
     {
         Stream<String> strings;
-        try (Stream<Path> result = listFiles(module))
+        if (zipContainer != null)
         {
-            synchronized (writeIOSync)
+            strings = inZip(module, null, dir -> listRelative(module));
+        }
+        else
+        {
+            Path dir = toPath(module);
+            if (dir == null)
             {
-                if (result == null)
-                {
-                    return null;
-                }
-                Path rootPath = moduleRootPath(module);
-                if (rootPath == null)
-                {
-                    return null;
-                }
-                String zipComponent = (zipContainer != null) ? rootPath.relativize(zipPath).toString() : null;
-                // need to evaluate the stream before exiting try-with-resources else there'll be no data to stream
-                strings = (zipContainer == null)
-                        ? result.map(p -> rootPath.relativize(p).toString().replaceAll("[\\\\/]+", "/")).toList().stream()
-                        : result.map(p -> (zipComponent + '/' + p.toString()).replaceAll("[\\\\/]+", "/")).toList().stream();
+                return null;
             }
+            // files written recently need to be on disk to be listed
+            storage().flush(dir);
+            strings = listRelative(module);
         }
-        finally
+        if (strings == null)
         {
-            close();
+            return null;
         }
         // java 8 paths are inconsistent. in java 16 they all should not have trailing slashes
         return type == Type.FOLDER
@@ -350,6 +376,32 @@ public class FileArgument
                 : strings.map(FilenameUtils::removeExtension);
     }
 
+    @Nullable
+    private Stream<String> listRelative(Module module)
+    {
+        try (Stream<Path> result = listFiles(module))
+        {
+            if (result == null)
+            {
+                return null;
+            }
+            Path rootPath = moduleRootPath(module);
+            if (rootPath == null)
+            {
+                return null;
+            }
+            String zipComponent = (zipContainer != null) ? rootPath.relativize(zipPath).toString() : null;
+            // need to evaluate the stream before exiting try-with-resources else there'll be no data to stream
+            return (zipContainer == null)
+                    ? result.map(p -> rootPath.relativize(p).toString().replaceAll("[\\\\/]+", "/")).toList().stream()
+                    : result.map(p -> (zipComponent + '/' + p.toString()).replaceAll("[\\\\/]+", "/")).toList().stream();
+        }
+        finally
+        {
+            close();
+        }
+    }
+
     private void createPaths(Path file)
     {
         try
@@ -371,87 +423,99 @@ public class FileArgument
 
     public boolean appendToTextFile(Module module, List<String> message)
     {
-        try
+        StringBuilder builder = new StringBuilder();
+        for (String line : message)
         {
-            synchronized (writeIOSync)
+            builder.append(line);
+            if (type == Type.TEXT)
             {
-                Path dataFile = toPath(module);
-                if (dataFile == null)
+                builder.append(System.lineSeparator());
+            }
+        }
+        byte[] content = builder.toString().getBytes(StandardCharsets.UTF_8);
+        if (zipContainer != null)
+        {
+            return inZip(module, false, dataFile -> {
+                createPaths(dataFile);
+                try
                 {
-                    return false;
+                    Files.write(dataFile, content, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
                 }
-                createPaths(dataFile);
-                OutputStream out = Files.newOutputStream(dataFile, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
-                try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))
+                catch (IOException e)
                 {
-                    for (String line : message)
-                    {
-                        writer.append(line);
-                        if (type == Type.TEXT)
-                        {
-                            writer.newLine();
-                        }
-                    }
+                    CarpetScriptServer.LOG.warn("IOException when appending to text file", e);
+                    throw new ThrowStatement("Error when writing to the file: " + e, Throwables.IO_EXCEPTION);
                 }
-            }
+                return true;
+            });
         }
-        catch (IOException e)
+        Path dataFile = toPath(module);
+        if (dataFile == null)
         {
-            CarpetScriptServer.LOG.warn("IOException when appending to text file", e);
-            throw new ThrowStatement("Error when writing to the file: " + e, Throwables.IO_EXCEPTION);
-        }
-        finally
-        {
-            close();
+            return false;
         }
+        storage().append(dataFile, content);
         return true;
     }
 
     @Nullable
     public Tag getNbtData(Module module) // aka getData
+    {
+        if (zipContainer != null)
+        {
+            return inZip(module, null, dataFile -> Files.exists(dataFile) ? readTag(dataFile) : null);
+        }
+        Path dataFile = toPath(module);
+        if (dataFile == null)
+        {
+            return null;
+        }
+        return readStored(storage(), dataFile, source -> readTag(source, dataFile));
+    }
+
+    /**
+     * Reads a file through the storage, reporting I/O errors to the script
+     */
+    @Nullable
+    public static <T> T readStored(WriteBehindStorage storage, Path dataFile, WriteBehindStorage.Reader<T> reader)
     {
         try
         {
-            synchronized (writeIOSync)
-            {
-                Path dataFile = toPath(module);
-                if (dataFile == null || !Files.exists(dataFile))
-                {
-                    return null;
-                }
-                return readTag(dataFile);
-            }
+            return storage.read(dataFile, reader);
         }
-        finally
+        catch (IOException e)
         {
-            close();
+            CarpetScriptServer.LOG.warn("IOException when reading file", e);
+            throw new ThrowStatement("Failed to read file " + dataFile, Throwables.IO_EXCEPTION);
         }
     }
 
+    @Nullable
+    public static Tag readTag(Path path)
+    {
+        return readTag(() -> Files.newInputStream(path), path);
+    }
+
     //copied private method from net.minecraft.nbt.NbtIo.read()
     // to read non-compound tags - these won't be compressed
     @Nullable
-    public static Tag readTag(Path path)
+    public static Tag readTag(WriteBehindStorage.Source source, Path path)
     {
-        try
+        try (InputStream stream = source.open())
         {
-            return NbtIo.readCompressed(Files.newInputStream(path), NbtAccounter.unlimitedHeap());
+            return NbtIo.readCompressed(stream, NbtAccounter.unlimitedHeap());
         }
         catch (IOException e)
         {
             // Copy of NbtIo.read(File) because that's now client-side only
-            if (!Files.exists(path))
-            {
-                return null;
-            }
-            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path))))
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(source.open())))
             {
                 return NbtIo.read(in);
             }
             catch (IOException ioException)
             {
                 // not compressed compound tag neither uncompressed compound tag - trying any type of a tag
-                try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path))))
+                try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(source.open())))
                 {
                     byte b = dataInputStream.readByte();
                     if (b == 0)
@@ -466,6 +530,10 @@ public class FileArgument
                 }
                 catch (IOException secondIO)
                 {
+                    if (!Files.exists(path))
+                    {
+                        return null;
+                    }
                     CarpetScriptServer.LOG.warn("IOException when trying to read nbt file, something may have gone wrong with the fs", e);
                     CarpetScriptServer.LOG.warn("", ioException);
                     CarpetScriptServer.LOG.warn("", secondIO);
@@ -480,24 +548,57 @@ public class FileArgument
     }
 
     public boolean saveNbtData(Module module, Tag tag) // aka saveData
+    {
+        if (zipContainer != null)
+        {
+            return inZip(module, false, dataFile -> {
+                createPaths(dataFile);
+                return writeTagDisk(tag, dataFile, true);
+            });
+        }
+        Path dataFile = toPath(module);
+        if (dataFile == null)
+        {
+            return false;
+        }
+        storage().write(dataFile, serializeTag(tag, dataFile));
+        return true;
+    }
+
+    //copied private method from net.minecraft.nbt.NbtIo.write()
+    public static byte[] serializeTag(Tag tag, Path path)
     {
         try
         {
-            synchronized (writeIOSync)
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeTag(tag, bytes);
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            CarpetScriptServer.LOG.warn("IO Exception when serializing nbt", e);
+            throw new ThrowStatement("Unable to write tag to " + path, Throwables.IO_EXCEPTION);
+        }
+    }
+
+    private static void writeTag(Tag tag, OutputStream out) throws IOException
+    {
+        if (tag instanceof final CompoundTag cTag)
+        {
+            NbtIo.writeCompressed(cTag, out);
+        }
+        else
+        {
+            try (DataOutputStream dataOutputStream = new DataOutputStream(out))
             {
-                Path dataFile = toPath(module);
-                if (dataFile == null)
+                dataOutputStream.writeByte(tag.getId());
+                if (tag.getId() != 0)
                 {
-                    return false;
+                    dataOutputStream.writeUTF("");
+                    tag.write(dataOutputStream);
                 }
-                createPaths(dataFile);
-                return writeTagDisk(tag, dataFile, zipContainer != null);
             }
         }
-        finally
-        {
-            close();
-        }
     }
 
     //copied private method from net.minecraft.nbt.NbtIo.write() and client method safe_write
@@ -511,23 +612,7 @@ public class FileArgument
                 path = path.getParent().resolve(path.getFileName() + "_tmp");
                 Files.deleteIfExists(path);
             }
-
-            if (tag instanceof final CompoundTag cTag)
-            {
-                NbtIo.writeCompressed(cTag, Files.newOutputStream(path));
-            }
-            else
-            {
-                try (DataOutputStream dataOutputStream = new DataOutputStream(Files.newOutputStream(path)))
-                {
-                    dataOutputStream.writeByte(tag.getId());
-                    if (tag.getId() != 0)
-                    {
-                        dataOutputStream.writeUTF("");
-                        tag.write(dataOutputStream);
-                    }
-                }
-            }
+            writeTag(tag, Files.newOutputStream(path));
             if (!zipped)
             {
                 Files.deleteIfExists(original);
@@ -544,57 +629,51 @@ public class FileArgument
 
     public boolean dropExistingFile(Module module)
     {
-        try
+        if (zipContainer != null)
         {
-            synchronized (writeIOSync)
-            {
-                Path dataFile = toPath(module);
-                if (dataFile == null)
+            return inZip(module, false, dataFile -> {
+                try
                 {
-                    return false;
+                    return Files.deleteIfExists(dataFile);
                 }
-                return Files.deleteIfExists(dataFile);
-            }
-        }
-        catch (IOException e)
-        {
-            CarpetScriptServer.LOG.warn("IOException when removing file", e);
-            throw new ThrowStatement("Error while removing file: " + getDisplayPath(), Throwables.IO_EXCEPTION);
+                catch (IOException e)
+                {
+                    CarpetScriptServer.LOG.warn("IOException when removing file", e);
+                    throw new ThrowStatement("Error while removing file: " + getDisplayPath(), Throwables.IO_EXCEPTION);
+                }
+            });
         }
-        finally
+        Path dataFile = toPath(module);
+        if (dataFile == null)
         {
-            close();
+            return false;
         }
+        return storage().delete(dataFile);
     }
 
     @Nullable
     public List<String> listFile(Module module)
     {
-        try
+        if (zipContainer != null)
         {
-            synchronized (writeIOSync)
-            {
-                Path dataFile = toPath(module);
-                if (dataFile == null)
-                {
-                    return null;
-                }
-                if (!Files.exists(dataFile))
-                {
-                    return null;
-                }
-                return listFileContent(dataFile);
-            }
+            return inZip(module, null, dataFile -> Files.exists(dataFile) ? listFileContent(dataFile) : null);
         }
-        finally
+        Path dataFile = toPath(module);
+        if (dataFile == null)
         {
-            close();
+            return null;
         }
+        return readStored(storage(), dataFile, source -> listFileContent(source, dataFile));
     }
 
     public static List<String> listFileContent(Path filePath)
     {
-        try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8))
+        return listFileContent(() -> Files.newInputStream(filePath), filePath);
+    }
+
+    public static List<String> listFileContent(WriteBehindStorage.Source source, Path filePath)
+    {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(source.open(), StandardCharsets.UTF_8)))
         {
             List<String> result = new ArrayList<>();
             for (; ; )
@@ -615,30 +694,191 @@ public class FileArgument
         }
     }
 
+    /**
+     * Reads lines of a text file, or elements of the top level array of a JSON file, one at a time,
+     * so only the current element is kept in memory. Iterating again reopens the file and reads it from the start.
+     * Files in zip containers are not supported, as the container would need to stay open.
+     *
+     * @return iterator over file content, or null if the file doesn't exist
+     */
     @Nullable
-    public JsonElement readJsonFile(Module module)
+    public LazyListValue streamFile(Module module, Function<JsonElement, Value> jsonConverter)
     {
-        try
+        if (zipContainer != null)
         {
-            synchronized (writeIOSync)
+            throw new InternalExpressionException("Files in zip containers cannot be read lazily");
+        }
+        if (type != Type.TEXT && type != Type.RAW && type != Type.JSON)
+        {
+            throw new InternalExpressionException("Only text and json files can be read lazily");
+        }
+        Path dataFile = toPath(module);
+        WriteBehindStorage storage = storage();
+        if (dataFile == null || !storage.exists(dataFile))
+        {
+            return null;
+        }
+        String displayPath = getDisplayPath();
+        return new LazyListValue()
+        {
+            @Nullable
+            private BufferedReader reader;
+            @Nullable
+            private JsonReader jsonReader;
+            @Nullable
+            private Value lookahead;
+            private boolean finished;
+
+            private void open() throws IOException
             {
-                Path dataFile = toPath(module);
-                if (dataFile == null || !Files.exists(dataFile))
+                // pending writes need to be on disk before reading it directly
+                storage.flush(dataFile);
+                if (!Files.isRegularFile(dataFile))
+                {
+                    finished = true;
+                    return;
+                }
+                reader = Files.newBufferedReader(dataFile, StandardCharsets.UTF_8);
+                if (type == Type.JSON)
+                {
+                    jsonReader = new JsonReader(reader);
+                    if (jsonReader.peek() != JsonToken.BEGIN_ARRAY)
+                    {
+                        throw new JsonParseException("Expected top level array to read the file lazily");
+                    }
+                    jsonReader.beginArray();
+                }
+            }
+
+            private void advance()
+            {
+                if (lookahead != null || finished)
+                {
+                    return;
+                }
+                try
+                {
+                    if (reader == null)
+                    {
+                        open();
+                        if (finished)
+                        {
+                            return;
+                        }
+                    }
+                    if (jsonReader != null)
+                    {
+                        if (jsonReader.hasNext())
+                        {
+                            lookahead = jsonConverter.apply(JsonParser.parseReader(jsonReader));
+                            return;
+                        }
+                    }
+                    else
+                    {
+                        String line = reader.readLine();
+                        if (line != null)
+                        {
+                            lookahead = new StringValue(line);
+                            return;
+                        }
+                    }
+                    finished = true;
+                    closeReader();
+                }
+                catch (JsonParseException | IllegalStateException e)
                 {
-                    return null;
+                    closeReader();
+                    finished = true;
+                    throw new ThrowStatement(MapValue.wrap(Map.of(
+                            StringValue.of("error"), StringValue.of(e.getCause() != null ? e.getCause().getMessage() : e.getMessage()),
+                            StringValue.of("path"), StringValue.of(displayPath)
+                    )), Throwables.JSON_ERROR);
+                }
+                catch (IOException e)
+                {
+                    closeReader();
+                    finished = true;
+                    CarpetScriptServer.LOG.warn("IOException when reading file", e);
+                    throw new ThrowStatement("Failed to read file " + displayPath, Throwables.IO_EXCEPTION);
                 }
-                return readJsonContent(dataFile);
             }
+
+            private void closeReader()
+            {
+                if (reader != null)
+                {
+                    try
+                    {
+                        reader.close();
+                    }
+                    catch (IOException ignored)
+                    {
+                    }
+                }
+                reader = null;
+                jsonReader = null;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                advance();
+                return lookahead != null;
+            }
+
+            @Override
+            public Value next()
+            {
+                advance();
+                if (lookahead == null)
+                {
+                    throw new NoSuchElementException();
+                }
+                Value value = lookahead;
+                lookahead = null;
+                return value;
+            }
+
+            @Override
+            public void reset()
+            {
+                closeReader();
+                lookahead = null;
+                finished = false;
+            }
+
+            @Override
+            public String getString()
+            {
+                return "<" + displayPath + ">";
+            }
+        };
+    }
+
+    @Nullable
+    public JsonElement readJsonFile(Module module)
+    {
+        if (zipContainer != null)
+        {
+            return inZip(module, null, dataFile -> Files.exists(dataFile) ? readJsonContent(dataFile) : null);
         }
-        finally
+        Path dataFile = toPath(module);
+        if (dataFile == null)
         {
-            close();
+            return null;
         }
+        return readStored(storage(), dataFile, source -> readJsonContent(source, dataFile));
     }
 
     public static JsonElement readJsonContent(Path filePath)
     {
-        try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8))
+        return readJsonContent(() -> Files.newInputStream(filePath), filePath);
+    }
+
+    public static JsonElement readJsonContent(WriteBehindStorage.Source source, Path filePath)
+    {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(source.open(), StandardCharsets.UTF_8)))
         {
             return JsonParser.parseReader(reader);
         }
@@ -5,6 +5,8 @@ import carpet.CarpetSettings;
 import carpet.api.settings.CarpetRule;
 import carpet.api.settings.RuleHelper;
 import carpet.api.settings.SettingsManager;
+import carpet.helpers.ArenaManager;
+import carpet.helpers.ArenaSnapshot;
 import carpet.logging.HUDController;
 import carpet.network.ServerNetworkHandler;
 import carpet.patches.EntityPlayerMPFake;
@@ -15,9 +17,14 @@ import carpet.script.CarpetScriptServer;
 import carpet.script.Module;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.LoadException;
+import carpet.script.value.BooleanValue;
 import carpet.script.value.MapValue;
+import carpet.script.value.NumericValue;
 import carpet.script.value.StringValue;
+import carpet.script.value.Value;
+import carpet.script.value.ValueConversions;
 import carpet.utils.CarpetProfiler;
+import carpet.utils.LagSpikeDetector;
 import carpet.utils.Messenger;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.loader.api.FabricLoader;
@@ -27,10 +34,13 @@ import net.fabricmc.loader.api.Version;
 import net.fabricmc.loader.api.VersionParsingException;
 import net.fabricmc.loader.api.metadata.version.VersionPredicate;
 import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.core.BlockPos;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.Level;
 
 import jakarta.annotation.Nullable;
 import java.io.IOException;
@@ -40,6 +50,7 @@ import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -84,6 +95,11 @@ public class Carpet
         return () -> CarpetProfiler.end_current_section(token);
     }
 
+    public static Runnable startAppSection(String app)
+    {
+        return LagSpikeDetector.enterApp(app);
+    }
+
     public static void MinecraftServer_addScriptServer(MinecraftServer server, CarpetScriptServer scriptServer)
     {
         // Store in CarpetServer static field directly
@@ -141,6 +157,94 @@ public class Carpet
         return CarpetSettings.fillUpdates;
     }
 
+    public static int getParticleBudget()
+    {
+        return CarpetSettings.scarpetParticleBudget;
+    }
+
+    public static int getAppTickBudget()
+    {
+        return CarpetSettings.scarpetAppTickBudget;
+    }
+
+    public static boolean isValidArenaName(String name)
+    {
+        return ArenaManager.isValidName(name);
+    }
+
+    /**
+     * @return number of captured sections
+     */
+    public static int captureArena(String name, ServerLevel level, BlockPos from, BlockPos to, boolean withEntities)
+    {
+        return ArenaManager.capture(name, level, from, to, withEntities).sectionCount();
+    }
+
+    /**
+     * @return number of restored sections, or -1 if there is no such arena
+     */
+    public static int restoreArena(MinecraftServer server, String name, boolean all)
+    {
+        ArenaSnapshot arena = ArenaManager.get(name);
+        return arena == null ? -1 : ArenaManager.restore(server, arena, all);
+    }
+
+    public static List<String> getArenaNames()
+    {
+        return ArenaManager.all().stream().map(arena -> arena.name).toList();
+    }
+
+    @Nullable
+    public static MapValue getArenaInfo(String name)
+    {
+        ArenaSnapshot arena = ArenaManager.get(name);
+        if (arena == null)
+        {
+            return null;
+        }
+        Map<Value, Value> info = new HashMap<>();
+        info.put(StringValue.of("dimension"), ValueConversions.of(arena.dimension));
+        info.put(StringValue.of("from"), ValueConversions.of(new BlockPos(arena.box.minX(), arena.box.minY(), arena.box.minZ())));
+        info.put(StringValue.of("to"), ValueConversions.of(new BlockPos(arena.box.maxX(), arena.box.maxY(), arena.box.maxZ())));
+        info.put(StringValue.of("sections"), NumericValue.of(arena.sectionCount()));
+        info.put(StringValue.of("changed"), NumericValue.of(arena.dirtyCount()));
+        info.put(StringValue.of("entities"), arena.withEntities ? NumericValue.of(arena.entityCount()) : Value.NULL);
+        info.put(StringValue.of("restoring"), BooleanValue.of(ArenaManager.isRestoring(arena)));
+        return MapValue.wrap(info);
+    }
+
+    public static boolean removeArena(String name)
+    {
+        return ArenaManager.remove(name);
+    }
+
+    /**
+     * @return false if there is no such arena
+     */
+    public static boolean saveArena(MinecraftServer server, String name) throws IOException
+    {
+        ArenaSnapshot arena = ArenaManager.get(name);
+        if (arena == null)
+        {
+            return false;
+        }
+        ArenaManager.save(server, arena);
+        return true;
+    }
+
+    /**
+     * @return false if there is no saved arena with that name
+     */
+    public static boolean loadArena(MinecraftServer server, String name) throws IOException
+    {
+        return ArenaManager.load(server, name) != null;
+    }
+
+    public static void onArenaBlockChanged(Level level, BlockPos pos)
+    {
+        ArenaManager.onBlockChanged(level, pos);
+    }
+
     @Nullable
     public static Module fetchGlobalModule(String name, boolean allowLibraries) throws IOException
     {
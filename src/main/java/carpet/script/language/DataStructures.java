@@ -173,19 +173,19 @@ public class DataStructures
 
         expression.addUnaryFunction("keys", v ->
                 v instanceof final MapValue map
-                        ? new ListValue(map.getMap().keySet())
+                        ? new ListValue(map.readOnlyMap().keySet())
                         : Value.NULL
         );
 
         expression.addUnaryFunction("values", v ->
                 v instanceof final MapValue map
-                        ? new ListValue(map.getMap().values())
+                        ? new ListValue(map.readOnlyMap().values())
                         : Value.NULL
         );
 
         expression.addUnaryFunction("pairs", v ->
                 v instanceof final MapValue map
-                        ? ListValue.wrap(map.getMap().entrySet().stream().map(p -> ListValue.of(p.getKey(), p.getValue())))
+                        ? ListValue.wrap(map.readOnlyMap().entrySet().stream().map(p -> ListValue.of(p.getKey(), p.getValue())))
                         : Value.NULL);
 
         expression.addBinaryContextOperator(":", "element",  Operators.precedence.get("attribute~:"), true, true, false, (ctx, t, container, address) ->
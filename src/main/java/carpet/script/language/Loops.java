@@ -2,21 +2,35 @@ package carpet.script.language;
 
 import carpet.script.Context;
 import carpet.script.Expression;
+import carpet.script.Fluff.TriFunction;
 import carpet.script.LazyValue;
+import carpet.script.Token;
 import carpet.script.exception.BreakStatement;
 import carpet.script.exception.ContinueStatement;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.utils.TickBudget;
 import carpet.script.value.AbstractListValue;
 import carpet.script.value.ListValue;
 import carpet.script.value.NumericValue;
 import carpet.script.value.Value;
 
+import jakarta.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Loops
 {
+    // lists shorter than that are not worth spreading over threads
+    private static final int PARALLEL_THRESHOLD = 256;
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static ForkJoinPool parallelPool = null;
+
     public static void apply(Expression expression)
     {
         // condition and expression will get a bound '_i'
@@ -61,6 +75,7 @@ public class Loops
                 c.setVariable("_", (cc, tt) -> new NumericValue(0).bindTo("_"));
                 while (condition.evalValue(c, Context.BOOLEAN).getBoolean())
                 {
+                    TickBudget.check();
                     try
                     {
                         lastOne = expr.evalValue(c, t);
@@ -95,6 +110,7 @@ public class Loops
             c.setVariable("_", (cc, tt) -> new NumericValue(0).bindTo("_"));
             while (i < limit && condition.evalValue(c, Context.BOOLEAN).getBoolean())
             {
+                TickBudget.check();
                 try
                 {
                     lastOne = expr.evalValue(c, t);
@@ -131,6 +147,7 @@ public class Loops
             LazyValue defaultVal = c.getVariable("_");
             for (long i = 0; i < limit; i++)
             {
+                TickBudget.check();
                 long whyYouAsk = i;
                 c.setVariable("_", (cc, tt) -> new NumericValue(whyYouAsk).bindTo("_"));
                 try
@@ -157,7 +174,7 @@ public class Loops
 
         // map(list or Num, expr) => list_results
         // receives bounded variable '_' with the expression
-        expression.addLazyFunction("map", 2, (c, t, lv) ->
+        TriFunction<Context, Context.Type, List<LazyValue>, LazyValue> map = (c, t, lv) ->
         {
             Value rval = lv.get(0).evalValue(c, Context.NONE);
             if (rval.isNull())
@@ -176,6 +193,7 @@ public class Loops
             List<Value> result = new ArrayList<>();
             for (int i = 0; iterator.hasNext(); i++)
             {
+                TickBudget.check();
                 Value next = iterator.next();
                 if(next == Value.EOL) {
                     continue;
@@ -209,12 +227,13 @@ public class Loops
             c.setVariable("_", defaultVal);
             c.setVariable("_i", iterVal);
             return (cc, tt) -> ret;
-        });
+        };
+        expression.addLazyFunction("map", 2, map);
 
         // grep(list or num, expr) => list
         // receives bounded variable '_' with the expression, and "_i" with index
         // produces list of values for which the expression is true
-        expression.addLazyFunction("filter", 2, (c, t, lv) ->
+        TriFunction<Context, Context.Type, List<LazyValue>, LazyValue> filter = (c, t, lv) ->
         {
             Value rval = lv.get(0).evalValue(c, Context.NONE);
             if (rval.isNull())
@@ -233,6 +252,7 @@ public class Loops
             List<Value> result = new ArrayList<>();
             for (int i = 0; iterator.hasNext(); i++)
             {
+                TickBudget.check();
                 Value next = iterator.next();
                 if(next == Value.EOL) {
                     continue;
@@ -269,7 +289,8 @@ public class Loops
             c.setVariable("_", defaultVal);
             c.setVariable("_i", iterVal);
             return (cc, tt) -> ret;
-        });
+        };
+        expression.addLazyFunction("filter", 2, filter);
 
         // first(list, expr) => elem or null
         // receives bounded variable '_' with the expression, and "_i" with index
@@ -293,6 +314,7 @@ public class Loops
             Value result = Value.NULL;
             for (int i = 0; iterator.hasNext(); i++)
             {
+                TickBudget.check();
                 Value next = iterator.next();
                 if(next == Value.EOL) {
                     continue;
@@ -353,6 +375,7 @@ public class Loops
             LazyValue result = LazyValue.TRUE;
             for (int i = 0; iterator.hasNext(); i++)
             {
+                TickBudget.check();
                 Value next = iterator.next();
                 if(next == Value.EOL) {
                     continue;
@@ -387,6 +410,7 @@ public class Loops
             int iterations = 0;
             for (initial.evalValue(c, Context.VOID); condition.evalValue(c, Context.BOOLEAN).getBoolean(); increment.evalValue(c, Context.VOID))
             {
+                TickBudget.check();
                 try
                 {
                     body.evalValue(c, Context.VOID);
@@ -426,6 +450,7 @@ public class Loops
             int successCount = 0;
             for (int i = 0; iterator.hasNext(); i++)
             {
+                TickBudget.check();
                 Value next = iterator.next();
                 if(next == Value.EOL) {
                     continue;
@@ -471,7 +496,7 @@ public class Loops
         // reduces values in the list with expression that gets accumulator
         // each iteration expr receives acc - accumulator, and '_' - current list value
         // returned value is substituted to the accumulator
-        expression.addLazyFunction("reduce", 3, (c, t, lv) ->
+        TriFunction<Context, Context.Type, List<LazyValue>, LazyValue> reduce = (c, t, lv) ->
         {
 
             Value rval = lv.get(0).evalValue(c, Context.NONE);
@@ -500,6 +525,7 @@ public class Loops
 
             for (int i = 0; iterator.hasNext(); i++)
             {
+                TickBudget.check();
                 Value next = iterator.next();
                 if(next == Value.EOL) {
                     continue;
@@ -537,6 +563,229 @@ public class Loops
 
             Value hopeItsEnoughPromise = acc;
             return (cc, tt) -> hopeItsEnoughPromise;
+        };
+        expression.addLazyFunction("reduce", 3, reduce);
+
+        // pmap(list, expr) => list_results
+        // same as map, but if expr is pure, large lists are processed in parallel
+        expression.addLazyFunctionWithDelegation("pmap", 2, false, false, (c, t, e, tok, lv) ->
+        {
+            if (!canRunInParallel(e, tok, 1))
+            {
+                return map.apply(c, t, lv);
+            }
+            List<Value> items = listArgument(c, lv.get(0), "pmap");
+            if (items == null)
+            {
+                return ListValue.lazyEmpty();
+            }
+            if (items.size() < PARALLEL_THRESHOLD)
+            {
+                return map.apply(c, t, List.of((cc, tt) -> ListValue.wrap(items), lv.get(1)));
+            }
+            LazyValue expr = lv.get(1);
+            Value[] results = new Value[items.size()];
+            runInChunks(c, items.size(), (ctx, from, to) -> {
+                for (int i = from; i < to; i++)
+                {
+                    bindIteration(ctx, items.get(i), i);
+                    results[i] = expr.evalValue(ctx, t);
+                }
+                return null;
+            });
+            Value ret = ListValue.wrap(Arrays.asList(results));
+            return (cc, tt) -> ret;
         });
+
+        // pfilter(list, expr) => list
+        // same as filter, but if expr is pure, large lists are processed in parallel
+        expression.addLazyFunctionWithDelegation("pfilter", 2, false, false, (c, t, e, tok, lv) ->
+        {
+            if (!canRunInParallel(e, tok, 1))
+            {
+                return filter.apply(c, t, lv);
+            }
+            List<Value> items = listArgument(c, lv.get(0), "pfilter");
+            if (items == null)
+            {
+                return ListValue.lazyEmpty();
+            }
+            if (items.size() < PARALLEL_THRESHOLD)
+            {
+                return filter.apply(c, t, List.of((cc, tt) -> ListValue.wrap(items), lv.get(1)));
+            }
+            LazyValue expr = lv.get(1);
+            boolean[] matches = new boolean[items.size()];
+            runInChunks(c, items.size(), (ctx, from, to) -> {
+                for (int i = from; i < to; i++)
+                {
+                    bindIteration(ctx, items.get(i), i);
+                    matches[i] = expr.evalValue(ctx, Context.BOOLEAN).getBoolean();
+                }
+                return null;
+            });
+            List<Value> result = new ArrayList<>();
+            for (int i = 0; i < matches.length; i++)
+            {
+                if (matches[i])
+                {
+                    result.add(items.get(i));
+                }
+            }
+            Value ret = ListValue.wrap(result);
+            return (cc, tt) -> ret;
+        });
+
+        // preduce(list, expr, initial) => value
+        // same as reduce, but if expr is pure, large lists are reduced in parallel chunks, which results are
+        // then reduced with the same expression, so it needs to be associative, like _a+_ or max(_a, _)
+        expression.addLazyFunctionWithDelegation("preduce", 3, false, false, (c, t, e, tok, lv) ->
+        {
+            if (!canRunInParallel(e, tok, 1))
+            {
+                return reduce.apply(c, t, lv);
+            }
+            List<Value> items = listArgument(c, lv.get(0), "preduce");
+            if (items == null)
+            {
+                return ListValue.lazyEmpty();
+            }
+            if (items.size() < PARALLEL_THRESHOLD)
+            {
+                return reduce.apply(c, t, List.of((cc, tt) -> ListValue.wrap(items), lv.get(1), lv.get(2)));
+            }
+            LazyValue expr = lv.get(1);
+            Value initial = lv.get(2).evalValue(c, Context.NONE);
+            List<Value> partials = runInChunks(c, items.size(), (ctx, from, to) -> {
+                // first chunk continues from the initial value, others start from their first element
+                Value acc = from == 0 ? initial : items.get(from);
+                for (int i = from == 0 ? 0 : from + 1; i < to; i++)
+                {
+                    Value accumulated = acc;
+                    ctx.setVariable("_a", (cc, tt) -> accumulated.bindTo("_a"));
+                    bindIteration(ctx, items.get(i), i);
+                    acc = expr.evalValue(ctx, t);
+                }
+                return acc;
+            });
+            Context ctx = forkContext(c);
+            Value acc = partials.get(0);
+            for (int i = 1; i < partials.size(); i++)
+            {
+                Value accumulated = acc;
+                ctx.setVariable("_a", (cc, tt) -> accumulated.bindTo("_a"));
+                bindIteration(ctx, partials.get(i), i);
+                acc = expr.evalValue(ctx, t);
+            }
+            Value ret = acc;
+            return (cc, tt) -> ret;
+        });
+    }
+
+    @FunctionalInterface
+    private interface ChunkTask<T>
+    {
+        T run(Context ctx, int from, int to);
+    }
+
+    private static boolean canRunInParallel(Expression expression, Token token, int bodyArg)
+    {
+        Expression.ExpressionNode node = token.node;
+        // function could also be called indirectly, without a compiled call site
+        return node != null && node.token == token && node.args.size() > bodyArg && expression.isParallelizable(node.args.get(bodyArg));
+    }
+
+    @Nullable
+    private static List<Value> listArgument(Context c, LazyValue arg, String name)
+    {
+        Value rval = arg.evalValue(c, Context.NONE);
+        if (rval.isNull())
+        {
+            return null;
+        }
+        if (!(rval instanceof final AbstractListValue alv))
+        {
+            throw new InternalExpressionException("First argument of '" + name + "' function should be a list or iterator");
+        }
+        List<Value> items = new ArrayList<>();
+        for (Iterator<Value> iterator = alv.iterator(); iterator.hasNext(); )
+        {
+            Value next = iterator.next();
+            if (next != Value.EOL)
+            {
+                items.add(next);
+            }
+        }
+        alv.fatality();
+        return items;
+    }
+
+    private static void bindIteration(Context ctx, Value element, int index)
+    {
+        ctx.setVariable("_", (cc, tt) -> element);
+        ctx.setVariable("_i", (cc, tt) -> new NumericValue(index).bindTo("_i"));
+    }
+
+    /**
+     * Copy of the context for a worker thread, sharing outer variables, but with own loop variables
+     */
+    private static Context forkContext(Context c)
+    {
+        Context ctx = c.recreate();
+        ctx.variables.putAll(c.variables);
+        return ctx;
+    }
+
+    private static synchronized ForkJoinPool parallelPool()
+    {
+        if (parallelPool == null)
+        {
+            parallelPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+                var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("scarpet-parallel-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return parallelPool;
+    }
+
+    private static <T> List<T> runInChunks(Context c, int size, ChunkTask<T> task)
+    {
+        ForkJoinPool pool = parallelPool();
+        int chunks = Math.max(1, Math.min(size / MIN_CHUNK_SIZE, pool.getParallelism() * 4));
+        List<Callable<T>> jobs = new ArrayList<>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++)
+        {
+            int from = (int) ((long) size * chunk / chunks);
+            int to = (int) ((long) size * (chunk + 1) / chunks);
+            Context ctx = forkContext(c);
+            jobs.add(() -> task.run(ctx, from, to));
+        }
+        List<T> results = new ArrayList<>(chunks);
+        try
+        {
+            for (Future<T> future : pool.invokeAll(jobs))
+            {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InternalExpressionException("Thread interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException re)
+            {
+                throw re;
+            }
+            if (e.getCause() instanceof Error error)
+            {
+                throw error;
+            }
+            throw new InternalExpressionException("Parallel evaluation failed: " + e.getCause());
+        }
+        return results;
     }
 }
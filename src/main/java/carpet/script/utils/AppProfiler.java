@@ -0,0 +1,322 @@
+package carpet.script.utils;
+
+import carpet.script.CarpetScriptServer;
+import carpet.script.external.Carpet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Accounts time and allocations of scarpet apps and of each of their functions, for /script profile.
+ * Each call of a user defined function, event handlers included, is timed, its self time being what's left after its nested calls.
+ * Time of an app counts its calls made from outside of the app, so an app calling a library app doesn't count twice.
+ * Optionally, a sampler thread records the scarpet call stack of the server thread every millisecond, to build flame graphs.
+ * All of that costs a single check per call while not profiling.
+ */
+public class AppProfiler
+{
+    private static final long SAMPLE_INTERVAL = 1_000_000L;
+    private static final int TOP = 10;
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final com.sun.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemorySupported() ? bean : null;
+
+    public static final class Stats
+    {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder selfNanos = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+
+        public long calls()
+        {
+            return calls.sum();
+        }
+
+        public long totalNanos()
+        {
+            return totalNanos.sum();
+        }
+
+        public long selfNanos()
+        {
+            return selfNanos.sum();
+        }
+
+        /**
+         * @return bytes allocated by the app or by the function itself, without its nested calls
+         */
+        public long allocatedBytes()
+        {
+            return allocatedBytes.sum();
+        }
+    }
+
+    public static final class Frame
+    {
+        private final String app;
+        private final String function;
+        private final Frame parent;
+        private final long start;
+        private final long startAllocated;
+        private long childNanos;
+        private long childAllocated;
+
+        private Frame(String app, String function, Frame parent)
+        {
+            this.app = app;
+            this.function = function;
+            this.parent = parent;
+            this.startAllocated = allocated();
+            this.start = System.nanoTime();
+        }
+    }
+
+    private static volatile boolean running = false;
+    private static final Map<String, Stats> apps = new ConcurrentHashMap<>();
+    private static final Map<String, Map<String, Stats>> functions = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Frame> stack = new ThreadLocal<>();
+    private static long startTick;
+    private static long startNanos;
+
+    // flame graph sampling, of the thread that started the profiler
+    private static volatile Thread sampledThread;
+    private static volatile Frame sampledTop;
+    private static Thread sampler;
+    private static final Object2IntOpenHashMap<String> folded = new Object2IntOpenHashMap<>();
+
+    private static long allocated()
+    {
+        return THREADS == null ? 0L : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    public static boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Marks the start of a function call
+     *
+     * @return token to pass to {@link #exit}, null while not profiling
+     */
+    public static Frame enter(String app, String function)
+    {
+        if (!running)
+        {
+            return null;
+        }
+        Frame frame = new Frame(app == null ? "global" : app, function, stack.get());
+        stack.set(frame);
+        if (Thread.currentThread() == sampledThread)
+        {
+            sampledTop = frame;
+        }
+        return frame;
+    }
+
+    public static void exit(Frame frame)
+    {
+        if (frame == null)
+        {
+            return;
+        }
+        long elapsed = System.nanoTime() - frame.start;
+        long allocated = allocated() - frame.startAllocated;
+        stack.set(frame.parent);
+        if (Thread.currentThread() == sampledThread)
+        {
+            sampledTop = frame.parent;
+        }
+        if (frame.parent != null)
+        {
+            frame.parent.childNanos += elapsed;
+            frame.parent.childAllocated += allocated;
+        }
+        Stats stats = functions.computeIfAbsent(frame.app, a -> new ConcurrentHashMap<>()).computeIfAbsent(frame.function, f -> new Stats());
+        stats.calls.increment();
+        stats.totalNanos.add(elapsed);
+        stats.selfNanos.add(elapsed - frame.childNanos);
+        stats.allocatedBytes.add(allocated - frame.childAllocated);
+        if (frame.parent == null || !frame.parent.app.equals(frame.app))
+        {
+            Stats app = apps.computeIfAbsent(frame.app, a -> new Stats());
+            app.calls.increment();
+            app.totalNanos.add(elapsed);
+            app.selfNanos.add(elapsed);
+            app.allocatedBytes.add(allocated);
+        }
+    }
+
+    public static synchronized void start(MinecraftServer server, boolean flame)
+    {
+        stopSampler();
+        apps.clear();
+        functions.clear();
+        synchronized (folded)
+        {
+            folded.clear();
+        }
+        startTick = server.getTickCount();
+        startNanos = System.nanoTime();
+        running = true;
+        if (flame)
+        {
+            sampledThread = Thread.currentThread();
+            Thread thread = new Thread(AppProfiler::sample, "carpet-scarpet-profiler");
+            thread.setDaemon(true);
+            sampler = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops profiling, keeping the stats to report, and saves the flame graph if it was sampled
+     *
+     * @return file holding the flame graph, or null
+     */
+    public static synchronized Path stop(MinecraftServer server)
+    {
+        running = false;
+        boolean sampled = sampler != null;
+        stopSampler();
+        if (!sampled)
+        {
+            return null;
+        }
+        StringBuilder out = new StringBuilder();
+        synchronized (folded)
+        {
+            folded.object2IntEntrySet().stream()
+                    .sorted(Comparator.<Object2IntMap.Entry<String>>comparingInt(Object2IntMap.Entry::getIntValue).reversed())
+                    .forEach(e -> out.append(e.getKey()).append(' ').append(e.getIntValue()).append('\n'));
+        }
+        Path file = server.getWorldPath(LevelResource.ROOT).resolve("scarpet_profiles").resolve("flame-" + LocalDateTime.now().format(FILE_DATE) + ".txt");
+        try
+        {
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, out.toString(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            CarpetScriptServer.LOG.error("Unable to save scarpet flame graph " + file, e);
+            return null;
+        }
+        return file;
+    }
+
+    private static void stopSampler()
+    {
+        if (sampler != null)
+        {
+            sampler.interrupt();
+            sampler = null;
+        }
+        sampledThread = null;
+        sampledTop = null;
+    }
+
+    private static void sample()
+    {
+        Thread self = Thread.currentThread();
+        List<String> path = new ArrayList<>();
+        StringBuilder key = new StringBuilder();
+        while (!self.isInterrupted())
+        {
+            Frame top = sampledTop;
+            if (top != null)
+            {
+                path.clear();
+                for (Frame frame = top; frame != null; frame = frame.parent)
+                {
+                    path.add(frame.function);
+                    if (frame.parent == null || !frame.parent.app.equals(frame.app))
+                    {
+                        path.add(frame.app);
+                    }
+                }
+                key.setLength(0);
+                for (int i = path.size() - 1; i >= 0; i--)
+                {
+                    key.append(path.get(i));
+                    if (i > 0)
+                    {
+                        key.append(';');
+                    }
+                }
+                synchronized (folded)
+                {
+                    folded.addTo(key.toString(), 1);
+                }
+            }
+            LockSupport.parkNanos(SAMPLE_INTERVAL);
+        }
+    }
+
+    public static Map<String, Stats> getAppStats()
+    {
+        return apps;
+    }
+
+    /**
+     * Reports apps by time, with their slowest functions, or only functions of one app
+     */
+    public static int report(CommandSourceStack source, String app)
+    {
+        if (apps.isEmpty())
+        {
+            Carpet.Messenger_message(source, "r No scarpet calls profiled, start with /script profile start");
+            return 0;
+        }
+        long ticks = Math.max(source.getServer().getTickCount() - startTick, 1);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        Carpet.Messenger_message(source, "w ");
+        Carpet.Messenger_message(source, "wb Scarpet apps", "g  over %d ticks, %.1fs%s".formatted(ticks, seconds, running ? ", still running" : ""));
+        List<Map.Entry<String, Stats>> sortedApps = new ArrayList<>(apps.entrySet());
+        sortedApps.sort(Comparator.<Map.Entry<String, Stats>>comparingLong(e -> e.getValue().totalNanos()).reversed());
+        for (Map.Entry<String, Stats> entry : sortedApps)
+        {
+            if (app != null && !app.equals(entry.getKey()))
+            {
+                continue;
+            }
+            Stats stats = entry.getValue();
+            Carpet.Messenger_message(source, "w %s: ".formatted(entry.getKey()),
+                    "y %.3fms/t".formatted(stats.totalNanos() / 1e6 / ticks),
+                    "g , %d calls%s".formatted(stats.calls(), THREADS == null ? "" : ", %.1fMB allocated".formatted(stats.allocatedBytes() / 1e6)));
+        }
+        List<Map.Entry<String, Stats>> sortedFunctions = new ArrayList<>();
+        functions.forEach((appName, appFunctions) -> {
+            if (app == null || app.equals(appName))
+            {
+                appFunctions.forEach((name, stats) -> sortedFunctions.add(Map.entry(app == null ? appName + " " + name : name, stats)));
+            }
+        });
+        sortedFunctions.sort(Comparator.<Map.Entry<String, Stats>>comparingLong(e -> e.getValue().selfNanos()).reversed());
+        Carpet.Messenger_message(source, "wb Top %d functions by self time".formatted(TOP), "g  self / total");
+        for (Map.Entry<String, Stats> entry : sortedFunctions.subList(0, Math.min(TOP, sortedFunctions.size())))
+        {
+            Stats stats = entry.getValue();
+            Carpet.Messenger_message(source, "w  - %s: ".formatted(entry.getKey()),
+                    "y %.3f / %.3fms/t".formatted(stats.selfNanos() / 1e6 / ticks, stats.totalNanos() / 1e6 / ticks),
+                    "g , %d calls%s".formatted(stats.calls(), THREADS == null ? "" : ", %.1fMB allocated".formatted(stats.allocatedBytes() / 1e6)));
+        }
+        return 1;
+    }
+}
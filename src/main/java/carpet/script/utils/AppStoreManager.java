@@ -383,7 +383,7 @@ public class AppStoreManager
         {
             throw new InternalExpressionException("This is not a valid resource map: " + resource.getString());
         }
-        Map<String, Value> resourceMap = map.getMap().entrySet().stream().collect(Collectors.toMap(e -> e.getKey().getString(), Map.Entry::getValue));
+        Map<String, Value> resourceMap = map.readOnlyMap().entrySet().stream().collect(Collectors.toMap(e -> e.getKey().getString(), Map.Entry::getValue));
         if (!resourceMap.containsKey("source"))
         {
             throw new InternalExpressionException("Missing 'source' field in resource descriptor: " + resource.getString());
@@ -451,7 +451,7 @@ public class AppStoreManager
         {
             throw new InternalExpressionException("This is not a valid library map: " + library.getString());
         }
-        Map<String, String> libraryMap = map.getMap().entrySet().stream().collect(Collectors.toMap(e -> e.getKey().getString(), e -> e.getValue().getString()));
+        Map<String, String> libraryMap = map.readOnlyMap().entrySet().stream().collect(Collectors.toMap(e -> e.getKey().getString(), e -> e.getValue().getString()));
         String source = libraryMap.get("source");
         String contentUrl = getFullContentUrl(source, storeSource, carpetScriptHost.responsibleSource);
         String target = libraryMap.computeIfAbsent("target", k -> contentUrl.substring(contentUrl.lastIndexOf('/') + 1));
@@ -0,0 +1,211 @@
+package carpet.script.utils;
+
+import carpet.script.external.Carpet;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.Short2ObjectLinkedOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerChunkCache;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.lighting.LightEngine;
+
+import jakarta.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects block changes made by scarpet within a {@code block_batch} call.
+ * Changes are written directly into chunk section palettes, so reads within the batch see them right away,
+ * while the costly parts of setting blocks are deferred until the batch is committed:
+ * light checks get queued all at once for the next light engine pass,
+ * client updates are coalesced by chunk holders into one packet per touched section,
+ * and neighbour updates are only issued if requested, once per changed position.
+ * Block entities are either created and bound right away, or, if not requested, left to be created on first access.
+ */
+public class BlockBatch
+{
+    private static final ThreadLocal<BlockBatch> CURRENT = new ThreadLocal<>();
+    private static final Heightmap.Types[] HEIGHTMAPS = {
+            Heightmap.Types.MOTION_BLOCKING,
+            Heightmap.Types.MOTION_BLOCKING_NO_LEAVES,
+            Heightmap.Types.OCEAN_FLOOR,
+            Heightmap.Types.WORLD_SURFACE
+    };
+
+    private static final class Section
+    {
+        final LevelChunk chunk;
+        final LevelChunkSection section;
+        final boolean wasEmpty;
+        // state of each changed position before the batch, by packed local position
+        final Short2ObjectLinkedOpenHashMap<BlockState> previous = new Short2ObjectLinkedOpenHashMap<>();
+
+        Section(LevelChunk chunk, LevelChunkSection section)
+        {
+            this.chunk = chunk;
+            this.section = section;
+            this.wasEmpty = section.hasOnlyAir();
+        }
+    }
+
+    private final boolean updates;
+    private final boolean blockEntities;
+    private final Map<ServerLevel, Long2ObjectLinkedOpenHashMap<Section>> sections = new HashMap<>();
+    private int changes;
+
+    public BlockBatch(boolean updates, boolean blockEntities)
+    {
+        this.updates = updates;
+        this.blockEntities = blockEntities;
+    }
+
+    /**
+     * @return batch open on the current thread, or null if blocks should be set directly
+     */
+    @Nullable
+    public static BlockBatch current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Opens this batch on the current thread, and commits it once the action completes, also if it fails
+     */
+    public void run(Runnable action)
+    {
+        BlockBatch outer = CURRENT.get();
+        CURRENT.set(this);
+        try
+        {
+            action.run();
+        }
+        finally
+        {
+            CURRENT.set(outer);
+            commit();
+        }
+    }
+
+    /**
+     * @return number of positions changed by this batch so far
+     */
+    public int changes()
+    {
+        return changes;
+    }
+
+    /**
+     * Writes the state into the chunk section
+     *
+     * @return true if the block changed
+     */
+    public boolean set(ServerLevel level, BlockPos pos, BlockState state)
+    {
+        if (level.isOutsideBuildHeight(pos))
+        {
+            return false;
+        }
+        long key = SectionPos.asLong(pos);
+        Long2ObjectLinkedOpenHashMap<Section> levelSections = sections.computeIfAbsent(level, l -> new Long2ObjectLinkedOpenHashMap<>());
+        Section batched = levelSections.get(key);
+        if (batched == null)
+        {
+            LevelChunk chunk = level.getChunkAt(pos);
+            batched = new Section(chunk, chunk.getSection(chunk.getSectionIndex(pos.getY())));
+            levelSections.put(key, batched);
+        }
+        int x = pos.getX() & 15;
+        int y = pos.getY() & 15;
+        int z = pos.getZ() & 15;
+        BlockState old = batched.section.setBlockState(x, y, z, state);
+        if (old == state)
+        {
+            return false;
+        }
+        short local = SectionPos.sectionRelativePos(pos);
+        if (batched.previous.putIfAbsent(local, old) == null)
+        {
+            changes++;
+        }
+        Carpet.onArenaBlockChanged(level, pos);
+        LevelChunk chunk = batched.chunk;
+        for (Heightmap.Types type : HEIGHTMAPS)
+        {
+            chunk.getOrCreateHeightmapUnprimed(type).update(x, pos.getY(), z, state);
+        }
+        if (old.hasBlockEntity() && !old.is(state.getBlock()))
+        {
+            chunk.removeBlockEntity(pos);
+        }
+        if (blockEntities && state.hasBlockEntity())
+        {
+            BlockEntity be = chunk.getBlockEntity(pos, LevelChunk.EntityCreationType.CHECK);
+            if (be == null)
+            {
+                chunk.getBlockEntity(pos, LevelChunk.EntityCreationType.IMMEDIATE);
+            }
+            else
+            {
+                be.setBlockState(state);
+                chunk.addAndRegisterBlockEntity(be);
+            }
+        }
+        return true;
+    }
+
+    private void commit()
+    {
+        sections.forEach((level, levelSections) -> {
+            ServerChunkCache chunkSource = level.getChunkSource();
+            BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+            for (Long2ObjectLinkedOpenHashMap.Entry<Section> entry : levelSections.long2ObjectEntrySet())
+            {
+                SectionPos sectionPos = SectionPos.of(entry.getLongKey());
+                Section batched = entry.getValue();
+                boolean empty = batched.section.hasOnlyAir();
+                if (empty != batched.wasEmpty)
+                {
+                    chunkSource.getLightEngine().updateSectionStatus(sectionPos, empty);
+                    chunkSource.onSectionEmptinessChanged(sectionPos.x(), sectionPos.y(), sectionPos.z(), empty);
+                }
+                batched.chunk.markUnsaved();
+                for (Short2ObjectLinkedOpenHashMap.Entry<BlockState> change : batched.previous.short2ObjectEntrySet())
+                {
+                    short local = change.getShortKey();
+                    pos.set(sectionPos.relativeToBlockX(local), sectionPos.relativeToBlockY(local), sectionPos.relativeToBlockZ(local));
+                    BlockState old = change.getValue();
+                    BlockState state = batched.section.getBlockState(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+                    if (old == state)
+                    {
+                        continue;
+                    }
+                    if (LightEngine.hasDifferentLightProperties(old, state))
+                    {
+                        batched.chunk.getSkyLightSources().update(batched.chunk, pos.getX() & 15, pos.getY(), pos.getZ() & 15);
+                        chunkSource.getLightEngine().checkBlock(pos);
+                    }
+                    chunkSource.blockChanged(pos);
+                    level.onBlockStateChange(pos, old, state);
+                }
+            }
+            if (updates)
+            {
+                for (Long2ObjectLinkedOpenHashMap.Entry<Section> entry : levelSections.long2ObjectEntrySet())
+                {
+                    SectionPos sectionPos = SectionPos.of(entry.getLongKey());
+                    for (short local : entry.getValue().previous.keySet())
+                    {
+                        pos.set(sectionPos.relativeToBlockX(local), sectionPos.relativeToBlockY(local), sectionPos.relativeToBlockZ(local));
+                        level.updateNeighborsAt(pos, level.getBlockState(pos).getBlock());
+                    }
+                }
+            }
+        });
+        sections.clear();
+    }
+}
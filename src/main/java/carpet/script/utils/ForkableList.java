@@ -0,0 +1,255 @@
+package carpet.script.utils;
+
+import java.lang.ref.Cleaner;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * List that can be forked in constant time. Forks share their storage until one of them gets modified,
+ * at which point the modified one takes its own copy of the elements.
+ * All handles to the same fork (like list values cloned by reference) see each other's changes.
+ * Elements themselves are shared between forks, so only forking lists of immutable elements gives independent copies.
+ * Different forks can be used from different threads, ownership of shared storage is counted atomically,
+ * and forks that get garbage collected give their share back, so the last one left can write in place again.
+ * A single fork is not thread safe, like any other list.
+ */
+public class ForkableList<E> extends AbstractList<E> implements RandomAccess
+{
+    // gives shares of garbage collected forks back, also used by ForkableMap
+    static final Cleaner FORKS = Cleaner.create();
+
+    private static final class Storage<E>
+    {
+        final List<E> data;
+        final AtomicInteger owners = new AtomicInteger(1);
+        // result of the last allMatch check, valid as long as the storage is not modified
+        volatile Check<E> check = null;
+
+        Storage(List<E> data)
+        {
+            this.data = data;
+        }
+    }
+
+    private record Check<E>(Predicate<? super E> test, boolean result)
+    {
+    }
+
+    /**
+     * Storage a shared fork holds a share of, for the cleaner to give it back once the fork is collected
+     */
+    static final class Share implements Runnable
+    {
+        volatile AtomicInteger owners;
+
+        Share(AtomicInteger owners)
+        {
+            this.owners = owners;
+        }
+
+        @Override
+        public void run()
+        {
+            owners.decrementAndGet();
+        }
+    }
+
+    private Storage<E> storage;
+    // only set once this list shared its storage
+    private Share share;
+
+    public ForkableList()
+    {
+        this(new ArrayList<>());
+    }
+
+    /**
+     * Adopts given list as storage, without copying it
+     */
+    public ForkableList(List<E> data)
+    {
+        storage = new Storage<>(data);
+    }
+
+    private ForkableList(Storage<E> shared)
+    {
+        storage = shared;
+    }
+
+    public static <E> ForkableList<E> copyOf(Collection<? extends E> data)
+    {
+        return new ForkableList<>(new ArrayList<E>(data));
+    }
+
+    public static <E> ForkableList<E> of(List<E> list)
+    {
+        return list instanceof ForkableList<E> forkable ? forkable : new ForkableList<>(list);
+    }
+
+    /**
+     * @return new list with the same elements, sharing storage with this list until either is modified
+     */
+    public ForkableList<E> fork()
+    {
+        Storage<E> current = storage;
+        current.owners.incrementAndGet();
+        if (share == null)
+        {
+            share = new Share(current.owners);
+            FORKS.register(this, share);
+        }
+        ForkableList<E> fork = new ForkableList<>(current);
+        fork.share = new Share(current.owners);
+        FORKS.register(fork, fork.share);
+        return fork;
+    }
+
+    /**
+     * @return true if all elements pass the test. Result is cached while the list is not modified,
+     * so repeated checks of the same, shared storage with the same predicate are free.
+     */
+    public boolean allMatch(Predicate<? super E> test)
+    {
+        Storage<E> current = storage;
+        Check<E> check = current.check;
+        if (check == null || check.test() != test)
+        {
+            boolean result = true;
+            for (E e : current.data)
+            {
+                if (!test.test(e))
+                {
+                    result = false;
+                    break;
+                }
+            }
+            check = new Check<>(test, result);
+            current.check = check;
+        }
+        return check.result();
+    }
+
+    private List<E> writable()
+    {
+        Storage<E> current = storage;
+        if (current.owners.get() > 1)
+        {
+            // copy before giving the share back, so the last owner can't write in place while this copies
+            Storage<E> copy = new Storage<>(new ArrayList<>(current.data));
+            current.owners.decrementAndGet();
+            storage = current = copy;
+            if (share != null)
+            {
+                share.owners = copy.owners;
+            }
+        }
+        current.check = null;
+        modCount++;
+        return current.data;
+    }
+
+    @Override
+    public E get(int index)
+    {
+        return storage.data.get(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return storage.data.size();
+    }
+
+    @Override
+    public E set(int index, E element)
+    {
+        return writable().set(index, element);
+    }
+
+    @Override
+    public boolean add(E e)
+    {
+        return writable().add(e);
+    }
+
+    @Override
+    public void add(int index, E element)
+    {
+        writable().add(index, element);
+    }
+
+    @Override
+    public E remove(int index)
+    {
+        return writable().remove(index);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c)
+    {
+        return writable().addAll(c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends E> c)
+    {
+        return writable().addAll(index, c);
+    }
+
+    @Override
+    public void clear()
+    {
+        writable().clear();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex)
+    {
+        writable().subList(fromIndex, toIndex).clear();
+    }
+
+    @Override
+    public int indexOf(Object o)
+    {
+        return storage.data.indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return storage.data.contains(o);
+    }
+
+    @Override
+    public Object[] toArray()
+    {
+        return storage.data.toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(T[] a)
+    {
+        return storage.data.toArray(a);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o instanceof ForkableList<?> other)
+        {
+            return storage == other.storage || storage.data.equals(other.storage.data);
+        }
+        return storage.data.equals(o);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return storage.data.hashCode();
+    }
+}
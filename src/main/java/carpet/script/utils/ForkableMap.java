@@ -0,0 +1,238 @@
+package carpet.script.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * Map that can be forked in constant time. Forks share their storage until one of them gets modified,
+ * at which point the modified one takes its own copy of the entries.
+ * All handles to the same fork see each other's changes.
+ * Since key, value and entry views allow modifications, obtaining them detaches this fork from shared storage,
+ * use {@link #readOnly()} to iterate without copying.
+ * Like {@link ForkableList}, different forks can be used from different threads, and collected forks give their share back.
+ */
+public class ForkableMap<K, V> implements Map<K, V>
+{
+    private static final class Storage<K, V>
+    {
+        final Map<K, V> data;
+        final AtomicInteger owners = new AtomicInteger(1);
+        // result of the last allMatch check, valid as long as the storage is not modified
+        volatile Check<K, V> check = null;
+
+        Storage(Map<K, V> data)
+        {
+            this.data = data;
+        }
+    }
+
+    private record Check<K, V>(BiPredicate<? super K, ? super V> test, boolean result)
+    {
+    }
+
+    private Storage<K, V> storage;
+    // only set once this map shared its storage
+    private ForkableList.Share share;
+
+    public ForkableMap()
+    {
+        this(new HashMap<>());
+    }
+
+    /**
+     * Adopts given map as storage, without copying it
+     */
+    public ForkableMap(Map<K, V> data)
+    {
+        storage = new Storage<>(data);
+    }
+
+    private ForkableMap(Storage<K, V> shared)
+    {
+        storage = shared;
+    }
+
+    /**
+     * @return new map with the same entries, sharing storage with this map until either is modified
+     */
+    public ForkableMap<K, V> fork()
+    {
+        Storage<K, V> current = storage;
+        current.owners.incrementAndGet();
+        if (share == null)
+        {
+            share = new ForkableList.Share(current.owners);
+            ForkableList.FORKS.register(this, share);
+        }
+        ForkableMap<K, V> fork = new ForkableMap<>(current);
+        fork.share = new ForkableList.Share(current.owners);
+        ForkableList.FORKS.register(fork, fork.share);
+        return fork;
+    }
+
+    /**
+     * @return true if all entries pass the test. Result is cached while the map is not modified.
+     */
+    public boolean allMatch(BiPredicate<? super K, ? super V> test)
+    {
+        Storage<K, V> current = storage;
+        Check<K, V> check = current.check;
+        if (check == null || check.test() != test)
+        {
+            boolean result = true;
+            for (Entry<K, V> e : current.data.entrySet())
+            {
+                if (!test.test(e.getKey(), e.getValue()))
+                {
+                    result = false;
+                    break;
+                }
+            }
+            check = new Check<>(test, result);
+            current.check = check;
+        }
+        return check.result();
+    }
+
+    /**
+     * @return unmodifiable view of current entries, valid until this map is modified
+     */
+    public Map<K, V> readOnly()
+    {
+        return Collections.unmodifiableMap(storage.data);
+    }
+
+    private Map<K, V> writable()
+    {
+        Storage<K, V> current = storage;
+        if (current.owners.get() > 1)
+        {
+            // copy before giving the share back, so the last owner can't write in place while this copies
+            Storage<K, V> copy = new Storage<>(new HashMap<>(current.data));
+            current.owners.decrementAndGet();
+            storage = current = copy;
+            if (share != null)
+            {
+                share.owners = copy.owners;
+            }
+        }
+        current.check = null;
+        return current.data;
+    }
+
+    @Override
+    public int size()
+    {
+        return storage.data.size();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return storage.data.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return storage.data.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value)
+    {
+        return storage.data.containsValue(value);
+    }
+
+    @Override
+    public V get(Object key)
+    {
+        return storage.data.get(key);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue)
+    {
+        return storage.data.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action)
+    {
+        storage.data.forEach(action);
+    }
+
+    @Override
+    public V put(K key, V value)
+    {
+        return writable().put(key, value);
+    }
+
+    @Override
+    public V remove(Object key)
+    {
+        if (!storage.data.containsKey(key))
+        {
+            return null;
+        }
+        return writable().remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m)
+    {
+        writable().putAll(m);
+    }
+
+    @Override
+    public void clear()
+    {
+        writable().clear();
+    }
+
+    @Override
+    public Set<K> keySet()
+    {
+        return writable().keySet();
+    }
+
+    @Override
+    public Collection<V> values()
+    {
+        return writable().values();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet()
+    {
+        return writable().entrySet();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o instanceof ForkableMap<?, ?> other)
+        {
+            return storage == other.storage || storage.data.equals(other.storage.data);
+        }
+        return storage.data.equals(o);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return storage.data.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return storage.data.toString();
+    }
+}
@@ -0,0 +1,364 @@
+package carpet.script.utils;
+
+import carpet.script.CarpetScriptServer;
+
+import jakarta.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Persistent, sorted string key-value store backed by an append-only log file.
+ * Every update appends a single record to the log, so changing one entry costs the size of that entry,
+ * regardless of the size of the store. All entries are kept in memory for reads and range scans.
+ * Once the log grows well beyond the size of live entries, it gets rewritten in the background,
+ * with updates made in the meantime appended to the rewritten log before it replaces the old one.
+ * A record cut short by a crash is dropped when the store is next opened.
+ */
+public class KeyValueStore
+{
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final long COMPACTION_THRESHOLD = 1 << 20;
+
+    private final Path file;
+    private final TreeMap<String, String> data = new TreeMap<>();
+    private FileChannel log;
+    private long logSize;
+    private long liveSize;
+    // records appended while compaction runs, or null if it doesn't
+    @Nullable
+    private List<byte[]> compactionTail;
+    private boolean closed;
+
+    private KeyValueStore(Path file)
+    {
+        this.file = file;
+    }
+
+    public static KeyValueStore open(Path file) throws IOException
+    {
+        KeyValueStore store = new KeyValueStore(file);
+        store.replay();
+        return store;
+    }
+
+    private void replay() throws IOException
+    {
+        long validSize = 0;
+        if (Files.exists(file))
+        {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+            {
+                while (true)
+                {
+                    int op = in.read();
+                    if (op < 0)
+                    {
+                        break;
+                    }
+                    String key = readString(in);
+                    if (op == PUT)
+                    {
+                        String value = readString(in);
+                        String old = data.put(key, value);
+                        liveSize += recordSize(key, value) - (old == null ? 0 : recordSize(key, old));
+                    }
+                    else if (op == DELETE)
+                    {
+                        String old = data.remove(key);
+                        liveSize -= old == null ? 0 : recordSize(key, old);
+                    }
+                    else
+                    {
+                        CarpetScriptServer.LOG.warn("Dropping corrupted tail of key-value store {}", file);
+                        break;
+                    }
+                    validSize += op == PUT ? recordSize(key, data.get(key)) : deleteSize(key);
+                }
+            }
+            catch (EOFException e)
+            {
+                CarpetScriptServer.LOG.warn("Dropping incomplete record at the end of key-value store {}", file);
+            }
+        }
+        else
+        {
+            Files.createDirectories(file.getParent());
+        }
+        log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        log.truncate(validSize);
+        log.position(validSize);
+        logSize = validSize;
+    }
+
+    @Nullable
+    public synchronized String get(String key)
+    {
+        return data.get(key);
+    }
+
+    public synchronized void put(String key, String value) throws IOException
+    {
+        checkOpen();
+        append(encode(PUT, key, value));
+        String old = data.put(key, value);
+        liveSize += recordSize(key, value) - (old == null ? 0 : recordSize(key, old));
+        maybeCompact();
+    }
+
+    /**
+     * @return true if the key was present
+     */
+    public synchronized boolean delete(String key) throws IOException
+    {
+        checkOpen();
+        if (!data.containsKey(key))
+        {
+            return false;
+        }
+        append(encode(DELETE, key, null));
+        liveSize -= recordSize(key, data.remove(key));
+        maybeCompact();
+        return true;
+    }
+
+    /**
+     * @param from  first key to include, or null to start from the first key
+     * @param to    key to stop before, or null to scan to the end
+     * @param limit max number of entries to return
+     * @return entries within the range, in key order
+     */
+    public synchronized List<Map.Entry<String, String>> scan(@Nullable String from, @Nullable String to, int limit)
+    {
+        NavigableMap<String, String> range = data;
+        if (from != null && to != null)
+        {
+            if (from.compareTo(to) >= 0)
+            {
+                return List.of();
+            }
+            range = data.subMap(from, true, to, false);
+        }
+        else if (from != null)
+        {
+            range = data.tailMap(from, true);
+        }
+        else if (to != null)
+        {
+            range = data.headMap(to, false);
+        }
+        List<Map.Entry<String, String>> result = new ArrayList<>(Math.min(limit, range.size()));
+        for (Map.Entry<String, String> entry : range.entrySet())
+        {
+            if (result.size() >= limit)
+            {
+                break;
+            }
+            result.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        return result;
+    }
+
+    public synchronized int size()
+    {
+        return data.size();
+    }
+
+    public synchronized void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            log.force(false);
+            log.close();
+        }
+        catch (IOException e)
+        {
+            CarpetScriptServer.LOG.warn("Unable to close key-value store " + file, e);
+        }
+    }
+
+    private void checkOpen() throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Key-value store " + file + " is already closed");
+        }
+    }
+
+    private void append(byte[] record) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining())
+        {
+            log.write(buffer);
+        }
+        logSize += record.length;
+        if (compactionTail != null)
+        {
+            compactionTail.add(record);
+        }
+    }
+
+    private void maybeCompact()
+    {
+        if (compactionTail != null || logSize < COMPACTION_THRESHOLD || logSize < 2 * liveSize)
+        {
+            return;
+        }
+        List<Map.Entry<String, String>> snapshot = scan(null, null, Integer.MAX_VALUE);
+        compactionTail = new ArrayList<>();
+        Thread.ofVirtual().name("scarpet-kv-compaction").start(() -> compact(snapshot));
+    }
+
+    private void compact(List<Map.Entry<String, String>> snapshot)
+    {
+        Path temp = file.resolveSibling(file.getFileName() + "_compact");
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp)))
+            {
+                for (Map.Entry<String, String> entry : snapshot)
+                {
+                    out.write(encode(PUT, entry.getKey(), entry.getValue()));
+                }
+            }
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    Files.deleteIfExists(temp);
+                    return;
+                }
+                try (FileChannel compacted = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+                {
+                    for (byte[] record : compactionTail)
+                    {
+                        ByteBuffer buffer = ByteBuffer.wrap(record);
+                        while (buffer.hasRemaining())
+                        {
+                            compacted.write(buffer);
+                        }
+                    }
+                    compacted.force(false);
+                }
+                log.close();
+                try
+                {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (AtomicMoveNotSupportedException e)
+                {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                log = FileChannel.open(file, StandardOpenOption.WRITE);
+                logSize = log.size();
+                log.position(logSize);
+                compactionTail = null;
+            }
+        }
+        catch (IOException e)
+        {
+            CarpetScriptServer.LOG.warn("Unable to compact key-value store " + file, e);
+            synchronized (this)
+            {
+                compactionTail = null;
+                if (!log.isOpen() && !closed)
+                {
+                    try
+                    {
+                        log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                        logSize = log.size();
+                        log.position(logSize);
+                    }
+                    catch (IOException reopen)
+                    {
+                        CarpetScriptServer.LOG.error("Unable to reopen key-value store " + file, reopen);
+                        closed = true;
+                    }
+                }
+            }
+            try
+            {
+                Files.deleteIfExists(temp);
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+
+    private static byte[] encode(byte op, String key, @Nullable String value)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(op);
+            writeString(out, key);
+            if (value != null)
+            {
+                writeString(out, value);
+            }
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            // not possible with in-memory streams
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long deleteSize(String key)
+    {
+        return 1 + 4 + key.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static long recordSize(String key, String value)
+    {
+        return deleteSize(key) + 4 + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException
+    {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+        {
+            throw new EOFException();
+        }
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length)
+        {
+            throw new EOFException();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,113 @@
+package carpet.script.utils;
+
+import carpet.script.value.MapValue;
+import carpet.script.value.NumericValue;
+import carpet.script.value.StringValue;
+import carpet.script.value.Value;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Size bounded cache of parsed strings, like selectors, items or block states, evicting least recently used entries.
+ * Parsed values may refer to registry contents, so all caches are dropped when scripts reload and when the server closes.
+ */
+public class ParseCache<V>
+{
+    private static final List<ParseCache<?>> CACHES = new CopyOnWriteArrayList<>();
+
+    @FunctionalInterface
+    public interface Parser<V>
+    {
+        V parse(String input) throws CommandSyntaxException;
+    }
+
+    private final String name;
+    private final int capacity;
+    private final LinkedHashMap<String, V> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private ParseCache(String name, int capacity)
+    {
+        this.name = name;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+            {
+                if (size() > ParseCache.this.capacity)
+                {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static <V> ParseCache<V> create(String name, int capacity)
+    {
+        ParseCache<V> cache = new ParseCache<>(name, capacity);
+        CACHES.add(cache);
+        return cache;
+    }
+
+    /**
+     * Returns cached value for the input, parsing it on a miss. Failed parses are not cached.
+     */
+    public V get(String input, Parser<V> parser) throws CommandSyntaxException
+    {
+        synchronized (this)
+        {
+            V value = entries.get(input);
+            if (value != null)
+            {
+                hits++;
+                return value;
+            }
+            misses++;
+        }
+        // parsing outside the lock, worst case the same string gets parsed twice
+        V value = parser.parse(input);
+        synchronized (this)
+        {
+            entries.put(input, value);
+        }
+        return value;
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    public synchronized Value getMetrics()
+    {
+        Map<Value, Value> metrics = new HashMap<>();
+        metrics.put(StringValue.of("size"), NumericValue.of(entries.size()));
+        metrics.put(StringValue.of("capacity"), NumericValue.of(capacity));
+        metrics.put(StringValue.of("hits"), NumericValue.of(hits));
+        metrics.put(StringValue.of("misses"), NumericValue.of(misses));
+        metrics.put(StringValue.of("evictions"), NumericValue.of(evictions));
+        return MapValue.wrap(metrics);
+    }
+
+    public static void invalidateAll()
+    {
+        CACHES.forEach(ParseCache::clear);
+    }
+
+    public static Value getAllMetrics()
+    {
+        Map<Value, Value> metrics = new HashMap<>();
+        CACHES.forEach(cache -> metrics.put(StringValue.of(cache.name), cache.getMetrics()));
+        return MapValue.wrap(metrics);
+    }
+}
@@ -0,0 +1,137 @@
+package carpet.script.utils;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.particles.ParticleOptions;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundBundlePacket;
+import net.minecraft.network.protocol.game.ClientboundLevelParticlesPacket;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.util.Mth;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Gathers particles scarpet sends to each player during a tick, and sends them once per tick in bundle packets.
+ * Particles the player would not see are dropped right away: these too far for the player's view distance,
+ * and these well behind the player. Repeated particles, same type, count and spread at the same spot
+ * (within 1/16 of a block), are sent only once, and each player receives at most a budget of particles per tick.
+ */
+public class ParticleBatch
+{
+    // vanilla clients only render forced particles up to that distance
+    private static final double MAX_DISTANCE = 512.0;
+    // particles this close are always sent, even when they are behind the player
+    private static final double BEHIND_DISTANCE = 8.0;
+    // cosine of the angle from the look direction beyond which particles count as behind the player
+    private static final double BEHIND_COSINE = -0.5;
+    private static final int MAX_PER_BUNDLE = 4096;
+
+    private static final class Client
+    {
+        final List<Packet<? super ClientGamePacketListener>> pending = new ArrayList<>();
+        final LongOpenHashSet sent = new LongOpenHashSet();
+        int particles;
+    }
+
+    private final Map<ServerPlayer, Client> clients = new WeakHashMap<>();
+
+    /**
+     * Queues the particles to be sent to the player with the next flush, unless the player is in another level, wouldn't see them,
+     * already gets the same ones this tick, or already got the budget of particles for this tick
+     *
+     * @param budget maximum number of particles sent to a player per tick, 0 for no limit
+     * @return true if the particles got queued
+     */
+    public synchronized boolean emit(ServerLevel level, ServerPlayer player, ParticleOptions particle,
+                                     double x, double y, double z, int count,
+                                     double dx, double dy, double dz, double speed, int budget)
+    {
+        if (player.level() != level)
+        {
+            return false;
+        }
+        double spread = Math.max(Math.abs(dx), Math.max(Math.abs(dy), Math.abs(dz)));
+        Vec3 eyes = player.getEyePosition();
+        double ox = x - eyes.x;
+        double oy = y - eyes.y;
+        double oz = z - eyes.z;
+        double distance = Math.sqrt(ox * ox + oy * oy + oz * oz);
+        int viewDistance = Mth.clamp(player.requestedViewDistance(), 2, level.getServer().getPlayerList().getViewDistance());
+        if (distance - spread > Math.min(MAX_DISTANCE, viewDistance * 16.0))
+        {
+            return false;
+        }
+        if (distance - spread > BEHIND_DISTANCE && player.getLookAngle().dot(new Vec3(ox, oy, oz)) < BEHIND_COSINE * distance)
+        {
+            return false;
+        }
+        Client client = clients.computeIfAbsent(player, p -> new Client());
+        int weight = Math.max(count, 1);
+        if (budget > 0 && client.particles + weight > budget)
+        {
+            return false;
+        }
+        if (!client.sent.add(key(particle, x, y, z, count, dx, dy, dz, speed)))
+        {
+            return false;
+        }
+        client.particles += weight;
+        client.pending.add(new ClientboundLevelParticlesPacket(particle, true, true, x, y, z, (float) dx, (float) dy, (float) dz, (float) speed, count));
+        return true;
+    }
+
+    private static long key(ParticleOptions particle, double x, double y, double z, int count, double dx, double dy, double dz, double speed)
+    {
+        long hash = particle.hashCode();
+        hash = HashCommon.mix(hash * 31 + Math.round(x * 16));
+        hash = HashCommon.mix(hash * 31 + Math.round(y * 16));
+        hash = HashCommon.mix(hash * 31 + Math.round(z * 16));
+        hash = HashCommon.mix(hash * 31 + count);
+        hash = HashCommon.mix(hash * 31 + Double.doubleToLongBits(dx));
+        hash = HashCommon.mix(hash * 31 + Double.doubleToLongBits(dy));
+        hash = HashCommon.mix(hash * 31 + Double.doubleToLongBits(dz));
+        return HashCommon.mix(hash * 31 + Double.doubleToLongBits(speed));
+    }
+
+    /**
+     * Sends all queued particles and starts the budgets of the next tick
+     */
+    public synchronized void flush()
+    {
+        Iterator<Map.Entry<ServerPlayer, Client>> iterator = clients.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            Map.Entry<ServerPlayer, Client> entry = iterator.next();
+            ServerPlayer player = entry.getKey();
+            Client client = entry.getValue();
+            if (player.hasDisconnected() || client.pending.isEmpty())
+            {
+                // players that didn't get anything this tick are tracked again once they do
+                iterator.remove();
+                continue;
+            }
+            List<Packet<? super ClientGamePacketListener>> pending = client.pending;
+            for (int from = 0; from < pending.size(); from += MAX_PER_BUNDLE)
+            {
+                List<Packet<? super ClientGamePacketListener>> bundle = pending.subList(from, Math.min(pending.size(), from + MAX_PER_BUNDLE));
+                player.connection.send(bundle.size() == 1 ? bundle.get(0) : new ClientboundBundlePacket(new ArrayList<>(bundle)));
+            }
+            pending.clear();
+            client.sent.clear();
+            client.particles = 0;
+        }
+    }
+
+    public synchronized void clear()
+    {
+        clients.clear();
+    }
+}
@@ -25,7 +25,7 @@ public class PerlinNoiseSampler
     public static PerlinNoiseSampler instance = new PerlinNoiseSampler(new Random(0));
     public static Map<Long, PerlinNoiseSampler> samplers = new Long2ObjectOpenHashMap<>();
 
-    public static PerlinNoiseSampler getPerlin(long aLong)
+    public static synchronized PerlinNoiseSampler getPerlin(long aLong)
     {
         if (samplers.size() > 256)
         {
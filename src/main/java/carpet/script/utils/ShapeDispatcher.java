@@ -5,7 +5,6 @@ import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.ThrowStatement;
 import carpet.script.exception.Throwables;
 import carpet.script.external.Carpet;
-import carpet.script.external.Vanilla;
 import carpet.script.language.Sys;
 import carpet.script.utils.shapes.ShapeDirection;
 import carpet.script.value.AbstractListValue;
@@ -149,6 +148,13 @@ public class ShapeDispatcher
         return new ShapeWithConfig(ShapeDispatcher.create(server, shapeType, params), params);
     }
 
+    private static final ShapeSync SYNC = new ShapeSync();
+    private static final ParticleBatch PARTICLES = new ParticleBatch();
+
+    /**
+     * Queues shapes for players. Carpet clients receive them with the next {@link #flushShapes}, other players get
+     * particle replacements queued the same way.
+     */
     public static void sendShape(Collection<ServerPlayer> players, List<ShapeWithConfig> shapes, RegistryAccess regs)
     {
         List<ServerPlayer> clientPlayers = new ArrayList<>();
@@ -159,24 +165,14 @@ public class ShapeDispatcher
         }
         if (!clientPlayers.isEmpty())
         {
-            ListTag tag = new ListTag();
-            int tagcount = 0;
-            for (ShapeWithConfig s : shapes)
+            long tick = clientPlayers.get(0).level().getServer().getTickCount();
+            for (ServerPlayer player : clientPlayers)
             {
-                tag.add(ExpiringShape.toTag(s.config(), regs));  // 4000 shapes limit boxes
-                if (tagcount++ > 1000)
+                for (ShapeWithConfig s : shapes)
                 {
-                    tagcount = 0;
-                    Tag finalTag = tag;
-                    clientPlayers.forEach(p -> Vanilla.sendScarpetShapesDataToPlayer(p, finalTag));
-                    tag = new ListTag();
+                    SYNC.queue(player, s, regs, tick);
                 }
             }
-            Tag finalTag = tag;
-            if (!tag.isEmpty())
-            {
-                clientPlayers.forEach(p -> Vanilla.sendScarpetShapesDataToPlayer(p, finalTag));
-            }
         }
         if (!alternativePlayers.isEmpty())
         {
@@ -186,6 +182,33 @@ public class ShapeDispatcher
         }
     }
 
+    /**
+     * Queues particles for the player, sent with the next {@link #flushShapes} within the player's particle budget
+     *
+     * @return true if the particles will be sent
+     */
+    public static boolean sendParticles(ServerLevel level, ServerPlayer player, ParticleOptions particle,
+                                        double x, double y, double z, int count,
+                                        double dx, double dy, double dz, double speed)
+    {
+        return PARTICLES.emit(level, player, particle, x, y, z, count, dx, dy, dz, speed, Carpet.getParticleBudget());
+    }
+
+    /**
+     * Sends shapes queued for carpet clients and particles queued for all players, called once per tick
+     */
+    public static void flushShapes(MinecraftServer server)
+    {
+        SYNC.flush(server.registryAccess(), server.getTickCount());
+        PARTICLES.flush();
+    }
+
+    public static void resetShapeClients()
+    {
+        SYNC.clear();
+        PARTICLES.clear();
+    }
+
     public static ParticleOptions getParticleData(String name, RegistryAccess regs)
     {
         try
@@ -731,7 +754,7 @@ public class ShapeDispatcher
             }
             else
             {
-                this.item = ItemStack.CODEC.parse(regs.createSerializationContext(NbtOps.INSTANCE), ((NBTSerializableValue) options.get("item")).getCompoundTag() ).result().orElse(null);
+                this.item = ItemStack.CODEC.parse(regs.createSerializationContext(NbtOps.INSTANCE), ((NBTSerializableValue) options.get("item")).readCompoundTag()).result().orElse(null);
             }
             blockLight = NumericValue.asNumber(options.getOrDefault("blocklight", optional.get("blocklight"))).getInt();
             if (blockLight > 15)
@@ -782,7 +805,7 @@ public class ShapeDispatcher
                 }
 
                 Vec3 v = relativiseRender(p.level(), this.pos, 0);
-                ((net.minecraft.server.level.ServerLevel) p.level()).sendParticles(p, particle, true, true, v.x, v.y, v.z, 1, 0.0, 0.0, 0.0, 0.0);
+                sendParticles((ServerLevel) p.level(), p, particle, v.x, v.y, v.z, 1, 0.0, 0.0, 0.0, 0.0);
             };
         }
 
@@ -1077,7 +1100,7 @@ public class ShapeDispatcher
                     ParticleOptions locparticledata = new DustParticleOptions(ARGB.colorFromFloat(1.0f, fr, fg, fb), 1);
                     for (Vec3 v : getAlterPoint(p))
                     {
-                        ((net.minecraft.server.level.ServerLevel) p.level()).sendParticles(p, locparticledata, true, true,
+                        sendParticles((ServerLevel) p.level(), p, locparticledata,
                                 v.x, v.y, v.z, 1,
                                 0.0, 0.0, 0.0, 0.0);
                     }
@@ -1304,7 +1327,7 @@ public class ShapeDispatcher
                     double x = radius * Mth.cos(theta) * Mth.cos(phi);
                     double y = radius * Mth.cos(theta) * Mth.sin(phi);
                     double z = radius * Mth.sin(theta);
-                    world.sendParticles(p, particle, true, true,
+                    sendParticles(world, p, particle,
                             x + ccx, y + ccy, z + ccz, 1,
                             0.0, 0.0, 0.0, 0.0);
                 }
@@ -1402,7 +1425,7 @@ public class ShapeDispatcher
                         double x = radius * Mth.cos(phi);
                         double y = d;
                         double z = radius * Mth.sin(phi);
-                        world.sendParticles(p, particle, true, true, x + ccx, y + ccy, z + ccz, 1, 0.0, 0.0, 0.0, 0.0);
+                        sendParticles(world, p, particle, x + ccx, y + ccy, z + ccz, 1, 0.0, 0.0, 0.0, 0.0);
                     }
                 }
                 else if (axis == Direction.Axis.X)
@@ -1414,7 +1437,7 @@ public class ShapeDispatcher
                         double x = d;
                         double y = radius * Mth.cos(phi);
                         double z = radius * Mth.sin(phi);
-                        world.sendParticles(p, particle, true, true, x + ccx, y + ccy, z + ccz, 1, 0.0, 0.0, 0.0, 0.0);
+                        sendParticles(world, p, particle, x + ccx, y + ccy, z + ccz, 1, 0.0, 0.0, 0.0, 0.0);
                     }
                 }
                 else  // Z
@@ -1426,7 +1449,7 @@ public class ShapeDispatcher
                         double x = radius * Mth.sin(phi);
                         double y = radius * Mth.cos(phi);
                         double z = d;
-                        world.sendParticles(p, particle, true, true, x + ccx, y + ccy, z + ccz, 1, 0.0, 0.0, 0.0, 0.0);
+                        sendParticles(world, p, particle, x + ccx, y + ccy, z + ccz, 1, 0.0, 0.0, 0.0, 0.0);
                     }
                 }
             };
@@ -2195,12 +2218,12 @@ public class ShapeDispatcher
         for (ServerPlayer player : playerList)
         {
             ServerLevel world = (ServerLevel) player.level();
-            world.sendParticles(player, particle, true, true,
+            sendParticles(world, player, particle,
                     (towards.x) / 2 + from.x, (towards.y) / 2 + from.y, (towards.z) / 2 + from.z, particles / 3,
                     towards.x / 6, towards.y / 6, towards.z / 6, 0.0);
-            world.sendParticles(player, particle, true, true,
+            sendParticles(world, player, particle,
                     from.x, from.y, from.z, 1, 0.0, 0.0, 0.0, 0.0);
-            world.sendParticles(player, particle, true, true,
+            sendParticles(world, player, particle,
                     to.x, to.y, to.z, 1, 0.0, 0.0, 0.0, 0.0);
             parts += particles / 3 + 2;
         }
@@ -2212,10 +2235,10 @@ public class ShapeDispatcher
             for (ServerPlayer player : playerList)
             {
                 ServerLevel world = (ServerLevel) player.level();
-                world.sendParticles(player, particle, true, true,
+                sendParticles(world, player, particle,
                         (towards.x) / center + from.x, (towards.y) / center + from.y, (towards.z) / center + from.z, particles / divider,
                         towards.x / dev, towards.y / dev, towards.z / dev, 0.0);
-                world.sendParticles(player, particle, true, true,
+                sendParticles(world, player, particle,
                         (towards.x) * (1.0 - 1.0 / center) + from.x, (towards.y) * (1.0 - 1.0 / center) + from.y, (towards.z) * (1.0 - 1.0 / center) + from.z, particles / divider,
                         towards.x / dev, towards.y / dev, towards.z / dev, 0.0);
             }
@@ -2243,7 +2266,7 @@ public class ShapeDispatcher
                 Vec3 at = from.add(towards.scale(rand.nextDouble()));
                 for (ServerPlayer player : players)
                 {
-                    ((net.minecraft.server.level.ServerLevel) player.level()).sendParticles(player, particle, true, true,
+                    sendParticles((ServerLevel) player.level(), player, particle,
                             at.x, at.y, at.z, 1,
                             0.0, 0.0, 0.0, 0.0);
                     pcount++;
@@ -2264,7 +2287,7 @@ public class ShapeDispatcher
         {
             for (ServerPlayer player : players)
             {
-                ((net.minecraft.server.level.ServerLevel) player.level()).sendParticles(player, particle, true, true,
+                sendParticles((ServerLevel) player.level(), player, particle,
                         delta.x + from.x, delta.y + from.y, delta.z + from.z, 1,
                         0.0, 0.0, 0.0, 0.0);
                 pcount++;
@@ -0,0 +1,128 @@
+package carpet.script.utils;
+
+import carpet.script.external.Vanilla;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.core.RegistryAccess;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps track of shapes each carpet client holds, identified by shape keys, and until when they stay there.
+ * Clients update the expiry of shapes they receive again, so redrawing a shape the client already holds
+ * is only sent once the client's copy gets close to expiring, or if it is meant to disappear sooner.
+ * Shapes are queued and sent once per tick, with repeated draws of the same shape within a tick sent only once,
+ * and each shape serialized only once, no matter how many players receive it.
+ */
+public class ShapeSync
+{
+    private static final int MAX_PER_PACKET = 1000;
+    private static final int CLEANUP_INTERVAL = 100;
+
+    private static final class Client
+    {
+        ResourceKey<Level> dimension;
+        // tick when the client's copy of each shape expires
+        final Long2LongOpenHashMap expiries = new Long2LongOpenHashMap();
+        final Long2ObjectLinkedOpenHashMap<ShapeDispatcher.ShapeWithConfig> pending = new Long2ObjectLinkedOpenHashMap<>();
+    }
+
+    private final Map<ServerPlayer, Client> clients = new WeakHashMap<>();
+
+    /**
+     * Queues the shape to be sent to the player with the next flush, unless the player's client already holds it long enough
+     */
+    public synchronized void queue(ServerPlayer player, ShapeDispatcher.ShapeWithConfig shape, RegistryAccess regs, long tick)
+    {
+        Client client = clients.computeIfAbsent(player, p -> new Client());
+        ResourceKey<Level> dimension = player.level().dimension();
+        if (client.dimension != dimension)
+        {
+            // client might have dropped shapes it held
+            client.dimension = dimension;
+            client.expiries.clear();
+        }
+        int duration = shape.shape().duration;
+        long key = shape.shape().key(regs);
+        long expiry = tick + duration;
+        if (duration > 0 && client.expiries.containsKey(key))
+        {
+            long held = client.expiries.get(key);
+            long remaining = held - tick;
+            // refreshing when half of the requested lifetime is left, so the shape never outlives the request
+            if (held >= expiry || (remaining > 1 && 2 * remaining > duration))
+            {
+                return;
+            }
+        }
+        client.pending.putAndMoveToLast(key, shape);
+        if (duration > 0)
+        {
+            client.expiries.put(key, expiry);
+        }
+        else
+        {
+            client.expiries.remove(key);
+        }
+    }
+
+    /**
+     * Sends all queued shapes
+     */
+    public synchronized void flush(RegistryAccess regs, long tick)
+    {
+        if (clients.isEmpty())
+        {
+            return;
+        }
+        // shapes sent to several players are the same instance
+        Map<ShapeDispatcher.ShapeWithConfig, CompoundTag> encoded = new IdentityHashMap<>();
+        Iterator<Map.Entry<ServerPlayer, Client>> iterator = clients.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            Map.Entry<ServerPlayer, Client> entry = iterator.next();
+            ServerPlayer player = entry.getKey();
+            Client client = entry.getValue();
+            if (player.hasDisconnected())
+            {
+                iterator.remove();
+                continue;
+            }
+            if (!client.pending.isEmpty())
+            {
+                ListTag tag = new ListTag();
+                for (Long2ObjectLinkedOpenHashMap.Entry<ShapeDispatcher.ShapeWithConfig> shape : client.pending.long2ObjectEntrySet())
+                {
+                    tag.add(encoded.computeIfAbsent(shape.getValue(), s -> ShapeDispatcher.ExpiringShape.toTag(s.config(), regs)));
+                    if (tag.size() >= MAX_PER_PACKET)
+                    {
+                        Vanilla.sendScarpetShapesDataToPlayer(player, tag);
+                        tag = new ListTag();
+                    }
+                }
+                if (!tag.isEmpty())
+                {
+                    Vanilla.sendScarpetShapesDataToPlayer(player, tag);
+                }
+                client.pending.clear();
+            }
+            if (tick % CLEANUP_INTERVAL == 0)
+            {
+                client.expiries.long2LongEntrySet().removeIf(e -> e.getLongValue() < tick);
+            }
+        }
+    }
+
+    public synchronized void clear()
+    {
+        clients.clear();
+    }
+}
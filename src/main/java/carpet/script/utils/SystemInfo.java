@@ -45,6 +45,11 @@ public class SystemInfo
         options.put("app_list", c -> ListValue.wrap(((CarpetScriptHost) c.host).scriptServer().modules.keySet().stream().filter(Objects::nonNull).map(StringValue::new)));
         options.put("app_scope", c -> StringValue.of((c.host).isPerUser() ? "player" : "global"));
         options.put("app_players", c -> ListValue.wrap(c.host.getUserList().stream().map(StringValue::new)));
+        options.put("app_task_pools", c -> {
+            Map<Value, Value> pools = new HashMap<>();
+            c.host.getTaskPools().forEach((name, pool) -> pools.put(name, pool.getMetrics()));
+            return MapValue.wrap(pools);
+        });
 
         options.put("world_name", c -> new StringValue(c.server().getWorldData().getLevelName()));
         options.put("world_seed", c -> new NumericValue(c.level().getSeed()));
@@ -181,6 +186,7 @@ public class SystemInfo
             return ListValue.of(new NumericValue(rotation.x), new NumericValue(rotation.y));
         });
         options.put("scarpet_version", c -> StringValue.of(Carpet.getCarpetVersion()));
+        options.put("scarpet_parse_caches", c -> ParseCache.getAllMetrics());
     }
 
     public static Value get(String what, CarpetContext cc)
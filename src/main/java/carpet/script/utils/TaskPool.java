@@ -0,0 +1,338 @@
+package carpet.script.utils;
+
+import carpet.script.exception.InternalExpressionException;
+import carpet.script.value.MapValue;
+import carpet.script.value.NumericValue;
+import carpet.script.value.StringValue;
+import carpet.script.value.Value;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Executor backing a single scarpet task pool (as used by {@code task_thread(pool, ...)}).
+ * Runs tasks according to its {@link Policy}: on virtual threads, on a bounded fork-join pool,
+ * or on a cached pool of platform threads, optionally capping the number of concurrently running
+ * tasks and the number of tasks waiting for a free slot.
+ */
+public class TaskPool implements Executor
+{
+    public enum Mode
+    {
+        /** one virtual thread per task, for tasks that mostly wait on I/O or sleep */
+        VIRTUAL,
+        /** work-stealing pool with a fixed parallelism, for computation heavy tasks */
+        CPU,
+        /** legacy cached pool of platform threads */
+        THREADS;
+
+        public static Mode fromString(String name)
+        {
+            try
+            {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new InternalExpressionException("Unknown task pool mode: " + name + ", expected 'virtual', 'cpu' or 'threads'");
+            }
+        }
+    }
+
+    /**
+     * @param mode        how threads are provided to tasks
+     * @param concurrency max number of tasks running at the same time, 0 for no limit
+     * @param queueLimit  max number of tasks waiting for a free slot when at the concurrency limit, -1 for no limit
+     */
+    public record Policy(Mode mode, int concurrency, int queueLimit)
+    {
+        public static final Policy DEFAULT = new Policy(Mode.VIRTUAL, 0, -1);
+
+        /**
+         * Reads a policy from an app config entry, like {@code {'mode' -> 'cpu', 'concurrency' -> 4, 'queue' -> 100}}
+         */
+        public static Policy fromValue(Value value)
+        {
+            if (!(value instanceof final MapValue map))
+            {
+                throw new InternalExpressionException("Task pool configuration should be a map");
+            }
+            Map<Value, Value> options = map.getMap();
+            Value modeValue = options.get(StringValue.of("mode"));
+            Mode mode = modeValue == null ? DEFAULT.mode : Mode.fromString(modeValue.getString());
+            Value concurrencyValue = options.get(StringValue.of("concurrency"));
+            int concurrency = concurrencyValue == null ? 0 : NumericValue.asNumber(concurrencyValue, "concurrency").getInt();
+            Value queueValue = options.get(StringValue.of("queue"));
+            int queue = queueValue == null ? -1 : NumericValue.asNumber(queueValue, "queue").getInt();
+            if (concurrency < 0)
+            {
+                throw new InternalExpressionException("Task pool concurrency cannot be negative");
+            }
+            return new Policy(mode, concurrency, Math.max(queue, -1));
+        }
+
+        /**
+         * Reads the 'task_pools' app config entry, mapping pool names to their policies.
+         * Policy under '*' key applies to all pools that are not listed explicitly.
+         */
+        public static Map<Value, Policy> fromConfig(Value config)
+        {
+            if (config == null)
+            {
+                return Map.of();
+            }
+            if (!(config instanceof final MapValue map))
+            {
+                throw new InternalExpressionException("'task_pools' app config should be a map of pool names to their settings");
+            }
+            Map<Value, Policy> policies = new HashMap<>();
+            map.getMap().forEach((k, v) -> policies.put(k, fromValue(v)));
+            return policies;
+        }
+    }
+
+    /**
+     * A queued task, with what to do with it if the pool shuts down before it starts
+     */
+    private record Task(Runnable action, Runnable onDrop)
+    {
+    }
+
+    public final Policy policy;
+    private final ExecutorService delegate;
+    private final ArrayDeque<Task> backlog = new ArrayDeque<>();
+    private int running = 0;
+    private int peakRunning = 0;
+    private boolean shutdown = false;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public TaskPool(String name, Policy policy)
+    {
+        this.policy = policy;
+        String prefix = "scarpet-" + name + "-";
+        this.delegate = switch (policy.mode)
+        {
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory());
+            case CPU -> new ForkJoinPool(
+                    policy.concurrency > 0 ? policy.concurrency : Runtime.getRuntime().availableProcessors(),
+                    pool -> {
+                        var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName(prefix + thread.getPoolIndex());
+                        return thread;
+                    },
+                    null, true);
+            case THREADS -> Executors.newCachedThreadPool(platformFactory(prefix));
+        };
+    }
+
+    private static ThreadFactory platformFactory(String prefix)
+    {
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Runs the task in the pool
+     *
+     * @param dropped value the future completes with if the pool shuts down before the task starts
+     * @throws RejectedExecutionException if the pool is shutting down or its queue is full
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task, T dropped)
+    {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        submit(new Task(() -> {
+            try
+            {
+                future.complete(task.get());
+            }
+            catch (Throwable e)
+            {
+                // as supplyAsync would
+                future.completeExceptionally(e);
+            }
+        }, () -> future.complete(dropped)));
+        return future;
+    }
+
+    /**
+     * Runs the task in the pool. Tasks dropped by {@link #shutdown} before they start are not run, use {@link #submit}
+     * to get notified of that.
+     */
+    @Override
+    public void execute(Runnable task)
+    {
+        submit(new Task(task, () -> {}));
+    }
+
+    private void submit(Task task)
+    {
+        synchronized (this)
+        {
+            if (shutdown)
+            {
+                rejected.increment();
+                throw new RejectedExecutionException("Task pool is shutting down");
+            }
+            if (policy.concurrency > 0 && running >= policy.concurrency)
+            {
+                if (policy.queueLimit >= 0 && backlog.size() >= policy.queueLimit)
+                {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Task pool is full");
+                }
+                submitted.increment();
+                backlog.add(task);
+                return;
+            }
+            submitted.increment();
+            running++;
+            peakRunning = Math.max(peakRunning, running);
+        }
+        dispatch(task);
+    }
+
+    private void dispatch(Task task)
+    {
+        try
+        {
+            delegate.execute(() -> {
+                try
+                {
+                    task.action().run();
+                }
+                finally
+                {
+                    completed.increment();
+                    next();
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // delegate is already shut down, which also drops the backlog
+            rejected.increment();
+            task.onDrop().run();
+            synchronized (this)
+            {
+                running--;
+            }
+        }
+    }
+
+    private void next()
+    {
+        Task next;
+        synchronized (this)
+        {
+            next = shutdown ? null : backlog.poll();
+            if (next == null)
+            {
+                running--;
+            }
+        }
+        if (next != null)
+        {
+            dispatch(next);
+        }
+    }
+
+    /**
+     * @return number of running and queued tasks
+     */
+    public synchronized int taskCount()
+    {
+        return running + backlog.size();
+    }
+
+    /**
+     * Stops accepting new tasks and drops ones that haven't started yet, completing their futures with their dropped value.
+     * Running tasks are left to finish.
+     */
+    public void shutdown()
+    {
+        List<Task> dropped;
+        synchronized (this)
+        {
+            shutdown = true;
+            dropped = List.copyOf(backlog);
+            backlog.clear();
+        }
+        delegate.shutdown();
+        dropped.forEach(task -> task.onDrop().run());
+    }
+
+    public Value getMetrics()
+    {
+        Map<Value, Value> metrics = new HashMap<>();
+        synchronized (this)
+        {
+            metrics.put(StringValue.of("running"), NumericValue.of(running));
+            metrics.put(StringValue.of("queued"), NumericValue.of(backlog.size()));
+            metrics.put(StringValue.of("peak_running"), NumericValue.of(peakRunning));
+        }
+        metrics.put(StringValue.of("mode"), StringValue.of(policy.mode.name().toLowerCase(Locale.ROOT)));
+        metrics.put(StringValue.of("concurrency"), NumericValue.of(policy.concurrency));
+        metrics.put(StringValue.of("queue_limit"), NumericValue.of(policy.queueLimit));
+        metrics.put(StringValue.of("submitted"), NumericValue.of(submitted.sum()));
+        metrics.put(StringValue.of("completed"), NumericValue.of(completed.sum()));
+        metrics.put(StringValue.of("rejected"), NumericValue.of(rejected.sum()));
+        return MapValue.wrap(metrics);
+    }
+
+    /**
+     * Waits for already shut down pools on a single background thread, giving all of them a shared grace period,
+     * then interrupts whatever is still running, and reports pools that didn't manage to stop.
+     */
+    public static void terminate(List<TaskPool> pools, long graceMillis, Consumer<String> onFailure)
+    {
+        if (pools.isEmpty())
+        {
+            return;
+        }
+        Thread.ofVirtual().name("scarpet-pool-stopper").start(() -> {
+            try
+            {
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMillis);
+                for (TaskPool pool : pools)
+                {
+                    pool.delegate.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+                pools.forEach(p -> p.delegate.shutdownNow());
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMillis);
+                for (TaskPool pool : pools)
+                {
+                    if (!pool.delegate.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))
+                    {
+                        onFailure.accept("Failed to stop app's thread");
+                    }
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                pools.forEach(p -> p.delegate.shutdownNow());
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package carpet.script.utils;
+
+import carpet.script.exception.InternalExpressionException;
+import carpet.script.external.Carpet;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+
+/**
+ * Limits the time each app can take on the server thread per tick, set with {@code scarpetAppTickBudget}.
+ * Calls into an app are timed from the script server, and the interpreter checks the time spent at loop iterations
+ * and function calls, reading the clock only every {@link #CHECK_INTERVAL} checks.
+ * Going over the budget aborts the running call with an error. Scheduled calls of an app that already used its budget
+ * wait for the next tick instead of starting.
+ * Only the server thread is limited, async tasks can't slow the ticks down.
+ */
+public class TickBudget
+{
+    private static final int CHECK_INTERVAL = 256;
+    private static final Runnable NOOP = () -> {};
+
+    // all of it is only used by the server thread
+    private static final Object2LongOpenHashMap<String> used = new Object2LongOpenHashMap<>();
+    private static Thread owner;
+    private static String app;
+    private static long budget;
+    private static long usedBefore;
+    private static long callStart;
+    private static int countdown;
+
+    private static String name(String app)
+    {
+        return app == null ? "global" : app;
+    }
+
+    /**
+     * Gives all apps their full budget again, called by the server thread once per tick
+     */
+    public static void startTick()
+    {
+        owner = Thread.currentThread();
+        used.clear();
+        if (app != null)
+        {
+            // game_tick() in the middle of a call
+            usedBefore = 0L;
+            callStart = System.nanoTime();
+        }
+    }
+
+    /**
+     * Starts timing a call into the app, until the returned token is run
+     */
+    public static Runnable enter(String appName)
+    {
+        long budgetNanos = Carpet.getAppTickBudget() * 1_000_000L;
+        if (budgetNanos <= 0L || Thread.currentThread() != owner)
+        {
+            return NOOP;
+        }
+        long now = System.nanoTime();
+        String previous = app;
+        if (previous != null)
+        {
+            used.addTo(previous, now - callStart);
+        }
+        String name = name(appName);
+        app = name;
+        budget = budgetNanos;
+        usedBefore = used.getLong(name);
+        callStart = now;
+        countdown = CHECK_INTERVAL;
+        return () -> {
+            long end = System.nanoTime();
+            used.addTo(name, end - callStart);
+            app = previous;
+            callStart = end;
+            if (previous != null)
+            {
+                usedBefore = used.getLong(previous);
+            }
+        };
+    }
+
+    /**
+     * Called by the interpreter at loop iterations and function calls
+     *
+     * @throws InternalExpressionException once the running app goes over its budget
+     */
+    public static void check()
+    {
+        if (app == null || Thread.currentThread() != owner || --countdown > 0)
+        {
+            return;
+        }
+        countdown = CHECK_INTERVAL;
+        if (usedBefore + System.nanoTime() - callStart > budget)
+        {
+            throw new InternalExpressionException("App '%s' went over its tick budget of %dms and got stopped, see /carpet scarpetAppTickBudget".formatted(app, budget / 1_000_000L));
+        }
+    }
+
+    /**
+     * @return true if the app already used its whole budget in this tick
+     */
+    public static boolean isExhausted(String appName)
+    {
+        long budgetNanos = Carpet.getAppTickBudget() * 1_000_000L;
+        return budgetNanos > 0L && Thread.currentThread() == owner && used.getLong(name(appName)) >= budgetNanos;
+    }
+}
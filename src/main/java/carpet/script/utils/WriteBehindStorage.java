@@ -0,0 +1,403 @@
+package carpet.script.utils;
+
+import carpet.script.CarpetScriptServer;
+
+import jakarta.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Storage of app files that defers writes to a background thread.
+ * Writes to the same file are coalesced, so only the latest content of a file that is written repeatedly hits the disk,
+ * and are saved to a temporary file first, then moved in place of the original one.
+ * Reads of files with writes still pending are served from memory.
+ * Queuing a write never waits for disk I/O. Disk access is synchronized per file, so reading a file only waits
+ * for a write of that same file that is already running, and I/O of one app doesn't block other apps.
+ */
+public class WriteBehindStorage
+{
+    @FunctionalInterface
+    public interface Source
+    {
+        InputStream open() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Reader<T>
+    {
+        @Nullable
+        T read(Source source) throws IOException;
+    }
+
+    private sealed interface Pending permits Replace, Append, Delete
+    {
+    }
+
+    private record Replace(byte[] content) implements Pending
+    {
+    }
+
+    private record Append(byte[] content) implements Pending
+    {
+    }
+
+    private record Delete() implements Pending
+    {
+    }
+
+    // latest content of each file not saved yet, taken out as a whole by the write that saves it
+    private final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+    // held while accessing each file on disk, so its writes happen in order and reads see whole writes,
+    // only kept while some thread holds or waits for them
+    private final Map<Path, FileLock> fileLocks = new ConcurrentHashMap<>();
+    private final Set<Path> scheduled = ConcurrentHashMap.newKeySet();
+    private final ExecutorService writer;
+    private volatile boolean closed = false;
+
+    public WriteBehindStorage()
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "scarpet-storage-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        writer = executor;
+    }
+
+    private static final class FileLock extends ReentrantLock
+    {
+        // threads holding or waiting for the lock, only changed within compute of fileLocks
+        int users;
+    }
+
+    private static Path key(Path path)
+    {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private FileLock acquire(Path file)
+    {
+        FileLock lock = fileLocks.compute(file, (k, current) -> {
+            FileLock used = current == null ? new FileLock() : current;
+            used.users++;
+            return used;
+        });
+        lock.lock();
+        return lock;
+    }
+
+    private void release(Path file, FileLock lock)
+    {
+        lock.unlock();
+        fileLocks.compute(file, (k, current) -> --current.users == 0 ? null : current);
+    }
+
+    /**
+     * Runs the action while holding the lock of given file, for operations that need to access the file directly
+     */
+    public <T> T withLock(Path path, Supplier<T> action)
+    {
+        Path file = key(path);
+        FileLock lock = acquire(file);
+        try
+        {
+            return action.get();
+        }
+        finally
+        {
+            release(file, lock);
+        }
+    }
+
+    /**
+     * Replaces content of the file
+     */
+    public void write(Path path, byte[] content)
+    {
+        Path file = key(path);
+        pending.put(file, new Replace(content));
+        schedule(file);
+    }
+
+    public void append(Path path, byte[] content)
+    {
+        Path file = key(path);
+        pending.compute(file, (k, current) -> switch (current)
+        {
+            case null -> new Append(content);
+            case Replace replace -> new Replace(concat(replace.content, content));
+            case Append append -> new Append(concat(append.content, content));
+            case Delete ignored -> new Replace(content);
+        });
+        schedule(file);
+    }
+
+    /**
+     * @return true if the file existed, taking pending writes into account
+     */
+    public boolean delete(Path path)
+    {
+        Path file = key(path);
+        boolean existed;
+        FileLock lock = acquire(file);
+        try
+        {
+            // no write of the file runs meanwhile, so the disk shows it before this delete
+            existed = switch (pending.put(file, new Delete()))
+            {
+                case null -> Files.exists(file);
+                case Delete ignored -> false;
+                default -> true;
+            };
+        }
+        finally
+        {
+            release(file, lock);
+        }
+        schedule(file);
+        return existed;
+    }
+
+    /**
+     * @return true if the file exists, taking pending writes into account
+     */
+    public boolean exists(Path path)
+    {
+        Path file = key(path);
+        FileLock lock = acquire(file);
+        try
+        {
+            return switch (pending.get(file))
+            {
+                case null -> Files.isRegularFile(file);
+                case Delete ignored -> false;
+                default -> true;
+            };
+        }
+        finally
+        {
+            release(file, lock);
+        }
+    }
+
+    /**
+     * Reads the file with given reader, from memory if the file has a pending write, or from disk otherwise
+     *
+     * @return value provided by the reader, or null if the file doesn't exist
+     */
+    @Nullable
+    public <T> T read(Path path, Reader<T> reader) throws IOException
+    {
+        Path file = key(path);
+        Pending current = pending.get(file);
+        if (current instanceof Replace(byte[] content))
+        {
+            return reader.read(() -> new ByteArrayInputStream(content));
+        }
+        if (current instanceof Delete)
+        {
+            return null;
+        }
+        FileLock lock = acquire(file);
+        try
+        {
+            // pending content might have changed while waiting for the lock
+            current = pending.get(file);
+            if (current instanceof Replace(byte[] content))
+            {
+                return reader.read(() -> new ByteArrayInputStream(content));
+            }
+            if (current instanceof Delete)
+            {
+                return null;
+            }
+            if (current instanceof Append)
+            {
+                flushLocked(file);
+            }
+            if (!Files.isRegularFile(file))
+            {
+                return null;
+            }
+            return reader.read(() -> Files.newInputStream(file));
+        }
+        finally
+        {
+            release(file, lock);
+        }
+    }
+
+    /**
+     * Saves pending writes of given file, and runs the action with the file while holding its lock
+     */
+    public void withFile(Path path, Consumer<Path> action)
+    {
+        Path file = key(path);
+        FileLock lock = acquire(file);
+        try
+        {
+            flushLocked(file);
+            action.accept(path);
+        }
+        finally
+        {
+            release(file, lock);
+        }
+    }
+
+    /**
+     * Saves pending writes of all files within given folder
+     */
+    public void flush(Path folder)
+    {
+        Path root = key(folder);
+        for (Path file : List.copyOf(pending.keySet()))
+        {
+            if (file.startsWith(root))
+            {
+                flushFile(file);
+            }
+        }
+    }
+
+    /**
+     * Saves all pending writes on the calling thread. After this call, content of all files previously written is on disk.
+     */
+    public void flush()
+    {
+        for (Path file : List.copyOf(pending.keySet()))
+        {
+            flushFile(file);
+        }
+    }
+
+    /**
+     * Saves pending writes and stops the background writer. Writes made after that are saved right away, on the calling thread.
+     */
+    public void close()
+    {
+        closed = true;
+        writer.shutdown();
+        flush();
+    }
+
+    public int pendingWrites()
+    {
+        return pending.size();
+    }
+
+    private void schedule(Path file)
+    {
+        if (closed)
+        {
+            flushFile(file);
+            return;
+        }
+        if (!scheduled.add(file))
+        {
+            // will pick up the latest content when it runs
+            return;
+        }
+        try
+        {
+            writer.execute(() -> {
+                scheduled.remove(file);
+                flushFile(file);
+            });
+        }
+        catch (RejectedExecutionException ignored)
+        {
+            scheduled.remove(file);
+            flushFile(file);
+        }
+    }
+
+    private void flushFile(Path file)
+    {
+        FileLock lock = acquire(file);
+        try
+        {
+            flushLocked(file);
+        }
+        finally
+        {
+            release(file, lock);
+        }
+    }
+
+    /**
+     * Saves the latest pending content of the file, called while holding its lock, so writes of the file keep their order
+     */
+    private void flushLocked(Path file)
+    {
+        Pending current = pending.remove(file);
+        if (current == null)
+        {
+            return;
+        }
+        try
+        {
+            switch (current)
+            {
+                case Replace(byte[] content) -> {
+                    createParent(file);
+                    Path temp = file.resolveSibling(file.getFileName() + "_tmp");
+                    Files.write(temp, content);
+                    try
+                    {
+                        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    catch (AtomicMoveNotSupportedException e)
+                    {
+                        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                case Append(byte[] content) -> {
+                    createParent(file);
+                    Files.write(file, content, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+                }
+                case Delete ignored -> Files.deleteIfExists(file);
+            }
+        }
+        catch (IOException e)
+        {
+            CarpetScriptServer.LOG.warn("Unable to save app file " + file, e);
+        }
+    }
+
+    private static void createParent(Path file) throws IOException
+    {
+        Path parent = file.getParent();
+        if (parent != null && !Files.exists(parent))
+        {
+            Files.createDirectories(parent);
+        }
+    }
+
+    private static byte[] concat(byte[] first, byte[] second)
+    {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -12,6 +12,7 @@ import carpet.script.exception.InternalExpressionException;
 import carpet.script.external.Carpet;
 import carpet.script.utils.EntityTools;
 import carpet.script.utils.InputValidator;
+import carpet.script.utils.ParseCache;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import net.minecraft.commands.CommandSourceStack;
@@ -113,19 +114,13 @@ public class EntityValue extends Value
         return e == null ? Value.NULL : new EntityValue(e);
     }
 
-    private static final Map<String, EntitySelector> selectorCache = new HashMap<>();
+    private static final ParseCache<EntitySelector> selectorCache = ParseCache.create("selectors", 1024);
 
     public static Collection<? extends Entity> getEntitiesFromSelector(CommandSourceStack source, String selector)
     {
         try
         {
-            EntitySelector entitySelector = selectorCache.get(selector);
-            if (entitySelector != null)
-            {
-                return entitySelector.findEntities(source.withMaximumPermission(CommandHelper.permissionSetForLevel(4)));
-            }
-            entitySelector = new EntitySelectorParser(new StringReader(selector), true).parse();
-            selectorCache.put(selector, entitySelector);
+            EntitySelector entitySelector = selectorCache.get(selector, s -> new EntitySelectorParser(new StringReader(s), true).parse());
             return entitySelector.findEntities(source.withMaximumPermission(CommandHelper.permissionSetForLevel(4)));
         }
         catch (CommandSyntaxException e)
@@ -403,13 +398,28 @@ public class EntityValue extends Value
 
     public Value get(String what, @Nullable Value arg)
     {
-        if (!(featureAccessors.containsKey(what)))
+        BiFunction<Entity, Value, Value> accessor = featureAccessors.get(what);
+        if (accessor == null)
         {
             throw new InternalExpressionException("Unknown entity feature: " + what);
         }
+        return get(accessor, what, arg);
+    }
+
+    /**
+     * @return accessor for the feature, for repeated queries of the same feature, or null if there is no such feature
+     */
+    @Nullable
+    public static BiFunction<Entity, Value, Value> getAccessor(String what)
+    {
+        return featureAccessors.get(what);
+    }
+
+    public Value get(BiFunction<Entity, Value, Value> accessor, String what, @Nullable Value arg)
+    {
         try
         {
-            return featureAccessors.get(what).apply(getEntity(), arg);
+            return accessor.apply(getEntity(), arg);
         }
         catch (NullPointerException npe)
         {
@@ -887,13 +897,28 @@ public class EntityValue extends Value
 
     public void set(String what, @Nullable Value toWhat)
     {
-        if (!(featureModifiers.containsKey(what)))
+        BiConsumer<Entity, Value> modifier = featureModifiers.get(what);
+        if (modifier == null)
         {
             throw new InternalExpressionException("Unknown entity action: " + what);
         }
+        set(modifier, what, toWhat);
+    }
+
+    /**
+     * @return modifier for the feature, for repeated modifications of the same feature, or null if there is no such feature
+     */
+    @Nullable
+    public static BiConsumer<Entity, Value> getModifier(String what)
+    {
+        return featureModifiers.get(what);
+    }
+
+    public void set(BiConsumer<Entity, Value> modifier, String what, @Nullable Value toWhat)
+    {
         try
         {
-            featureModifiers.get(what).accept(getEntity(), toWhat);
+            modifier.accept(getEntity(), toWhat);
         }
         catch (NullPointerException npe)
         {
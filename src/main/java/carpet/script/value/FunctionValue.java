@@ -12,6 +12,8 @@ import carpet.script.exception.ContinueStatement;
 import carpet.script.exception.ExpressionException;
 import carpet.script.exception.InternalExpressionException;
 import carpet.script.exception.ReturnStatement;
+import carpet.script.utils.AppProfiler;
+import carpet.script.utils.TickBudget;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -266,7 +268,9 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
             newFrame.setVariable(varArgs, (cc, tt) -> rest);
 
         }
+        TickBudget.check();
         Value retVal;
+        AppProfiler.Frame profilerFrame = AppProfiler.enter(c.host.getName(), name);
         try
         {
             retVal = body.evalValue(newFrame, type); // todo not sure if we need to propagete type / consider boolean context in defined functions - answer seems ye
@@ -279,6 +283,10 @@ public class FunctionValue extends Value implements Fluff.ILazyFunction
         {
             retVal = returnStatement.retval;
         }
+        finally
+        {
+            AppProfiler.exit(profilerFrame);
+        }
         Value otherRetVal = retVal;
         return (cc, tt) -> otherRetVal;
     }
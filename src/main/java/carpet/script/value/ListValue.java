@@ -2,6 +2,7 @@ package carpet.script.value;
 
 import carpet.script.LazyValue;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.utils.ForkableList;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 
@@ -12,6 +13,7 @@ import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -30,7 +32,9 @@ import static java.lang.Math.abs;
 
 public class ListValue extends AbstractListValue implements ContainerValueInterface
 {
-    protected final List<Value> items;
+    protected final ForkableList<Value> items;
+    // values that can be shared between deep copies of containers, as they cannot be modified in place
+    static final Predicate<Value> SHAREABLE = v -> !(v instanceof ContainerValueInterface) && !(v instanceof AbstractListValue);
 
     @Override
     public String getString()
@@ -61,22 +65,27 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
     @Override
     public Value deepcopy()
     {
+        if (items.allMatch(SHAREABLE))
+        {
+            // nothing to copy deeper, sharing items until one of the lists changes
+            return new ListValue(items.fork());
+        }
         List<Value> copyItems = new ArrayList<>(items.size());
         for (Value entry : items)
         {
-            copyItems.add(entry.deepcopy());
+            copyItems.add(SHAREABLE.test(entry) ? entry : entry.deepcopy());
         }
         return new ListValue(copyItems);
     }
 
     public ListValue(Collection<? extends Value> list)
     {
-        items = new ArrayList<>(list);
+        items = ForkableList.copyOf(list);
     }
 
     protected ListValue(List<Value> list)
     {
-        items = list;
+        items = ForkableList.of(list);
     }
 
     public static Value fromTriple(double a, double b, double c)
@@ -123,7 +132,7 @@ public class ListValue extends AbstractListValue implements ContainerValueInterf
 
     private ListValue()
     {
-        items = new ArrayList<>();
+        items = new ForkableList<>();
     }
 
     @Override
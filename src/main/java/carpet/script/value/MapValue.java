@@ -1,6 +1,7 @@
 package carpet.script.value;
 
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.utils.ForkableMap;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
@@ -11,6 +12,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 import net.minecraft.core.RegistryAccess;
@@ -19,11 +21,12 @@ import net.minecraft.nbt.Tag;
 
 public class MapValue extends AbstractListValue implements ContainerValueInterface
 {
-    private final Map<Value, Value> map;
+    private final ForkableMap<Value, Value> map;
+    private static final BiPredicate<Value, Value> SHAREABLE_ENTRY = (k, v) -> ListValue.SHAREABLE.test(k) && ListValue.SHAREABLE.test(v);
 
     private MapValue()
     {
-        map = new HashMap<>();
+        map = new ForkableMap<>();
     }
 
     public MapValue(List<Value> kvPairs)
@@ -41,19 +44,19 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
     @Override
     public Iterator<Value> iterator()
     {
-        return new ArrayList<>(map.keySet()).iterator();
+        return new ArrayList<>(map.readOnly().keySet()).iterator();
     }
 
     @Override
     public List<Value> unpack()
     {
-        return map.entrySet().stream().map(e -> ListValue.of(e.getKey(), e.getValue())).collect(Collectors.toList());
+        return map.readOnly().entrySet().stream().map(e -> ListValue.of(e.getKey(), e.getValue())).collect(Collectors.toList());
     }
 
     @Override
     public String getString()
     {
-        return "{" + map.entrySet().stream().map(p -> p.getKey().getString() + ": " + p.getValue().getString()).collect(Collectors.joining(", ")) + "}";
+        return "{" + map.readOnly().entrySet().stream().map(p -> p.getKey().getString() + ": " + p.getValue().getString()).collect(Collectors.joining(", ")) + "}";
     }
 
     @Override
@@ -61,9 +64,9 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
     {
         if (map.size() < 6)
         {
-            return "{" + map.entrySet().stream().map(p -> p.getKey().getPrettyString() + ": " + p.getValue().getPrettyString()).collect(Collectors.joining(", ")) + "}";
+            return "{" + map.readOnly().entrySet().stream().map(p -> p.getKey().getPrettyString() + ": " + p.getValue().getPrettyString()).collect(Collectors.joining(", ")) + "}";
         }
-        List<Value> keys = new ArrayList<>(map.keySet());
+        List<Value> keys = new ArrayList<>(map.readOnly().keySet());
         int max = keys.size();
         return "{" + keys.get(0).getPrettyString() + ": " + map.get(keys.get(0)).getPrettyString() + ", " +
                 keys.get(1).getPrettyString() + ": " + map.get(keys.get(1)).getPrettyString() + ", ..., " +
@@ -86,14 +89,22 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
     @Override
     public Value deepcopy()
     {
+        if (map.allMatch(SHAREABLE_ENTRY))
+        {
+            // nothing to copy deeper, sharing entries until one of the maps changes
+            return new MapValue(map.fork());
+        }
         Map<Value, Value> copyMap = new HashMap<>();
-        map.forEach((key, value) -> copyMap.put(key.deepcopy(), value.deepcopy()));
+        map.forEach((key, value) -> copyMap.put(
+                ListValue.SHAREABLE.test(key) ? key : key.deepcopy(),
+                ListValue.SHAREABLE.test(value) ? value : value.deepcopy()
+        ));
         return new MapValue(copyMap);
     }
 
     private MapValue(Map<Value, Value> other)
     {
-        map = other;
+        map = other instanceof ForkableMap<Value, Value> forkable ? forkable : new ForkableMap<>(other);
     }
 
     public static MapValue wrap(Map<Value, Value> other)
@@ -104,10 +115,10 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
     @Override
     public Value add(Value o)
     {
-        Map<Value, Value> newItems = new HashMap<>(map);
+        Map<Value, Value> newItems = new HashMap<>(map.readOnly());
         if (o instanceof MapValue mapValue)
         {
-            newItems.putAll(mapValue.map);
+            newItems.putAll(mapValue.map.readOnly());
         }
         else if (o instanceof AbstractListValue alv)
         {
@@ -178,6 +189,15 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
         return map;
     }
 
+    /**
+     * @return unmodifiable view of the entries, valid until this map is modified. Unlike {@link #getMap()},
+     * it doesn't make a map that shares its entries with copies take its own copy.
+     */
+    public Map<Value, Value> readOnlyMap()
+    {
+        return map.readOnly();
+    }
+
     public void extend(List<Value> subList)
     {
         subList.forEach(this::put);
@@ -268,7 +288,7 @@ public class MapValue extends AbstractListValue implements ContainerValueInterfa
     public JsonElement toJson()
     {
         JsonObject jsonMap = new JsonObject();
-        List<Value> keys = new ArrayList<>(map.keySet());
+        List<Value> keys = new ArrayList<>(map.readOnly().keySet());
         Collections.sort(keys);
         keys.forEach(k -> jsonMap.add(k.getString(), map.get(k).toJson()));
         return jsonMap;
@@ -6,6 +6,7 @@ import carpet.script.exception.ThrowStatement;
 import carpet.script.exception.Throwables;
 import carpet.script.external.Vanilla;
 import carpet.script.utils.EquipmentInventory;
+import carpet.script.utils.ParseCache;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 
@@ -15,13 +16,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import net.minecraft.commands.CommandBuildContext;
 import net.minecraft.commands.arguments.NbtPathArgument;
+import net.minecraft.commands.arguments.item.ItemArgument;
 import net.minecraft.commands.arguments.item.ItemInput;
-import net.minecraft.commands.arguments.item.ItemParser;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Holder;
 import net.minecraft.core.RegistryAccess;
@@ -48,6 +51,7 @@ import net.minecraft.world.entity.LivingEntity;
 import net.minecraft.world.entity.animal.equine.AbstractHorse;
 import net.minecraft.world.entity.npc.InventoryCarrier;
 import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.flag.FeatureFlags;
 import net.minecraft.world.item.ItemStack;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.ChestBlock;
@@ -64,6 +68,10 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
     private Tag nbtTag = null;
     private Supplier<Tag> nbtSupplier = null;
     private boolean owned = false;
+    // results of recent path lookups, only kept while the tag is not owned, so it is not modified in place.
+    // Pure operators like ':' can query the same value from parallel loops, so it is concurrent
+    @Nullable
+    private volatile Map<String, List<Tag>> lookups = null;
     private static TagParser<Tag> tagParser = TagParser.create(NbtOps.INSTANCE);
 
     private NBTSerializableValue()
@@ -165,9 +173,10 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
     @Override
     public Value deepcopy()
     {
+        // both values share the tag until either of them is modified, which then takes its own copy
         NBTSerializableValue copy = (NBTSerializableValue) clone();
         copy.owned = false;
-        ensureOwnership();
+        owned = false;
         return copy;
     }
 
@@ -337,7 +346,7 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
         }
     }
 
-    private static final Map<String, ItemInput> itemCache = new HashMap<>();
+    private static final ParseCache<ItemInput> itemCache = ParseCache.create("items", 4096);
 
     public static ItemStack parseItem(String itemString, RegistryAccess regs)
     {
@@ -351,14 +360,8 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
         }
         try
         {
-            ItemInput res = itemCache.get(itemString);  // [SCARY SHIT] persistent caches over server reloads
-            if (res != null)
-            {
-                return res.createItemStack(1);
-            }
-            // ItemParser was removed in 26.1 - need to use alternative item parsing
-            // For now, return empty stack if item not in cache
-            return ItemStack.EMPTY;
+            ItemInput res = itemCache.get(itemString, s -> ItemArgument.item(CommandBuildContext.simple(regs, FeatureFlags.REGISTRY.allFlags())).parse(new StringReader(s)));
+            return res.createItemStack(1);
         }
         catch (CommandSyntaxException e)
         {
@@ -394,9 +397,14 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
         throw new InternalExpressionException("How did we get here: Unknown nbt element class: " + t.getType().getName());
     }
 
+    private static boolean isContainer(Tag t)
+    {
+        return t instanceof CompoundTag || t instanceof CollectionTag;
+    }
+
     private static Value decodeTag(Tag t)
     {
-        return t instanceof CompoundTag || t instanceof CollectionTag ? new NBTSerializableValue(() -> t) : decodeSimpleTag(t);
+        return isContainer(t) ? new NBTSerializableValue(() -> t) : decodeSimpleTag(t);
     }
 
     private static Value decodeTagDeep(Tag t)
@@ -493,6 +501,8 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
         try
         {
             ensureOwnership();
+            // caller may modify the tag
+            dirty();
             return (CompoundTag) getTag();
         }
         catch (ClassCastException e)
@@ -501,6 +511,19 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
         }
     }
 
+    /**
+     * Like {@link #getCompoundTag()}, but without taking ownership of the tag, so it may be shared with other values
+     * and must not be modified. Use for reading only.
+     */
+    public CompoundTag readCompoundTag()
+    {
+        if (getTag() instanceof final CompoundTag ctag)
+        {
+            return ctag;
+        }
+        throw new InternalExpressionException(getString() + " is not a valid compound tag");
+    }
+
     @Override
     public boolean put(Value where, Value value)
     {
@@ -512,6 +535,8 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
     {
         /// WIP
         ensureOwnership();
+        // creating missing parents may modify the tag even if the insertion fails
+        lookups = null;
         NbtPathArgument.NbtPath path = cachePath(where.getString());
         Tag tagToInsert = value instanceof final NBTSerializableValue nbtsv
                 ? nbtsv.getTag()
@@ -661,30 +686,80 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
     public Value get(Value value)
     {
         String valString = value.getString();
-        NbtPathArgument.NbtPath path = cachePath(valString);
-        try
+        List<Tag> tags = lookup(valString);
+        if (tags.isEmpty())
+        {
+            return Value.NULL;
+        }
+        if (tags.size() == 1 && !valString.endsWith("[]"))
         {
-            List<Tag> tags = path.get(getTag());
-            if (tags.isEmpty())
+            return decodeResult(tags.get(0));
+        }
+        return ListValue.wrap(tags.stream().map(this::decodeResult));
+    }
+
+    /**
+     * Containers of a tag that is not owned are returned as views, since neither side modifies them in place.
+     * An owned tag can still be modified in place, so only the returned part of it is copied.
+     */
+    private Value decodeResult(Tag t)
+    {
+        if (owned && isContainer(t))
+        {
+            return new NBTSerializableValue(t.copy());
+        }
+        return decodeTag(t);
+    }
+
+    /**
+     * Resolves the path against the tag, without copying or converting it. For tags that are not owned, so cannot change,
+     * results are cached, so repeated queries of the same path cost a map lookup.
+     */
+    private List<Tag> lookup(String pathString)
+    {
+        if (owned)
+        {
+            // owned tag can be modified in place through other handles to this value
+            try
             {
-                return Value.NULL;
+                return cachePath(pathString).get(getTag());
             }
-            if (tags.size() == 1 && !valString.endsWith("[]"))
+            catch (CommandSyntaxException ignored)
+            {
+                return List.of();
+            }
+        }
+        Map<String, List<Tag>> cache = lookups;
+        if (cache != null)
+        {
+            List<Tag> cached = cache.get(pathString);
+            if (cached != null)
             {
-                return NBTSerializableValue.decodeTag(tags.get(0));
+                return cached;
             }
-            return ListValue.wrap(tags.stream().map(NBTSerializableValue::decodeTag));
+        }
+        List<Tag> tags;
+        try
+        {
+            tags = cachePath(pathString).get(getTag());
         }
         catch (CommandSyntaxException ignored)
         {
+            tags = List.of();
+        }
+        if (cache == null || cache.size() >= 32)
+        {
+            cache = new ConcurrentHashMap<>();
+            lookups = cache;
         }
-        return Value.NULL;
+        cache.put(pathString, tags);
+        return tags;
     }
 
     @Override
     public boolean has(Value where)
     {
-        return cachePath(where.getString()).countMatching(getTag()) > 0;
+        return !lookup(where.getString()).isEmpty();
     }
 
     private void ensureOwnership()
@@ -694,6 +769,7 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
             nbtTag = getTag().copy();
             nbtString = null;
             nbtSupplier = null;  // just to be sure
+            lookups = null;
             owned = true;
         }
     }
@@ -701,6 +777,7 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
     private void dirty()
     {
         nbtString = null;
+        lookups = null;
     }
 
     @Override
@@ -708,6 +785,7 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
     {
         NbtPathArgument.NbtPath path = cachePath(where.getString());
         ensureOwnership();
+        lookups = null;
         int removed = path.remove(getTag());
         if (removed > 0)
         {
@@ -730,29 +808,18 @@ public class NBTSerializableValue extends Value implements ContainerValueInterfa
 
 
 
-    private static final Map<String, NbtPathArgument.NbtPath> pathCache = new HashMap<>();
+    private static final ParseCache<NbtPathArgument.NbtPath> pathCache = ParseCache.create("nbt_paths", 1024);
 
     private static NbtPathArgument.NbtPath cachePath(String arg)
     {
-        NbtPathArgument.NbtPath res = pathCache.get(arg);
-        if (res != null)
-        {
-            return res;
-        }
         try
         {
-            res = NbtPathArgument.nbtPath().parse(new StringReader(arg));
+            return pathCache.get(arg, s -> NbtPathArgument.nbtPath().parse(new StringReader(s)));
         }
         catch (CommandSyntaxException exc)
         {
             throw new InternalExpressionException("Incorrect nbt path: " + arg);
         }
-        if (pathCache.size() > 1024)
-        {
-            pathCache.clear();
-        }
-        pathCache.put(arg, res);
-        return res;
     }
 
     @Override
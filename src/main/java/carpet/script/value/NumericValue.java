@@ -325,6 +325,14 @@ public class NumericValue extends Value
         return longValue != null || getDouble() == getLong();
     }
 
+    /**
+     * @return true if this number holds an exact long value, rather than just a double
+     */
+    public boolean hasLongValue()
+    {
+        return longValue != null;
+    }
+
     public Value mod(NumericValue n2)
     {
         if (this.longValue != null && n2.longValue != null)
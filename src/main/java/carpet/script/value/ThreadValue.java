@@ -6,6 +6,7 @@ import carpet.script.Token;
 import carpet.script.exception.ExitStatement;
 import carpet.script.exception.ExpressionException;
 import carpet.script.exception.InternalExpressionException;
+import carpet.script.utils.TaskPool;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
@@ -13,7 +14,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 
 import net.minecraft.core.RegistryAccess;
@@ -39,16 +40,16 @@ public class ThreadValue extends LazyListValue
 
     public CompletableFuture<Value> getCompletableFutureFromFunction(Value pool, FunctionValue function, Expression expr, Token token, Context ctx, List<Value> args)
     {
-        ExecutorService executor = ctx.host.getExecutor(pool);
+        TaskPool executor = ctx.host.getExecutor(pool);
         ThreadValue callingThread = isCoroutine ? this : null;
         if (executor == null)
         {
             // app is shutting down - no more threads can be spawned.
             return CompletableFuture.completedFuture(Value.NULL);
         }
-        else
+        try
         {
-            return CompletableFuture.supplyAsync(() -> {
+            return executor.submit(() -> {
                 try
                 {
                     return function.execute(ctx, Context.NONE, expr, token, args, callingThread).evalValue(ctx);
@@ -63,7 +64,16 @@ public class ThreadValue extends LazyListValue
                     ctx.host.handleExpressionException("Thread failed\n", exc);
                     return Value.NULL;
                 }
-            }, ctx.host.getExecutor(pool));
+            }, Value.NULL);
+        }
+        catch (RejectedExecutionException e)
+        {
+            if (ctx.host.getExecutor(pool) == null)
+            {
+                // app closed in the meantime
+                return CompletableFuture.completedFuture(Value.NULL);
+            }
+            throw new InternalExpressionException("Cannot start task in pool '" + pool.getString() + "': " + e.getMessage());
         }
     }
 
@@ -500,7 +500,7 @@ public class ValueConversions
             Value nbtValue = items.get(2);
             if (!nbtValue.isNull())
             {
-                nbtTag = ((NBTSerializableValue) NBTSerializableValue.fromValue(nbtValue)).getCompoundTag();
+                nbtTag = ((NBTSerializableValue) NBTSerializableValue.fromValue(nbtValue)).readCompoundTag();
             }
         }
         else
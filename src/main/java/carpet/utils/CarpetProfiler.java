@@ -1,5 +1,6 @@
 package carpet.utils;
 
+import carpet.CarpetSettings;
 import it.unimi.dsi.fastutil.objects.Object2LongMap;
 import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 import net.minecraft.commands.CommandSourceStack;
@@ -16,8 +17,12 @@ import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.entity.BlockEntityType;
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static java.util.Map.entry;
 
@@ -26,12 +31,19 @@ public class CarpetProfiler
     private static final Object2LongOpenHashMap<String> SECTION_STATS = new Object2LongOpenHashMap<>();
     private static final Object2LongOpenHashMap<Pair<Level,Object>> ENTITY_TIMES = new Object2LongOpenHashMap<>();
     private static final Object2LongOpenHashMap<Pair<Level,Object>> ENTITY_COUNT = new Object2LongOpenHashMap<>();
+    // section names by id, with sections of each dimension interned separately so starting a section needs no string building,
+    // and known sections are looked up without locking
+    private static final List<String> SECTION_NAMES = new CopyOnWriteArrayList<>();
+    private static final Map<String, Integer> SECTION_IDS = new ConcurrentHashMap<>();
+    private static final Map<ResourceKey<Level>, Map<String, Integer>> LEVEL_SECTION_IDS = new ConcurrentHashMap<>();
+    private static final Map<ResourceKey<Level>, Map<String, Integer>> CLIENT_SECTION_IDS = new ConcurrentHashMap<>();
+    public static final int TICK_SECTION = section_id(null, "tick");
 
 
     private static CommandSourceStack currentRequester = null;
     public static int tick_health_requested = 0;
     private static int tick_health_elapsed = 0;
-    private static TYPE test_type = TYPE.NONE; //1 for ticks, 2 for entities
+    private static TYPE test_type = TYPE.NONE; //1 for ticks, 2 for entities, 4 for single entities and chunks
     private static long current_tick_start = 0;
     private static final Map<String, String> GENERAL_SECTIONS = Map.of(
         "Network",     "Packet sending, player logins, disconnects, kicks, anti-cheat check for player movement, etc.",
@@ -71,14 +83,20 @@ public class CarpetProfiler
         NONE,
         GENERAL,
         ENTITY,
-        TILEENTITY
+        TILEENTITY,
+        HOTSPOT
     }
 
-    public static record ProfilerToken(TYPE type, Object section, long start, Level world)
+    public static record ProfilerToken(TYPE type, Object section, int id, long start, Level world, Object target)
     {
-        public ProfilerToken(TYPE type, Object section, Level world)
+        public ProfilerToken(TYPE type, Object section, int id, Level world)
         {
-            this(type, section, System.nanoTime(), world);
+            this(type, section, id, System.nanoTime(), world, null);
+        }
+
+        public ProfilerToken(TYPE type, Object section, Level world, Object target)
+        {
+            this(type, section, -1, System.nanoTime(), world, target);
         }
     }
 
@@ -109,62 +127,164 @@ public class CarpetProfiler
         currentRequester = source;
     }
 
+    public static void prepare_hotspot_report(CommandSourceStack source, int ticks)
+    {
+        SECTION_STATS.clear();
+        HotspotProfiler.clear();
+        test_type = TYPE.HOTSPOT;
+        tick_health_elapsed = ticks;
+        tick_health_requested = ticks;
+        current_tick_start = 0L;
+        currentRequester = source;
+    }
+
+    /**
+     * @return id of the section, the same one for each call with the same dimension and name
+     */
+    public static int section_id(Level world, String name)
+    {
+        Map<String, Integer> ids = SECTION_IDS;
+        if (world != null)
+        {
+            Map<ResourceKey<Level>, Map<String, Integer>> levels = world.isClientSide() ? CLIENT_SECTION_IDS : LEVEL_SECTION_IDS;
+            ids = levels.get(world.dimension());
+            if (ids == null)
+            {
+                ids = levels.computeIfAbsent(world.dimension(), d -> new ConcurrentHashMap<>());
+            }
+        }
+        Integer id = ids.get(name);
+        return id != null ? id : register_section(ids, world, name);
+    }
+
+    private static synchronized int register_section(Map<String, Integer> ids, Level world, String name)
+    {
+        Integer id = ids.get(name);
+        if (id == null)
+        {
+            String fullName = (world == null) ? name : String.format("%s.%s%s", world.dimension().identifier(), name, world.isClientSide() ? " (Client)" : "");
+            id = SECTION_NAMES.indexOf(fullName);
+            if (id < 0)
+            {
+                id = SECTION_NAMES.size();
+                SECTION_NAMES.add(fullName);
+            }
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    public static String section_name(int id)
+    {
+        return SECTION_NAMES.get(id);
+    }
+
+    private static boolean is_tick_report_running()
+    {
+        return tick_health_requested != 0L && test_type == TYPE.GENERAL && current_tick_start != 0;
+    }
+
+    private static boolean is_entity_report_running()
+    {
+        return tick_health_requested != 0L && test_type == TYPE.ENTITY && current_tick_start != 0;
+    }
+
+    private static boolean is_hotspot_report_running()
+    {
+        return tick_health_requested != 0L && test_type == TYPE.HOTSPOT && current_tick_start != 0;
+    }
+
+    // section times of each tick are also needed to report lag spikes
+    private static boolean is_recording_ticks()
+    {
+        return CarpetSettings.profilerContinuous || CarpetSettings.lagSpikeThreshold > 0;
+    }
+
     public static ProfilerToken start_section(Level world, String name, TYPE type)
     {
-        if (tick_health_requested == 0L || test_type != TYPE.GENERAL || current_tick_start == 0)
+        if (!is_recording_ticks() && !is_tick_report_running())
             return null;
-        return new ProfilerToken(type, name, world);
+        return new ProfilerToken(type, name, type == TYPE.GENERAL ? section_id(world, name) : -1, world);
     }
 
     public static ProfilerToken start_entity_section(Level world, Entity e, TYPE type)
     {
-        if (tick_health_requested == 0L || test_type != TYPE.ENTITY || current_tick_start == 0)
+        if (!is_entity_report_running() && !is_hotspot_report_running() && !LagSpikeDetector.isCapturing())
             return null;
-        return new ProfilerToken(type, e.getType(), world);
+        return new ProfilerToken(type, e.getType(), world, e);
     }
 
     public static ProfilerToken start_block_entity_section(Level world, BlockEntity be, TYPE type)
     {
-        if (tick_health_requested == 0L || test_type != TYPE.ENTITY || current_tick_start == 0)
+        if (!is_entity_report_running() && !is_hotspot_report_running() && !LagSpikeDetector.isCapturing())
             return null;
-        return new ProfilerToken(type, be.getType(), world);
+        return new ProfilerToken(type, be.getType(), world, be);
     }
 
     public static void end_current_section(ProfilerToken tok)
     {
-        if (tick_health_requested == 0L || test_type != TYPE.GENERAL || current_tick_start == 0 || tok == null)
+        if (tok == null || tok.type != TYPE.GENERAL)
             return;
-        long end_time = System.nanoTime();
-        if (tok.type == TYPE.GENERAL)
+        long elapsed = System.nanoTime() - tok.start;
+        if (is_tick_report_running())
         {
-            Level world = tok.world;
-            String current_section = (world == null) ?
-                    (String) tok.section :
-                    String.format("%s.%s%s", world.dimension().identifier(), tok.section, world.isClientSide() ? " (Client)" : "");
-            SECTION_STATS.addTo(current_section, end_time - tok.start);
+            SECTION_STATS.addTo(section_name(tok.id), elapsed);
+        }
+        // continuous stats are kept for the server thread only
+        if (is_recording_ticks() && (tok.world == null || !tok.world.isClientSide()))
+        {
+            ContinuousProfiler.record(tok.id, elapsed);
         }
     }
 
     public static void end_current_entity_section(ProfilerToken tok)
     {
-        if (tick_health_requested == 0L || test_type != TYPE.ENTITY || current_tick_start == 0 || tok == null)
+        if (tok == null)
+            return;
+        long elapsed = System.nanoTime() - tok.start;
+        if (LagSpikeDetector.isCapturing() && !tok.world.isClientSide())
+        {
+            LagSpikeDetector.recordEntity(tok.world, tok.section, elapsed);
+        }
+        if (is_hotspot_report_running() && !tok.world.isClientSide())
+        {
+            HotspotProfiler.record(tok.world, tok.target, elapsed);
+        }
+        if (!is_entity_report_running())
             return;
-        long end_time = System.nanoTime();
         Pair<Level,Object> section = Pair.of(tok.world, tok.section);
-        ENTITY_TIMES.addTo(section, end_time - tok.start);
+        ENTITY_TIMES.addTo(section, elapsed);
         ENTITY_COUNT.addTo(section, 1);
     }
 
     public static void start_tick_profiling()
     {
-        current_tick_start = System.nanoTime();
+        if (is_recording_ticks() || tick_health_requested != 0)
+            current_tick_start = System.nanoTime();
+        if (CarpetSettings.lagSpikeThreshold > 0)
+            LagSpikeDetector.startTick();
     }
 
     public static void end_tick_profiling(MinecraftServer server)
     {
         if (current_tick_start == 0L)
             return;
-        SECTION_STATS.addTo("tick", System.nanoTime() - current_tick_start);
+        long tick_time = System.nanoTime() - current_tick_start;
+        LagSpikeDetector.endTick(server, tick_time, ContinuousProfiler.currentTick());
+        if (CarpetSettings.profilerContinuous)
+        {
+            ContinuousProfiler.endTick(tick_time);
+        }
+        else
+        {
+            ContinuousProfiler.clearTick();
+        }
+        if (tick_health_requested == 0)
+        {
+            current_tick_start = 0L;
+            return;
+        }
+        SECTION_STATS.addTo("tick", tick_time);
         tick_health_elapsed--;
         if (tick_health_elapsed <= 0)
         {
@@ -172,12 +292,71 @@ public class CarpetProfiler
         }
     }
 
+    public static int report_continuous(CommandSourceStack source, int minutes)
+    {
+        if (ContinuousProfiler.recordedTicks() == 0)
+        {
+            Messenger.m(source, "r No ticks profiled yet, enable profilerContinuous rule to profile all the time");
+            return 0;
+        }
+        ContinuousProfiler.Histogram[] histograms = ContinuousProfiler.getHistograms(minutes);
+        Messenger.m(source, "w ");
+        Messenger.m(source, "wb Section times over the last %dm".formatted(minutes), "g  p50 / p95 / p99 / max");
+        List<Integer> sections = new ArrayList<>();
+        for (int id = 0; id < histograms.length; id++)
+        {
+            if (histograms[id] != null && id != TICK_SECTION && histograms[id].maxMs() > 0.01)
+                sections.add(id);
+        }
+        sections.sort(Comparator.<Integer>comparingDouble(id -> histograms[id].percentileMs(0.95)).reversed());
+        if (TICK_SECTION < histograms.length && histograms[TICK_SECTION] != null)
+            sections.add(0, TICK_SECTION);
+        for (int id : sections)
+        {
+            ContinuousProfiler.Histogram histogram = histograms[id];
+            Messenger.m(source,
+                    "%s %s: ".formatted(id == TICK_SECTION ? "wb" : "w", section_name(id)),
+                    "y %.2f / %.2f / %.2f / %.2fms".formatted(histogram.percentileMs(0.5), histogram.percentileMs(0.95), histogram.percentileMs(0.99), histogram.maxMs()),
+                    "g  (%d ticks)".formatted(histogram.samples()));
+        }
+        // slowest of the recent ticks, with their slowest section
+        long slowest_time = 0L;
+        long[] slowest = null;
+        int slowest_ago = 0;
+        for (int ago = 0; ago < ContinuousProfiler.RING_TICKS; ago++)
+        {
+            long[] tick = ContinuousProfiler.getTick(ago);
+            if (tick == null)
+                break;
+            if (TICK_SECTION < tick.length && tick[TICK_SECTION] > slowest_time)
+            {
+                slowest_time = tick[TICK_SECTION];
+                slowest = tick;
+                slowest_ago = ago;
+            }
+        }
+        if (slowest != null)
+        {
+            int top = -1;
+            for (int id = 0; id < slowest.length; id++)
+            {
+                if (id != TICK_SECTION && (top < 0 || slowest[id] > slowest[top]))
+                    top = id;
+            }
+            Messenger.m(source, "w Slowest recent tick: ", "y %.2fms".formatted(slowest_time / 1e6), "g  %d ticks ago".formatted(slowest_ago),
+                    top < 0 ? "g " : "g , mostly %s: %.2fms".formatted(section_name(top), slowest[top] / 1e6));
+        }
+        return 1;
+    }
+
     public static void finalize_tick_report(MinecraftServer server)
     {
         if (test_type == TYPE.GENERAL)
             finalize_tick_report_for_time(server);
         if (test_type == TYPE.ENTITY)
             finalize_tick_report_for_entities(server);
+        if (test_type == TYPE.HOTSPOT && currentRequester != null)
+            HotspotProfiler.report(currentRequester, tick_health_requested);
         cleanup_tick_report();
     }
 
@@ -186,6 +365,7 @@ public class CarpetProfiler
         SECTION_STATS.clear();
         ENTITY_TIMES.clear();
         ENTITY_COUNT.clear();
+        HotspotProfiler.clear();
         test_type = TYPE.NONE;
         tick_health_elapsed = 0;
         tick_health_requested = 0;
@@ -273,7 +453,7 @@ public class CarpetProfiler
         Messenger.m(currentRequester, String.format("gi The Rest, whatever that might be: %.3fms", divider * rest));
     }
 
-    private static String sectionName(Pair<Level,Object> section)
+    static String sectionName(Pair<Level,Object> section)
     {
         Identifier id;
         final RegistryAccess regs = section.getKey().registryAccess();
@@ -0,0 +1,260 @@
+package carpet.utils;
+
+import java.util.Arrays;
+
+/**
+ * Always-on part of the profiler, enabled with {@link carpet.CarpetSettings#profilerContinuous}.
+ * Section times of each tick are accumulated by section id, then stored in a ring buffer of recent ticks,
+ * and added to latency histograms of 30 second slots, which get merged to answer queries over the last 1, 5 or 15 minutes.
+ * Only the server thread records samples and queries them.
+ */
+public class ContinuousProfiler
+{
+    // ticks kept with all their section times
+    public static final int RING_TICKS = 1200;
+    private static final int TICKS_PER_SLOT = 600;
+    private static final int SLOTS = 31;
+    // histogram buckets split each power of two of microseconds into 4 buckets
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+    private static long[] current = new long[64];
+    private static final long[][] ring = new long[RING_TICKS][];
+    private static final Histogram[][] slots = new Histogram[SLOTS][];
+    private static long ticks = 0;
+    private static final Metrics.Family<Metrics.Histogram> SECTION_METRICS = Metrics.histogram("carpet_tick_section_seconds", "Time spent in each tick section per tick", Metrics.SECONDS_BUCKETS, "section");
+    private static Metrics.Histogram[] sectionMetrics = new Metrics.Histogram[0];
+
+    public static final class Histogram
+    {
+        private final int[] counts = new int[BUCKETS];
+        private int samples;
+        private long total;
+        private long max;
+
+        void add(long nanos)
+        {
+            counts[bucket(nanos / 1000)]++;
+            samples++;
+            total += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        void addAll(Histogram other)
+        {
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                counts[i] += other.counts[i];
+            }
+            samples += other.samples;
+            total += other.total;
+            max = Math.max(max, other.max);
+        }
+
+        public int samples()
+        {
+            return samples;
+        }
+
+        public double meanMs()
+        {
+            return samples == 0 ? 0.0 : total / 1e6 / samples;
+        }
+
+        public double maxMs()
+        {
+            return max / 1e6;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the percentile, in milliseconds, but never above the maximum
+         */
+        public double percentileMs(double percentile)
+        {
+            if (samples == 0)
+            {
+                return 0.0;
+            }
+            long rank = (long) Math.ceil(percentile * samples);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += counts[i];
+                if (seen >= rank)
+                {
+                    return Math.min(upperBoundMicros(i) / 1000.0, maxMs());
+                }
+            }
+            return maxMs();
+        }
+    }
+
+    private static int bucket(long micros)
+    {
+        if (micros < SUB_BUCKETS)
+        {
+            return (int) Math.max(micros, 0);
+        }
+        int power = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (power - 2)) & (SUB_BUCKETS - 1);
+        return Math.min((power - 1) * SUB_BUCKETS + sub, BUCKETS - 1);
+    }
+
+    private static long upperBoundMicros(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket + 1;
+        }
+        int power = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (1L << power) + ((sub + 1L) << (power - 2));
+    }
+
+    static void record(int section, long nanos)
+    {
+        if (section >= current.length)
+        {
+            current = Arrays.copyOf(current, Math.max(section + 1, current.length * 2));
+        }
+        current[section] += nanos;
+    }
+
+    /**
+     * @return section times of the running tick so far, indexed by section id
+     */
+    static long[] currentTick()
+    {
+        return current;
+    }
+
+    /**
+     * Drops section times of the running tick without storing them
+     */
+    static void clearTick()
+    {
+        Arrays.fill(current, 0L);
+    }
+
+    /**
+     * Closes the tick, storing all its section times
+     */
+    static void endTick(long tickNanos)
+    {
+        record(CarpetProfiler.TICK_SECTION, tickNanos);
+        int slot = (int) ((ticks / TICKS_PER_SLOT) % SLOTS);
+        if (ticks % TICKS_PER_SLOT == 0)
+        {
+            slots[slot] = null;
+        }
+        Histogram[] histograms = slots[slot];
+        if (histograms == null || histograms.length < current.length)
+        {
+            histograms = histograms == null ? new Histogram[current.length] : Arrays.copyOf(histograms, current.length);
+            slots[slot] = histograms;
+        }
+        int index = (int) (ticks % RING_TICKS);
+        long[] sample = ring[index];
+        if (sample == null || sample.length != current.length)
+        {
+            sample = new long[current.length];
+            ring[index] = sample;
+        }
+        for (int section = 0; section < current.length; section++)
+        {
+            long nanos = current[section];
+            sample[section] = nanos;
+            // sections that didn't run this tick don't count towards their latencies
+            if (nanos > 0)
+            {
+                if (histograms[section] == null)
+                {
+                    histograms[section] = new Histogram();
+                }
+                histograms[section].add(nanos);
+                sectionMetric(section).observe(nanos / 1e9);
+            }
+        }
+        Arrays.fill(current, 0L);
+        ticks++;
+    }
+
+    private static Metrics.Histogram sectionMetric(int section)
+    {
+        if (section >= sectionMetrics.length)
+        {
+            sectionMetrics = Arrays.copyOf(sectionMetrics, current.length);
+        }
+        if (sectionMetrics[section] == null)
+        {
+            sectionMetrics[section] = SECTION_METRICS.labels(CarpetProfiler.section_name(section));
+        }
+        return sectionMetrics[section];
+    }
+
+    public static void reset()
+    {
+        Arrays.fill(current, 0L);
+        Arrays.fill(ring, null);
+        Arrays.fill(slots, null);
+        ticks = 0;
+    }
+
+    public static long recordedTicks()
+    {
+        return ticks;
+    }
+
+    /**
+     * @return section times of a recent tick, indexed by section id, or null if that tick is no longer kept
+     */
+    public static long[] getTick(int ticksAgo)
+    {
+        if (ticksAgo < 0 || ticksAgo >= RING_TICKS || ticksAgo >= ticks)
+        {
+            return null;
+        }
+        return ring[(int) ((ticks - 1 - ticksAgo) % RING_TICKS)];
+    }
+
+    /**
+     * Merges latencies of each section over the last minutes, as far as they were recorded
+     *
+     * @return histograms indexed by section id, with nulls for sections that didn't run
+     */
+    public static Histogram[] getHistograms(int minutes)
+    {
+        int slotCount = Math.min(minutes * 2 - 1, SLOTS - 1);
+        Histogram[] merged = new Histogram[0];
+        if (ticks == 0)
+        {
+            return merged;
+        }
+        long currentSlot = (ticks - 1) / TICKS_PER_SLOT;
+        // the current slot is partial, so the window covers the older slots plus whatever of the current one is there
+        for (long slot = currentSlot; slot >= 0 && slot >= currentSlot - slotCount; slot--)
+        {
+            Histogram[] histograms = slots[(int) (slot % SLOTS)];
+            if (histograms == null)
+            {
+                continue;
+            }
+            if (merged.length < histograms.length)
+            {
+                merged = Arrays.copyOf(merged, histograms.length);
+            }
+            for (int section = 0; section < histograms.length; section++)
+            {
+                if (histograms[section] != null)
+                {
+                    if (merged[section] == null)
+                    {
+                        merged[section] = new Histogram();
+                    }
+                    merged[section].addAll(histograms[section]);
+                }
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,210 @@
+package carpet.utils;
+
+import carpet.script.utils.ShapeDispatcher;
+import carpet.script.value.ListValue;
+import carpet.script.value.NumericValue;
+import carpet.script.value.StringValue;
+import carpet.script.value.Value;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.Identifier;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Attributes tick time to single entities, block entities and chunks, for /profile hotspots.
+ * Chunk times are kept exactly, since loaded chunks bound their number. Single entities and block entities
+ * are a weighted reservoir sample of their ticks, each tick kept with a chance growing with the time it took,
+ * so the memory stays bounded no matter how many of them tick, and the slowest ones are the most likely to show up.
+ */
+public class HotspotProfiler
+{
+    private static final int RESERVOIR_SIZE = 8192;
+    private static final int TOP = 10;
+    private static final int HEATMAP_CHUNKS = 64;
+    private static final int HEATMAP_DURATION = 600;
+
+    // instance is the uuid of an entity, or the position of a block entity
+    private record Sample(double key, Level level, Object instance, Object type, BlockPos pos, long nanos)
+    {
+    }
+
+    private record Instance(Level level, Object instance)
+    {
+    }
+
+    private static final PriorityQueue<Sample> reservoir = new PriorityQueue<>(Comparator.comparingDouble(Sample::key));
+    private static final Map<Level, Long2LongOpenHashMap> chunkTimes = new HashMap<>();
+    // where in the chunk something ticked, to teleport to
+    private static final Map<Level, Long2ObjectOpenHashMap<BlockPos>> chunkPositions = new HashMap<>();
+    private static final SplittableRandom random = new SplittableRandom();
+    private static long totalNanos = 0L;
+    private static long ticked = 0L;
+
+    public static void clear()
+    {
+        reservoir.clear();
+        chunkTimes.clear();
+        chunkPositions.clear();
+        totalNanos = 0L;
+        ticked = 0L;
+    }
+
+    static void record(Level level, Object target, long nanos)
+    {
+        Object instance;
+        Object type;
+        BlockPos pos;
+        if (target instanceof Entity e)
+        {
+            instance = e.getUUID();
+            type = e.getType();
+            pos = e.blockPosition();
+        }
+        else if (target instanceof BlockEntity be)
+        {
+            instance = be.getBlockPos();
+            type = be.getType();
+            pos = be.getBlockPos();
+        }
+        else
+        {
+            return;
+        }
+        long chunk = chunkKey(pos.getX() >> 4, pos.getZ() >> 4);
+        chunkTimes.computeIfAbsent(level, l -> new Long2LongOpenHashMap()).addTo(chunk, nanos);
+        chunkPositions.computeIfAbsent(level, l -> new Long2ObjectOpenHashMap<>()).put(chunk, pos);
+        totalNanos += nanos;
+        ticked++;
+        // A-Res: keeping the largest keys of u^(1/w) is sampling proportionally to weights, compared here by their logarithm
+        double key = Math.log(random.nextDouble()) / Math.max(nanos, 1L);
+        if (reservoir.size() < RESERVOIR_SIZE)
+        {
+            reservoir.add(new Sample(key, level, instance, type, pos, nanos));
+        }
+        else if (key > reservoir.peek().key())
+        {
+            reservoir.poll();
+            reservoir.add(new Sample(key, level, instance, type, pos, nanos));
+        }
+    }
+
+    private static long chunkKey(int x, int z)
+    {
+        return (x & 0xffffffffL) | ((z & 0xffffffffL) << 32);
+    }
+
+    private static String dimensionName(Level level)
+    {
+        Identifier id = level.dimension().identifier();
+        return "minecraft".equals(id.getNamespace()) ? id.getPath() : id.toString();
+    }
+
+    static void report(CommandSourceStack source, int ticks)
+    {
+        Messenger.m(source, "w ");
+        if (ticked == 0L)
+        {
+            Messenger.m(source, "r No entities or block entities ticked");
+            return;
+        }
+        double perTick = 1.0D / ticks / 1000000;
+        // with all ticks fitting in the reservoir, the times are exact, otherwise each sample stands for the same share of the time
+        boolean exact = ticked <= RESERVOIR_SIZE;
+        Object2LongOpenHashMap<Instance> instanceTimes = new Object2LongOpenHashMap<>();
+        Object2IntOpenHashMap<Instance> instanceSamples = new Object2IntOpenHashMap<>();
+        Map<Instance, Sample> latest = new HashMap<>();
+        for (Sample sample : reservoir)
+        {
+            Instance instance = new Instance(sample.level(), sample.instance());
+            instanceTimes.addTo(instance, sample.nanos());
+            instanceSamples.addTo(instance, 1);
+            latest.put(instance, sample);
+        }
+        List<Instance> instances = new ArrayList<>(latest.keySet());
+        Comparator<Instance> byTime = exact ? Comparator.comparingLong(instanceTimes::getLong) : Comparator.comparingInt(instanceSamples::getInt);
+        instances.sort(byTime.reversed());
+        Messenger.m(source, "wb Top %d CPU hogs".formatted(TOP), "g  %s from %d of %d ticks".formatted(exact ? "measured" : "estimated", reservoir.size(), ticked));
+        for (Instance instance : instances.subList(0, Math.min(TOP, instances.size())))
+        {
+            Sample sample = latest.get(instance);
+            double time = exact ? instanceTimes.getLong(instance) : (double) totalNanos * instanceSamples.getInt(instance) / reservoir.size();
+            Messenger.m(source,
+                    "w - %s ".formatted(CarpetProfiler.sectionName(Pair.of(sample.level(), sample.type()))),
+                    Messenger.tp("c", sample.pos()),
+                    "y  %.3fms".formatted(perTick * time));
+        }
+
+        List<Pair<Level, Long2LongMap.Entry>> chunks = new ArrayList<>();
+        chunkTimes.forEach((level, times) -> times.long2LongEntrySet().forEach(e -> chunks.add(Pair.of(level, e))));
+        chunks.sort(Comparator.<Pair<Level, Long2LongMap.Entry>>comparingLong(p -> p.getValue().getLongValue()).reversed());
+        Messenger.m(source, "wb Top %d chunks".formatted(TOP));
+        for (Pair<Level, Long2LongMap.Entry> chunk : chunks.subList(0, Math.min(TOP, chunks.size())))
+        {
+            long key = chunk.getValue().getLongKey();
+            Messenger.m(source,
+                    "w - [%d, %d] in %s ".formatted((int) key, (int) (key >> 32), dimensionName(chunk.getKey())),
+                    Messenger.tp("c", chunkPositions.get(chunk.getKey()).get(key)),
+                    "y  %.3fms".formatted(perTick * chunk.getValue().getLongValue()));
+        }
+
+        if (source.getEntity() instanceof ServerPlayer player)
+        {
+            drawHeatmap(player);
+        }
+    }
+
+    /**
+     * Shows the player the slowest chunks of the player's dimension, as flat boxes from green to red
+     */
+    private static void drawHeatmap(ServerPlayer player)
+    {
+        Level level = player.level();
+        Long2LongOpenHashMap times = chunkTimes.get(level);
+        if (times == null || times.isEmpty())
+        {
+            return;
+        }
+        List<Long2LongMap.Entry> chunks = new ArrayList<>(times.long2LongEntrySet());
+        chunks.sort(Comparator.comparingLong(Long2LongMap.Entry::getLongValue).reversed());
+        chunks = chunks.subList(0, Math.min(HEATMAP_CHUNKS, chunks.size()));
+        double hottest = chunks.get(0).getLongValue();
+        List<ShapeDispatcher.ShapeWithConfig> shapes = new ArrayList<>();
+        for (Long2LongMap.Entry chunk : chunks)
+        {
+            long key = chunk.getLongKey();
+            int x = ((int) key) << 4;
+            int z = ((int) (key >> 32)) << 4;
+            int y = chunkPositions.get(level).get(key).getY();
+            double heat = chunk.getLongValue() / hottest;
+            int red = (int) (255 * Math.min(1.0, 2 * heat));
+            int green = (int) (255 * Math.min(1.0, 2 * (1 - heat)));
+            int rgb = (red << 24) | (green << 16);
+            Map<String, Value> params = new HashMap<>();
+            params.put("from", ListValue.fromTriple(x, y, z));
+            params.put("to", ListValue.fromTriple(x + 16, y + 1, z + 16));
+            params.put("dim", new StringValue(level.dimension().identifier().toString()));
+            params.put("duration", NumericValue.of(HEATMAP_DURATION));
+            params.put("color", NumericValue.of(rgb | 0xff));
+            params.put("fill", NumericValue.of(rgb | 0x60));
+            shapes.add(new ShapeDispatcher.ShapeWithConfig(ShapeDispatcher.create(player.level().getServer(), "box", params), params));
+        }
+        ShapeDispatcher.sendShape(List.of(player), shapes, player.level().registryAccess());
+    }
+}
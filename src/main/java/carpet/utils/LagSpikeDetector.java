@@ -0,0 +1,267 @@
+package carpet.utils;
+
+import carpet.CarpetSettings;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.storage.LevelResource;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Catches ticks taking longer than {@link CarpetSettings#lagSpikeThreshold} milliseconds.
+ * A watchdog thread waits for each tick to go over the threshold, then samples the stack of the server thread
+ * every millisecond until the tick ends, while the server thread times entities, block entities and notes which
+ * scarpet app is running. Once the tick ends, all of that, with the section times of the tick,
+ * is written to a report in the {@code lagspikes} folder of the world, keeping the last {@link #MAX_REPORTS} reports.
+ */
+public class LagSpikeDetector
+{
+    public static final int MAX_REPORTS = 20;
+    private static final long SAMPLE_INTERVAL = 1_000_000L;
+    private static final int MAX_SAMPLES = 60_000;
+    private static final int MAX_DEPTH = 64;
+    private static final int REPORTED_STACKS = 40;
+    private static final Runnable NOOP = () -> {};
+    private static final DateTimeFormatter FILE_DATE = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private static final Object LOCK = new Object();
+    private static volatile Thread mainThread;
+    private static volatile Thread watchdog;
+    // start of the running tick, or 0 between ticks
+    private static volatile long tickStart;
+    private static volatile boolean capturing;
+    private static volatile String currentApp;
+
+    // written by the watchdog under the lock
+    private static final Object2IntOpenHashMap<String> stacks = new Object2IntOpenHashMap<>();
+    private static final Object2IntOpenHashMap<String> appSamples = new Object2IntOpenHashMap<>();
+    private static int samples;
+    // written by the server thread
+    private static final Object2LongOpenHashMap<Pair<Level, Object>> entityTimes = new Object2LongOpenHashMap<>();
+    private static final Object2LongOpenHashMap<Pair<Level, Object>> entityCounts = new Object2LongOpenHashMap<>();
+
+    private static final ExecutorService writer = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "carpet-lag-spike-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @return true while the running tick is over the threshold, and its entities should be timed
+     */
+    public static boolean isCapturing()
+    {
+        return capturing;
+    }
+
+    public static void startTick()
+    {
+        mainThread = Thread.currentThread();
+        if (watchdog == null)
+        {
+            Thread thread = new Thread(LagSpikeDetector::watch, "carpet-lag-spike-watchdog");
+            thread.setDaemon(true);
+            watchdog = thread;
+            thread.start();
+        }
+        tickStart = System.nanoTime();
+        LockSupport.unpark(watchdog);
+    }
+
+    private static void watch()
+    {
+        while (true)
+        {
+            long start = tickStart;
+            long threshold = CarpetSettings.lagSpikeThreshold * 1_000_000L;
+            if (start == 0L || threshold <= 0L)
+            {
+                // woken up when the next tick starts
+                LockSupport.park();
+                continue;
+            }
+            long wait = start + threshold - System.nanoTime();
+            if (wait > 0L)
+            {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            synchronized (LOCK)
+            {
+                // the tick might have just ended
+                if (tickStart != start)
+                {
+                    continue;
+                }
+                capturing = true;
+            }
+            while (true)
+            {
+                synchronized (LOCK)
+                {
+                    if (tickStart != start)
+                    {
+                        break;
+                    }
+                    sample();
+                }
+                LockSupport.parkNanos(SAMPLE_INTERVAL);
+            }
+        }
+    }
+
+    private static void sample()
+    {
+        if (samples >= MAX_SAMPLES)
+        {
+            return;
+        }
+        StackTraceElement[] trace = mainThread.getStackTrace();
+        StringBuilder folded = new StringBuilder();
+        // root first, like in flame graph inputs
+        for (int i = Math.min(trace.length, MAX_DEPTH) - 1; i >= 0; i--)
+        {
+            folded.append(trace[i].getClassName()).append('.').append(trace[i].getMethodName());
+            if (i > 0)
+            {
+                folded.append(';');
+            }
+        }
+        stacks.addTo(folded.toString(), 1);
+        String app = currentApp;
+        if (app != null)
+        {
+            appSamples.addTo(app, 1);
+        }
+        samples++;
+    }
+
+    /**
+     * Marks the scarpet app as running on the server thread, until the returned token is run
+     */
+    public static Runnable enterApp(String app)
+    {
+        if (CarpetSettings.lagSpikeThreshold <= 0 || Thread.currentThread() != mainThread)
+        {
+            return NOOP;
+        }
+        String previous = currentApp;
+        currentApp = app;
+        return () -> currentApp = previous;
+    }
+
+    static void recordEntity(Level level, Object type, long nanos)
+    {
+        Pair<Level, Object> section = Pair.of(level, type);
+        entityTimes.addTo(section, nanos);
+        entityCounts.addTo(section, 1);
+    }
+
+    /**
+     * Closes the tick, and reports it if it went over the threshold
+     *
+     * @param sections section times of the tick, indexed by section id
+     */
+    static void endTick(MinecraftServer server, long tickNanos, long[] sections)
+    {
+        if (tickStart == 0L)
+        {
+            return;
+        }
+        boolean captured;
+        synchronized (LOCK)
+        {
+            // the watchdog only starts capturing under the lock, while the tick is still running
+            tickStart = 0L;
+            captured = capturing;
+            capturing = false;
+        }
+        long threshold = CarpetSettings.lagSpikeThreshold * 1_000_000L;
+        if (!captured && (threshold <= 0L || tickNanos < threshold))
+        {
+            return;
+        }
+        String report;
+        synchronized (LOCK)
+        {
+            report = report(server.getTickCount(), tickNanos, threshold, sections);
+            stacks.clear();
+            appSamples.clear();
+            samples = 0;
+        }
+        entityTimes.clear();
+        entityCounts.clear();
+        Path folder = server.getWorldPath(LevelResource.ROOT).resolve("lagspikes");
+        Path file = folder.resolve("spike-" + LocalDateTime.now().format(FILE_DATE) + "-" + server.getTickCount() + ".txt");
+        writer.execute(() -> write(folder, file, report));
+    }
+
+    private static String report(int tick, long tickNanos, long threshold, long[] sections)
+    {
+        StringBuilder report = new StringBuilder();
+        report.append("Lag spike at tick %d: %.2fms, threshold %.0fms\n".formatted(tick, tickNanos / 1e6, threshold / 1e6));
+        report.append("\nSections:\n");
+        for (int id = 0; id < sections.length; id++)
+        {
+            if (sections[id] > 0L && id != CarpetProfiler.TICK_SECTION)
+            {
+                report.append("  %s: %.2fms\n".formatted(CarpetProfiler.section_name(id), sections[id] / 1e6));
+            }
+        }
+        report.append("\nEntities and block entities, timed after the threshold:\n");
+        entityTimes.object2LongEntrySet().stream()
+                .sorted(Comparator.<Object2LongMap.Entry<Pair<Level, Object>>>comparingLong(Object2LongMap.Entry::getLongValue).reversed())
+                .limit(20)
+                .forEach(e -> report.append("  %s: %.2fms, %d ticked\n".formatted(CarpetProfiler.sectionName(e.getKey()), e.getLongValue() / 1e6, entityCounts.getLong(e.getKey()))));
+        report.append("\nScarpet apps, by stack samples:\n");
+        appSamples.object2IntEntrySet().stream()
+                .sorted(Comparator.<Object2IntMap.Entry<String>>comparingInt(Object2IntMap.Entry::getIntValue).reversed())
+                .forEach(e -> report.append("  %s: %d\n".formatted(e.getKey(), e.getIntValue())));
+        report.append("\nStack samples, %d taken every %dms, root frame first:\n".formatted(samples, SAMPLE_INTERVAL / 1_000_000L));
+        stacks.object2IntEntrySet().stream()
+                .sorted(Comparator.<Object2IntMap.Entry<String>>comparingInt(Object2IntMap.Entry::getIntValue).reversed())
+                .limit(REPORTED_STACKS)
+                .forEach(e -> report.append(e.getIntValue()).append(' ').append(e.getKey()).append('\n'));
+        return report.toString();
+    }
+
+    private static void write(Path folder, Path file, String report)
+    {
+        try
+        {
+            Files.createDirectories(folder);
+            Files.writeString(file, report, StandardCharsets.UTF_8);
+            List<Path> reports;
+            try (Stream<Path> files = Files.list(folder))
+            {
+                reports = files.filter(p -> p.getFileName().toString().startsWith("spike-")).sorted().toList();
+            }
+            for (int i = 0; i < reports.size() - MAX_REPORTS; i++)
+            {
+                Files.deleteIfExists(reports.get(i));
+            }
+        }
+        catch (IOException e)
+        {
+            CarpetSettings.LOG.error("Unable to save lag spike report " + file, e);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package carpet.utils;
+
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Registry of everything carpet measures, in a form other programs can read.
+ * Metrics are grouped in families by name, and each family holds one metric per set of label values.
+ * Updating metrics takes no locks, so the server thread, network threads and exporters can all touch them at once.
+ * {@link MetricsExporter} serves them in the Prometheus text format, and writes them to JSON lines files.
+ */
+public class Metrics
+{
+    private static final Map<String, Family<?>> FAMILIES = new ConcurrentHashMap<>();
+
+    // tick section latencies, in seconds, from 10µs to a little over 10s
+    public static final double[] SECONDS_BUCKETS = {0.00001, 0.0001, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 10};
+
+    public static final class Family<M>
+    {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final String[] labelNames;
+        private final Supplier<M> factory;
+        private final Map<List<String>, M> metrics = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type, String[] labelNames, Supplier<M> factory)
+        {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+            this.factory = factory;
+        }
+
+        /**
+         * @return metric for these label values, in the order of label names of the family
+         */
+        public M labels(String... values)
+        {
+            if (values.length != labelNames.length)
+            {
+                throw new IllegalArgumentException("Metric " + name + " takes " + labelNames.length + " labels, not " + values.length);
+            }
+            return metrics.computeIfAbsent(List.of(values), v -> factory.get());
+        }
+
+        public M get()
+        {
+            return labels();
+        }
+
+        /**
+         * Drops all metrics of the family, for gauges of things that might no longer exist
+         */
+        public void clear()
+        {
+            metrics.clear();
+        }
+    }
+
+    public static final class Counter
+    {
+        private final LongAdder value = new LongAdder();
+
+        public void inc()
+        {
+            value.increment();
+        }
+
+        public void add(long amount)
+        {
+            value.add(amount);
+        }
+
+        public long get()
+        {
+            return value.sum();
+        }
+    }
+
+    public static final class Gauge
+    {
+        private final AtomicLong bits = new AtomicLong(Double.doubleToRawLongBits(0.0));
+
+        public void set(double value)
+        {
+            bits.set(Double.doubleToRawLongBits(value));
+        }
+
+        public double get()
+        {
+            return Double.longBitsToDouble(bits.get());
+        }
+    }
+
+    public static final class Histogram
+    {
+        private final double[] bounds;
+        private final AtomicLongArray counts;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder count = new LongAdder();
+
+        private Histogram(double[] bounds)
+        {
+            this.bounds = bounds;
+            this.counts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        public void observe(double value)
+        {
+            int bucket = Arrays.binarySearch(bounds, value);
+            counts.incrementAndGet(bucket < 0 ? -bucket - 1 : bucket);
+            sum.add(value);
+            count.increment();
+        }
+    }
+
+    private static <M> Family<M> register(String name, String help, String type, String[] labelNames, Supplier<M> factory)
+    {
+        Family<?> family = FAMILIES.computeIfAbsent(name, n -> new Family<>(name, help, type, labelNames, factory));
+        if (!family.type.equals(type))
+        {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        @SuppressWarnings("unchecked") Family<M> typed = (Family<M>) family;
+        return typed;
+    }
+
+    /**
+     * Registers a counter, or returns the one already registered with that name. Counter names should end with _total.
+     */
+    public static Family<Counter> counter(String name, String help, String... labelNames)
+    {
+        return register(name, help, "counter", labelNames, Counter::new);
+    }
+
+    public static Family<Gauge> gauge(String name, String help, String... labelNames)
+    {
+        return register(name, help, "gauge", labelNames, Gauge::new);
+    }
+
+    public static Family<Histogram> histogram(String name, String help, double[] buckets, String... labelNames)
+    {
+        return register(name, help, "histogram", labelNames, () -> new Histogram(buckets));
+    }
+
+    /**
+     * @return all metrics in the Prometheus text exposition format
+     */
+    public static String toPrometheus()
+    {
+        StringBuilder out = new StringBuilder();
+        FAMILIES.values().stream().sorted((a, b) -> a.name.compareTo(b.name)).forEach(family -> {
+            if (family.metrics.isEmpty())
+            {
+                return;
+            }
+            out.append("# HELP ").append(family.name).append(' ').append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            family.metrics.forEach((values, metric) -> {
+                String labels = labels(family.labelNames, values, null);
+                switch (metric)
+                {
+                    case Counter c -> sample(out, family.name, labels, c.get());
+                    case Gauge g -> sample(out, family.name, labels, g.get());
+                    case Histogram h -> {
+                        long cumulative = 0;
+                        for (int i = 0; i <= h.bounds.length; i++)
+                        {
+                            cumulative += h.counts.get(i);
+                            String le = i < h.bounds.length ? number(h.bounds[i]) : "+Inf";
+                            sample(out, family.name + "_bucket", labels(family.labelNames, values, le), cumulative);
+                        }
+                        sample(out, family.name + "_sum", labels, h.sum.sum());
+                        sample(out, family.name + "_count", labels, h.count.sum());
+                    }
+                    default -> {}
+                }
+            });
+        });
+        return out.toString();
+    }
+
+    private static String labels(String[] names, List<String> values, String le)
+    {
+        if (names.length == 0 && le == null)
+        {
+            return "";
+        }
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < names.length; i++)
+        {
+            if (i > 0)
+            {
+                labels.append(',');
+            }
+            String value = values.get(i).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+            labels.append(names[i]).append("=\"").append(value).append('"');
+        }
+        if (le != null)
+        {
+            labels.append(names.length > 0 ? ",le=\"" : "le=\"").append(le).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value)
+    {
+        out.append(name).append(labels).append(' ').append(number(value)).append('\n');
+    }
+
+    private static String number(double value)
+    {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            return Long.toString((long) value);
+        }
+        return String.format(Locale.ROOT, "%s", value);
+    }
+
+    /**
+     * @return all metrics as one JSON object, keyed by metric name with its labels, histograms reduced to their count and sum
+     */
+    public static JsonObject toJson()
+    {
+        JsonObject json = new JsonObject();
+        FAMILIES.values().forEach(family -> family.metrics.forEach((values, metric) -> {
+            String key = family.name + labels(family.labelNames, values, null);
+            switch (metric)
+            {
+                case Counter c -> json.addProperty(key, c.get());
+                case Gauge g -> json.addProperty(key, g.get());
+                case Histogram h -> {
+                    JsonObject histogram = new JsonObject();
+                    histogram.addProperty("count", h.count.sum());
+                    histogram.addProperty("sum", h.sum.sum());
+                    json.add(key, histogram);
+                }
+                default -> {}
+            }
+        }));
+        return json;
+    }
+}
@@ -0,0 +1,235 @@
+package carpet.utils;
+
+import carpet.CarpetSettings;
+import carpet.helpers.HopperCounter;
+import carpet.logging.logHelpers.PacketCounter;
+import carpet.script.utils.AppProfiler;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpServer;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.ServerTickRateManager;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.util.TimeUtil;
+import net.minecraft.world.entity.MobCategory;
+import net.minecraft.world.item.DyeColor;
+import net.minecraft.world.level.NaturalSpawner;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Exports {@link Metrics}: over HTTP on localhost, in the Prometheus text format, when {@link CarpetSettings#metricsPort} is set,
+ * and as JSON lines appended to a daily file in the {@code metrics} folder of the world,
+ * every {@link CarpetSettings#metricsLogInterval} seconds, keeping the files of the last {@link #KEPT_FILES} days.
+ * Gauges of server state are refreshed on the server thread once a second while any export is on.
+ */
+public class MetricsExporter
+{
+    public static final int KEPT_FILES = 7;
+    private static final int UPDATE_INTERVAL = 20;
+
+    private static final Metrics.Family<Metrics.Gauge> MSPT = Metrics.gauge("carpet_mspt", "Average milliseconds per tick");
+    private static final Metrics.Family<Metrics.Gauge> TPS = Metrics.gauge("carpet_tps", "Ticks per second");
+    private static final Metrics.Family<Metrics.Gauge> PLAYERS = Metrics.gauge("carpet_players", "Players online");
+    private static final Metrics.Family<Metrics.Gauge> MOBCAP = Metrics.gauge("carpet_mobcap_mobs", "Mobs counting towards the mobcap", "dimension", "category");
+    private static final Metrics.Family<Metrics.Gauge> MOBCAP_MAX = Metrics.gauge("carpet_mobcap_max", "Mobcap", "dimension", "category");
+    private static final Metrics.Family<Metrics.Gauge> SPAWNS = Metrics.gauge("carpet_tracked_spawns", "Mobs spawned since /spawn tracking started", "dimension", "category");
+    private static final Metrics.Family<Metrics.Gauge> COUNTER_ITEMS = Metrics.gauge("carpet_hopper_counter_items", "Items in the hopper counter", "color");
+    private static final Metrics.Family<Metrics.Gauge> COUNTER_RATE = Metrics.gauge("carpet_hopper_counter_items_per_hour", "Items per hour in the hopper counter, in game time", "color");
+
+    private static final Metrics.Family<Metrics.Gauge> PLAYER_PACKETS = Metrics.gauge("carpet_player_packets", "Packets of the player connection since it started", "player", "direction");
+    private static final Metrics.Family<Metrics.Gauge> PLAYER_BYTES = Metrics.gauge("carpet_player_packet_bytes", "Encoded bytes of packets of the player connection since it started, before compression", "player", "direction");
+
+    private static final Metrics.Family<Metrics.Gauge> APP_SECONDS = Metrics.gauge("carpet_scarpet_app_seconds", "Seconds spent in the scarpet app since /script profile start", "app");
+    private static final Metrics.Family<Metrics.Gauge> APP_CALLS = Metrics.gauge("carpet_scarpet_app_calls", "Calls into the scarpet app since /script profile start", "app");
+
+    private static HttpServer httpServer;
+    private static ExecutorService httpExecutor;
+    private static int httpPort;
+    private static long lastLog;
+
+    private static final ExecutorService writer = new ThreadPoolExecutor(0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "carpet-metrics-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void tick(MinecraftServer server)
+    {
+        if (httpPort != CarpetSettings.metricsPort)
+        {
+            stop();
+            if (CarpetSettings.metricsPort > 0)
+            {
+                start(CarpetSettings.metricsPort);
+            }
+        }
+        int interval = CarpetSettings.metricsLogInterval;
+        if ((httpServer == null && interval <= 0) || server.getTickCount() % UPDATE_INTERVAL != 0)
+        {
+            return;
+        }
+        update(server);
+        long now = System.currentTimeMillis();
+        if (interval > 0 && now - lastLog >= interval * 1000L)
+        {
+            lastLog = now;
+            JsonObject line = new JsonObject();
+            line.addProperty("time", now);
+            line.addProperty("tick", server.getTickCount());
+            line.add("metrics", Metrics.toJson());
+            Path folder = server.getWorldPath(LevelResource.ROOT).resolve("metrics");
+            writer.execute(() -> write(folder, line.toString()));
+        }
+    }
+
+    private static void update(MinecraftServer server)
+    {
+        double mspt = ((double) server.getAverageTickTimeNanos()) / TimeUtil.NANOSECONDS_PER_MILLISECOND;
+        ServerTickRateManager trm = server.tickRateManager();
+        double tps = trm.isFrozen() ? 0 : 1000.0D / Math.max(trm.isSprinting() ? 0.0 : trm.millisecondsPerTick(), mspt);
+        MSPT.get().set(mspt);
+        TPS.get().set(tps);
+        PLAYERS.get().set(server.getPlayerCount());
+
+        for (ServerLevel level : server.getAllLevels())
+        {
+            NaturalSpawner.SpawnState lastSpawner = level.getChunkSource().getLastSpawnState();
+            int chunks = SpawnReporter.chunkCounts.getOrDefault(level.dimension(), -1);
+            if (lastSpawner == null || chunks < 0)
+            {
+                continue;
+            }
+            Object2IntMap<MobCategory> counts = lastSpawner.getMobCategoryCounts();
+            String dimension = level.dimension().identifier().toString();
+            for (MobCategory category : SpawnReporter.cachedMobCategories())
+            {
+                MOBCAP.labels(dimension, category.getName()).set(counts.getOrDefault(category, 0));
+                MOBCAP_MAX.labels(dimension, category.getName()).set((int) (chunks * ((double) category.getMaxInstancesPerChunk() / SpawnReporter.MAGIC_NUMBER)));
+            }
+        }
+
+        SPAWNS.clear();
+        if (SpawnReporter.trackingSpawns())
+        {
+            SpawnReporter.spawn_stats.forEach((key, types) -> SPAWNS.labels(key.getLeft().identifier().toString(), key.getRight().getName())
+                    .set(types.values().longStream().sum()));
+        }
+
+        PLAYER_PACKETS.clear();
+        PLAYER_BYTES.clear();
+        for (ServerPlayer player : server.getPlayerList().getPlayers())
+        {
+            for (PacketCounter.Direction direction : PacketCounter.Direction.values())
+            {
+                PacketCounter.Interval totals = PacketCounter.getPlayerTotals(player, direction);
+                if (totals.packets() > 0)
+                {
+                    PLAYER_PACKETS.labels(player.getScoreboardName(), direction.name).set(totals.packets());
+                    PLAYER_BYTES.labels(player.getScoreboardName(), direction.name).set(totals.bytes());
+                }
+            }
+        }
+
+        APP_SECONDS.clear();
+        APP_CALLS.clear();
+        if (AppProfiler.isRunning())
+        {
+            AppProfiler.getAppStats().forEach((app, stats) -> {
+                APP_SECONDS.labels(app).set(stats.totalNanos() / 1e9);
+                APP_CALLS.labels(app).set(stats.calls());
+            });
+        }
+
+        for (DyeColor color : DyeColor.values())
+        {
+            HopperCounter counter = HopperCounter.getCounter(color);
+            COUNTER_ITEMS.labels(color.getName()).set(counter.getTotalItems());
+            COUNTER_RATE.labels(color.getName()).set(counter.getItemsPerHour(server));
+        }
+    }
+
+    private static void start(int port)
+    {
+        try
+        {
+            HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            http.createContext("/metrics", exchange -> {
+                byte[] body = Metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody())
+                {
+                    out.write(body);
+                }
+            });
+            httpExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "carpet-metrics-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+            http.setExecutor(httpExecutor);
+            http.start();
+            httpServer = http;
+            CarpetSettings.LOG.info("Serving carpet metrics on http://localhost:" + port + "/metrics");
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            CarpetSettings.LOG.error("Unable to serve carpet metrics on port " + port, e);
+        }
+        // not retrying a port that failed until the rule changes
+        httpPort = port;
+    }
+
+    public static void stop()
+    {
+        if (httpServer != null)
+        {
+            httpServer.stop(0);
+            httpServer = null;
+            httpExecutor.shutdown();
+            httpExecutor = null;
+        }
+        httpPort = 0;
+    }
+
+    private static void write(Path folder, String line)
+    {
+        try
+        {
+            Files.createDirectories(folder);
+            Path file = folder.resolve("metrics-" + LocalDate.now() + ".jsonl");
+            Files.writeString(file, line + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            List<Path> files;
+            try (Stream<Path> list = Files.list(folder))
+            {
+                files = list.filter(p -> p.getFileName().toString().startsWith("metrics-")).sorted().toList();
+            }
+            for (int i = 0; i < files.size() - KEPT_FILES; i++)
+            {
+                Files.deleteIfExists(files.get(i));
+            }
+        }
+        catch (IOException e)
+        {
+            CarpetSettings.LOG.error("Unable to save carpet metrics", e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package carpet.script.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit test for ForkableList and ForkableMap, backing scarpet list and map values.
+ * Checks that forks stay independent after modifications, and compares copy costs with plain collections.
+ */
+public class ForkableCollectionsTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println("Starting ForkableCollections Unit Tests...");
+
+        try
+        {
+            testListForksAreIndependent();
+            testListHandlesShareChanges();
+            testListAllMatchCache();
+            testMapForksAreIndependent();
+            testMapViewsDetach();
+            benchmarkCopies();
+
+            System.out.println("All ForkableCollections unit tests passed successfully!");
+        }
+        catch (Exception e)
+        {
+            System.err.println("Unit test failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static void testListForksAreIndependent()
+    {
+        System.out.println("Testing list forks...");
+        ForkableList<Integer> original = new ForkableList<>(new ArrayList<>(List.of(1, 2, 3)));
+        ForkableList<Integer> fork = original.fork();
+        check(fork.equals(original), "Fork should start equal to the original");
+
+        fork.add(4);
+        check(original.size() == 3, "Adding to a fork should not change the original");
+        check(fork.size() == 4, "Fork should have the added element");
+
+        original.set(0, 10);
+        check(fork.get(0) == 1, "Changing the original should not change the fork");
+
+        ForkableList<Integer> second = original.fork();
+        second.subList(0, 2).clear();
+        check(original.equals(List.of(10, 2, 3)), "Clearing a sublist of a fork should not change the original");
+        check(second.equals(List.of(3)), "Sublist clear should apply to the fork");
+        System.out.println("  ✓ forks are independent");
+    }
+
+    private static void testListHandlesShareChanges()
+    {
+        System.out.println("Testing list handles...");
+        List<Integer> backing = new ArrayList<>(List.of(1, 2));
+        ForkableList<Integer> list = ForkableList.of(backing);
+        check(ForkableList.of(list) == list, "Wrapping a forkable list should return it as is");
+        ForkableList<Integer> fork = list.fork();
+        list.add(3);
+        check(backing.size() == 2, "Adopted storage is shared with the fork, so it should be copied on write");
+        check(fork.size() == 2 && list.size() == 3, "Only the modified fork should change");
+        System.out.println("  ✓ handles behave correctly");
+    }
+
+    private static void testListAllMatchCache()
+    {
+        System.out.println("Testing allMatch...");
+        ForkableList<Integer> list = new ForkableList<>(new ArrayList<>(List.of(2, 4, 6)));
+        java.util.function.Predicate<Integer> even = i -> i % 2 == 0;
+        check(list.allMatch(even), "All elements should be even");
+        list.add(7);
+        check(!list.allMatch(even), "Cached result should be dropped after modification");
+        System.out.println("  ✓ allMatch cache is invalidated on writes");
+    }
+
+    private static void testMapForksAreIndependent()
+    {
+        System.out.println("Testing map forks...");
+        ForkableMap<String, Integer> original = new ForkableMap<>(new HashMap<>(Map.of("a", 1, "b", 2)));
+        ForkableMap<String, Integer> fork = original.fork();
+        check(fork.equals(original), "Fork should start equal to the original");
+        fork.put("c", 3);
+        check(!original.containsKey("c"), "Adding to a fork should not change the original");
+        original.remove("a");
+        check(fork.get("a") == 1, "Removing from the original should not change the fork");
+        check(original.remove("missing") == null && original.size() == 1, "Removing missing keys is a no-op");
+        System.out.println("  ✓ forks are independent");
+    }
+
+    private static void testMapViewsDetach()
+    {
+        System.out.println("Testing map views...");
+        ForkableMap<String, Integer> original = new ForkableMap<>(new HashMap<>(Map.of("a", 1, "b", 2)));
+        ForkableMap<String, Integer> fork = original.fork();
+        check(fork.readOnly().size() == 2, "Read only view should see shared entries");
+        fork.entrySet().removeIf(e -> e.getValue() == 1);
+        check(original.size() == 2 && fork.size() == 1, "Modifying through views should only affect that fork");
+        System.out.println("  ✓ views detach forks");
+    }
+
+    private static void benchmarkCopies()
+    {
+        System.out.println("Comparing copy costs...");
+        int size = 100_000;
+        int copies = 200;
+        List<Integer> plain = new ArrayList<>();
+        for (int i = 0; i < size; i++)
+        {
+            plain.add(i);
+        }
+        ForkableList<Integer> forkable = ForkableList.copyOf(plain);
+
+        long start = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < copies; i++)
+        {
+            sink += new ArrayList<>(plain).size();
+        }
+        long plainTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < copies; i++)
+        {
+            sink += forkable.fork().size();
+        }
+        long forkTime = System.nanoTime() - start;
+        check(sink == 2L * size * copies, "Copies should have all the elements");
+        System.out.printf("  ArrayList copy: %.3f ms, fork: %.3f ms per copy of %d elements%n",
+                plainTime / 1e6 / copies, forkTime / 1e6 / copies, size);
+    }
+}
@@ -0,0 +1,150 @@
+package carpet.script.utils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Unit test for KeyValueStore, backing scarpet kv_ functions.
+ * Checks persistence across reopening, range scans, recovery from a cut off record, and compaction.
+ */
+public class KeyValueStoreTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println("Starting KeyValueStore Unit Tests...");
+
+        Path folder = null;
+        try
+        {
+            folder = Files.createTempDirectory("kvstore");
+            testPersistence(folder.resolve("persist.kv"));
+            testScan(folder.resolve("scan.kv"));
+            testTruncatedRecord(folder.resolve("truncated.kv"));
+            testCompaction(folder.resolve("compact.kv"));
+
+            System.out.println("All KeyValueStore unit tests passed successfully!");
+        }
+        catch (Exception e)
+        {
+            System.err.println("Unit test failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+        finally
+        {
+            if (folder != null)
+            {
+                try (Stream<Path> files = Files.walk(folder))
+                {
+                    files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+                catch (IOException ignored)
+                {
+                }
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static void testPersistence(Path file) throws IOException
+    {
+        System.out.println("Testing persistence...");
+        KeyValueStore store = KeyValueStore.open(file);
+        store.put("a", "1");
+        store.put("b", "2");
+        store.put("a", "3");
+        check(store.delete("b"), "Deleting existing key should report it");
+        check(!store.delete("c"), "Deleting missing key should not report it");
+        store.close();
+
+        KeyValueStore reopened = KeyValueStore.open(file);
+        check("3".equals(reopened.get("a")), "Latest value should survive reopening");
+        check(reopened.get("b") == null, "Deleted key should stay deleted");
+        check(reopened.size() == 1, "Only one key should be left");
+        reopened.close();
+        System.out.println("✓ Persistence test passed");
+    }
+
+    private static void testScan(Path file) throws IOException
+    {
+        System.out.println("Testing range scans...");
+        KeyValueStore store = KeyValueStore.open(file);
+        for (String key : List.of("d", "a", "c", "b", "e"))
+        {
+            store.put(key, key.toUpperCase());
+        }
+        List<Map.Entry<String, String>> all = store.scan(null, null, Integer.MAX_VALUE);
+        check(all.stream().map(Map.Entry::getKey).toList().equals(List.of("a", "b", "c", "d", "e")), "Scan should be in key order");
+        List<Map.Entry<String, String>> range = store.scan("b", "d", 10);
+        check(range.stream().map(Map.Entry::getKey).toList().equals(List.of("b", "c")), "Range should include start and exclude end");
+        check(store.scan("c", null, 2).size() == 2, "Limit should cap results");
+        check(store.scan("d", "b", 10).isEmpty(), "Inverted range should be empty");
+        store.close();
+        System.out.println("✓ Range scan test passed");
+    }
+
+    private static void testTruncatedRecord(Path file) throws IOException
+    {
+        System.out.println("Testing recovery from a cut off record...");
+        KeyValueStore store = KeyValueStore.open(file);
+        store.put("kept", "value");
+        store.put("lost", "a longer value");
+        store.close();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+        {
+            channel.truncate(channel.size() - 3);
+        }
+        KeyValueStore recovered = KeyValueStore.open(file);
+        check("value".equals(recovered.get("kept")), "Complete record should be kept");
+        check(recovered.get("lost") == null, "Incomplete record should be dropped");
+        recovered.put("after", "crash");
+        recovered.close();
+
+        KeyValueStore reopened = KeyValueStore.open(file);
+        check("crash".equals(reopened.get("after")), "Records written after recovery should be readable");
+        reopened.close();
+        System.out.println("✓ Truncated record test passed");
+    }
+
+    private static void testCompaction(Path file) throws Exception
+    {
+        System.out.println("Testing compaction...");
+        KeyValueStore store = KeyValueStore.open(file);
+        String payload = "x".repeat(1000);
+        for (int i = 0; i < 5000; i++)
+        {
+            store.put("key" + (i % 10), payload + i);
+        }
+        // about 5MB was written in total, while live entries take 10kB
+        Path temp = file.resolveSibling(file.getFileName() + "_compact");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Files.exists(temp) && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        check(Files.size(file) < 2_000_000, "Log should be compacted, but is " + Files.size(file) + " bytes");
+        store.put("key0", "final");
+        store.close();
+
+        KeyValueStore reopened = KeyValueStore.open(file);
+        check(reopened.size() == 10, "All keys should survive compaction");
+        check("final".equals(reopened.get("key0")), "Writes after compaction should be kept");
+        check((payload + 4999).equals(reopened.get("key9")), "Latest values should survive compaction");
+        reopened.close();
+        System.out.println("✓ Compaction test passed");
+    }
+}